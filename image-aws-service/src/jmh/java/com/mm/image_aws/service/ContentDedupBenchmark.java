@@ -0,0 +1,163 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.dto.DownloadedImage;
+import com.mm.image_aws.entity.ContentHashEntry;
+import com.mm.image_aws.repo.ImageJobAsyncRepository;
+import com.mm.image_aws.service.retry.RetryExecutor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Thời gian xử lý một message (50 URL) của ImageProcessingService với các tỉ lệ ảnh trùng nội dung khác nhau,
+ * và số byte upload lên S3 (in ra sau mỗi trial).
+ * dedup = false mô phỏng cách cũ: chỉ mục nội dung luôn trống nên mọi ảnh đều được upload, tạo bản thu nhỏ
+ * và trích xuất metadata.
+ *
+ * Các bước tốn CPU chạy thật (trích xuất metadata, tạo bản thu nhỏ 160/480 px bằng imgscalr);
+ * tải ảnh, S3 và DynamoDB được thay bằng stub không có độ trễ nên kết quả chỉ gồm phần CPU tiết kiệm được.
+ * Ảnh trùng được chọn ngẫu nhiên (seed cố định) trong các ảnh đã gặp trước đó.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ContentDedupBenchmark {
+
+    private static final int URLS_PER_MESSAGE = 50;
+    private static final String JOB_ID = "job-1";
+    private static final String USERNAME = "alice";
+
+    @Param({"0.0", "0.3", "0.7"})
+    public double duplicateRatio;
+
+    @Param({"true", "false"})
+    public boolean dedup;
+
+    private final LongAdder uploadedBytes = new LongAdder();
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder processedImages = new LongAdder();
+    private final AtomicInteger messages = new AtomicInteger();
+    private final Map<String, ContentHashEntry> contentHashes = new ConcurrentHashMap<>();
+
+    private ExecutorService taskExecutor;
+    private ImageProcessingService imageProcessingService;
+    private List<byte[]> photos;
+    private Random random;
+    private int uniqueImages;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        photos = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            photos.add(jpeg(1280, 960, i));
+        }
+        random = new Random(42);
+        taskExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        AwsProperties awsProperties = new AwsProperties();
+        awsProperties.getVariants().setEnabled(true);
+        awsProperties.getVariants().setWidths(List.of(160, 480));
+
+        ImageJobAsyncRepository asyncRepository = mock(ImageJobAsyncRepository.class);
+        when(asyncRepository.findContentHash(anyString())).thenAnswer(invocation -> CompletableFuture.completedFuture(
+                dedup ? Optional.ofNullable(contentHashes.get(invocation.<String>getArgument(0))) : Optional.empty()));
+        when(asyncRepository.saveContentHashIfAbsent(any())).thenAnswer(invocation -> {
+            ContentHashEntry entry = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(contentHashes.putIfAbsent(entry.getSha256(), entry) == null);
+        });
+
+        S3StorageService s3StorageService = mock(S3StorageService.class);
+        when(s3StorageService.upload(anyString(), anyString(), any(byte[].class))).thenAnswer(invocation -> {
+            uploads.increment();
+            uploadedBytes.add(invocation.<byte[]>getArgument(2).length);
+            return CompletableFuture.completedFuture(null);
+        });
+        when(s3StorageService.buildS3PublicUrl(anyString()))
+                .thenAnswer(invocation -> "https://cdn.example.com/" + invocation.getArgument(0));
+
+        ImageDownloaderService downloaderService = mock(ImageDownloaderService.class);
+        when(downloaderService.downloadImage(anyString())).thenAnswer(invocation -> {
+            // URL có dạng https://images.example.com/{số thứ tự ảnh}.jpg
+            String url = invocation.getArgument(0);
+            int image = Integer.parseInt(url.substring(url.lastIndexOf('/') + 1, url.lastIndexOf('.')));
+            byte[] content = photos.get(image % photos.size());
+            return CompletableFuture.completedFuture(
+                    new DownloadedImage(content, "image/jpeg", String.format("%064x", image), null, null, null));
+        });
+
+        imageProcessingService = new ImageProcessingService(downloaderService, s3StorageService,
+                new MetadataService(mock(MetadataWriteBuffer.class)), new ContentDedupService(asyncRepository),
+                new ThumbnailService(s3StorageService, awsProperties, taskExecutor),
+                mock(JobProgressAggregator.class), new RetryExecutor(awsProperties), awsProperties, taskExecutor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        long images = Math.max(1, processedImages.sum());
+        System.out.printf("%nduplicateRatio=%.1f dedup=%s: %d images, %d S3 uploads, %.1f KB uploaded per image%n",
+                duplicateRatio, dedup, images, uploads.sum(), uploadedBytes.sum() / 1024.0 / images);
+        taskExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void processMessage() {
+        List<String> urls = new ArrayList<>(URLS_PER_MESSAGE);
+        for (int i = 0; i < URLS_PER_MESSAGE; i++) {
+            // Ảnh trùng: một ảnh đã gặp, với URL khác (ví dụ cùng một ảnh được đăng ở nhiều nơi)
+            int image = uniqueImages > 0 && random.nextDouble() < duplicateRatio
+                    ? random.nextInt(uniqueImages)
+                    : uniqueImages++;
+            urls.add("https://images.example.com/" + image + ".jpg");
+        }
+        imageProcessingService.processImages("m-" + messages.incrementAndGet(), JOB_ID, USERNAME, urls).join();
+        processedImages.add(URLS_PER_MESSAGE);
+    }
+
+    private static byte[] jpeg(int width, int height, int seed) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(seed * 60, 120, 200), width, height, Color.DARK_GRAY));
+        graphics.fillRect(0, 0, width, height);
+        Random noise = new Random(seed);
+        for (int i = 0; i < 400; i++) {
+            graphics.setColor(new Color(noise.nextInt(0xFFFFFF)));
+            graphics.fillOval(noise.nextInt(width), noise.nextInt(height), 20 + noise.nextInt(80), 20 + noise.nextInt(80));
+        }
+        graphics.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        return output.toByteArray();
+    }
+}
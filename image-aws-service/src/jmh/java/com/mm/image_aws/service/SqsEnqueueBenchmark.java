@@ -0,0 +1,162 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * So sánh thời gian đưa message của một job vào SQS:
+ * - perMessage: cách cũ, một SendMessage cho mỗi message rồi chờ tất cả.
+ * - batched: SqsBatchPublisher (SendMessageBatch, 10 entry mỗi lô, giới hạn số lô song song).
+ *
+ * SQS được thay bằng client giả: mỗi request mất latencyMillis và chỉ có connections request chạy cùng lúc
+ * (giống giới hạn maxConcurrency của HTTP client trong SDK), request còn lại phải xếp hàng.
+ * Số request gửi đi được in ra sau mỗi trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SqsEnqueueBenchmark {
+
+    private static final String JOB_ID = "job-1";
+    private static final String QUEUE_URL = "https://sqs.local/queue.fifo";
+
+    @Param({"1000"})
+    public int messages;
+
+    @Param({"20"})
+    public long latencyMillis;
+
+    @Param({"50"})
+    public int connections;
+
+    private StubSqsAsyncClient sqsClient;
+    private SqsBatchPublisher publisher;
+    private List<String> bodies;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        sqsClient = new StubSqsAsyncClient(latencyMillis, connections);
+        publisher = new SqsBatchPublisher(sqsClient, new AwsProperties());
+        Field queueUrl = SqsBatchPublisher.class.getDeclaredField("queueUrl");
+        queueUrl.setAccessible(true);
+        queueUrl.set(publisher, QUEUE_URL);
+        // Message phiên bản 2 với 50 URL, khoảng 4 KB
+        bodies = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            bodies.add("{\"version\":2,\"jobId\":\"" + JOB_ID + "\",\"username\":\"alice\",\"imageUrls\":["
+                    + "\"https://images.example.com/" + "x".repeat(60) + ".jpg\",".repeat(49)
+                    + "\"https://images.example.com/last.jpg\"]}");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println("SQS requests sent: " + sqsClient.requests.get());
+        sqsClient.close();
+    }
+
+    @Benchmark
+    public void perMessage() {
+        List<CompletableFuture<SendMessageResponse>> futures = bodies.stream()
+                .map(body -> sqsClient.sendMessage(SendMessageRequest.builder()
+                        .queueUrl(QUEUE_URL)
+                        .messageBody(body)
+                        .messageGroupId(JOB_ID)
+                        .messageDeduplicationId(UUID.randomUUID().toString())
+                        .build()))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    }
+
+    @Benchmark
+    public int batched() {
+        return publisher.publish(JOB_ID, bodies).getEnqueued();
+    }
+
+    /**
+     * SQS giả: connections luồng, mỗi luồng giữ một request trong latencyMillis.
+     */
+    static final class StubSqsAsyncClient implements SqsAsyncClient {
+
+        private final long latencyMillis;
+        private final ExecutorService connections;
+        private final AtomicLong requests = new AtomicLong();
+
+        StubSqsAsyncClient(long latencyMillis, int connections) {
+            this.latencyMillis = latencyMillis;
+            this.connections = Executors.newFixedThreadPool(connections, runnable -> {
+                Thread thread = new Thread(runnable, "StubSqs");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        @Override
+        public CompletableFuture<SendMessageResponse> sendMessage(SendMessageRequest request) {
+            return CompletableFuture.supplyAsync(() -> {
+                roundTrip();
+                return SendMessageResponse.builder().messageId(UUID.randomUUID().toString()).build();
+            }, connections);
+        }
+
+        @Override
+        public CompletableFuture<SendMessageBatchResponse> sendMessageBatch(SendMessageBatchRequest request) {
+            return CompletableFuture.supplyAsync(() -> {
+                roundTrip();
+                return SendMessageBatchResponse.builder()
+                        .successful(request.entries().stream()
+                                .map(entry -> SendMessageBatchResultEntry.builder()
+                                        .id(entry.id())
+                                        .messageId(UUID.randomUUID().toString())
+                                        .build())
+                                .collect(Collectors.toList()))
+                        .build();
+            }, connections);
+        }
+
+        private void roundTrip() {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public String serviceName() {
+            return "sqs";
+        }
+
+        @Override
+        public void close() {
+            connections.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.mm.image_aws.service.metadata;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh thời gian đọc kích thước/DPI của một ảnh đã tải về:
+ * ImageHeaderParser (chỉ đọc header) với ImageMetadataReader (dựng toàn bộ cây metadata, cách cũ của MetadataService).
+ * Ảnh được tạo bằng ImageIO lúc setup (JPEG có JFIF, PNG) với kích thước thường gặp.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageHeaderParserBenchmark {
+
+    @Param({"jpeg", "png"})
+    public String format;
+
+    @Param({"1024"})
+    public int width;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int height = width * 3 / 4;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, width, height, Color.DARK_GRAY));
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, format, output);
+        data = output.toByteArray();
+    }
+
+    @Benchmark
+    public Optional<ImageHeaderParser.HeaderInfo> headerParser() {
+        return ImageHeaderParser.parse(data);
+    }
+
+    @Benchmark
+    public Metadata metadataReader() throws Exception {
+        return ImageMetadataReader.readMetadata(new ByteArrayInputStream(data));
+    }
+}
@@ -1,34 +1,123 @@
 package com.mm.image_aws.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mm.image_aws.service.download.HttpPoolMetrics;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.ChainElement;
+import org.apache.hc.client5.http.impl.DefaultRedirectStrategy;
 import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.pool.PoolConcurrencyPolicy;
+import org.apache.hc.core5.pool.PoolReusePolicy;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
+import java.util.Map;
+
 @Configuration
-@EnableConfigurationProperties(AwsProperties.class)
+@EnableConfigurationProperties({AwsProperties.class, HttpClientProperties.class})
 public class AppConfig {
 
     @Value("${aws.region}")
     private String awsRegion;
 
     @Bean
-    public CloseableHttpAsyncClient httpAsyncClient() {
-        CloseableHttpAsyncClient client = HttpAsyncClients.createDefault();
+    public HttpPoolMetrics httpPoolMetrics() {
+        return new HttpPoolMetrics();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpAsyncClient httpAsyncClient(HttpClientProperties properties, HttpPoolMetrics poolMetrics) {
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(properties.getConnectTimeoutMs()))
+                .setSocketTimeout(Timeout.ofMilliseconds(properties.getSocketTimeoutMs()))
+                .setTimeToLive(TimeValue.ofMilliseconds(properties.getKeepAliveMs()))
+                .setValidateAfterInactivity(TimeValue.ofMilliseconds(properties.getValidateAfterInactivityMs()))
+                .build();
+
+        // NEGOTIATE: dùng HTTP/2 qua ALPN nếu host hỗ trợ, ngược lại dùng HTTP/1.1
+        TlsConfig tlsConfig = TlsConfig.custom()
+                .setVersionPolicy(properties.isHttp2Enabled() ? HttpVersionPolicy.NEGOTIATE : HttpVersionPolicy.FORCE_HTTP_1)
+                .build();
+
+        PoolingAsyncClientConnectionManager connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(properties.getMaxConnTotal())
+                .setMaxConnPerRoute(properties.getMaxConnPerRoute())
+                .setDefaultConnectionConfig(connectionConfig)
+                .setDefaultTlsConfig(tlsConfig)
+                .setPoolConcurrencyPolicy(PoolConcurrencyPolicy.STRICT)
+                // Ưu tiên dùng lại kết nối vừa trả về để các kết nối còn lại được đóng khi rảnh
+                .setConnPoolPolicy(PoolReusePolicy.LIFO)
+                .build();
+        applyPerHostLimits(connectionManager, properties.getMaxConnPerHost());
+        poolMetrics.bind(connectionManager);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(properties.getConnectionRequestTimeoutMs()))
+                .setResponseTimeout(Timeout.ofMilliseconds(properties.getResponseTimeoutMs()))
+                .setRedirectsEnabled(properties.isFollowRedirects())
+                .setMaxRedirects(properties.getMaxRedirects())
+                .setCircularRedirectsAllowed(false)
+                .build();
+
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setRedirectStrategy(DefaultRedirectStrategy.INSTANCE)
+                .setKeepAliveStrategy((response, context) -> TimeValue.ofMilliseconds(properties.getKeepAliveMs()))
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setIoThreadCount(Math.max(1, properties.getIoThreadCount()))
+                        .setSoTimeout(Timeout.ofMilliseconds(properties.getSocketTimeoutMs()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(properties.getIdleTimeoutMs()))
+                .addExecInterceptorBefore(ChainElement.CONNECT.name(), "pool-lease-start", poolMetrics.beforeConnect())
+                .addExecInterceptorAfter(ChainElement.CONNECT.name(), "pool-lease-end", poolMetrics.afterConnect())
+                .build();
         client.start();
         return client;
     }
 
+    /**
+     * Giới hạn kết nối riêng cho từng host. Khóa là "host" (áp dụng cho cổng 443 và 80)
+     * hoặc "host:port" cho host dùng cổng khác.
+     */
+    static void applyPerHostLimits(PoolingAsyncClientConnectionManager connectionManager, Map<String, Integer> limits) {
+        limits.forEach((key, max) -> {
+            int colon = key.lastIndexOf(':');
+            if (colon > 0) {
+                String host = key.substring(0, colon);
+                int port = Integer.parseInt(key.substring(colon + 1));
+                connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost("https", host, port), null, true), max);
+                connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost("http", host, port), null, false), max);
+            } else {
+                connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost("https", key, 443), null, true), max);
+                connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost("http", key, 80), null, false), max);
+            }
+        });
+    }
+
     @Bean
     public S3AsyncClient s3AsyncClient() {
         return S3AsyncClient.builder()
@@ -69,6 +158,21 @@ public class AppConfig {
     }
 
 
+    @Bean
+    public DynamoDbAsyncClient dynamoDbAsyncClient() {
+        return DynamoDbAsyncClient.builder()
+                .region(Region.of(awsRegion))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+    }
+
+    @Bean
+    public DynamoDbEnhancedAsyncClient dynamoDbEnhancedAsyncClient(DynamoDbAsyncClient dynamoDbAsyncClient) {
+        return DynamoDbEnhancedAsyncClient.builder()
+                .dynamoDbClient(dynamoDbAsyncClient)
+                .build();
+    }
+
     @Bean
     public ObjectMapper objectMapper() {
         // Cấu hình để không serialize các giá trị null
@@ -3,6 +3,8 @@ package com.mm.image_aws.config;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.List;
+
 @ConfigurationProperties(prefix = "aws")
 @Data
 public class AwsProperties {
@@ -25,6 +27,94 @@ public class AwsProperties {
         this.maxFileSize = maxFileSize;
     }
 
+    // Cấu hình gửi message theo lô lên SQS
+    private Sqs sqs = new Sqs();
+
+    @Data
+    public static class Sqs {
+        // Số lô SendMessageBatch được phép chạy song song cho một job
+        private int maxInFlightBatches = 8;
+        // Số lần gửi lại tối đa cho các entry bị lỗi
+        private int maxRetries = 3;
+        private long retryBaseDelayMs = 100;
+        // Số URL được gom vào một message
+        private int urlsPerMessage = 50;
+    }
+
+    private Processing processing = new Processing();
+
+    @Data
+    public static class Processing {
+        // Số ảnh của một message được xử lý đồng thời
+        private int maxParallelImages = 8;
+        // Upload lên S3 ngay trong lúc tải thay vì tải hết vào bộ nhớ
+        private boolean streamingUpload = false;
+        // Số byte đầu file được giữ lại để đọc metadata khi upload dạng stream
+        private int headerPrefixBytes = 64 * 1024;
+    }
+
+    private Progress progress = new Progress();
+
+    @Data
+    public static class Progress {
+        // Chu kỳ ghi dồn tiến độ job xuống DynamoDB
+        private long flushIntervalMs = 1000;
+    }
+
+    private Retry retry = new Retry();
+
+    @Data
+    public static class Retry {
+        // Số lần thử tối đa cho mỗi bước (tải, upload), tính cả lần đầu
+        private int maxAttempts = 3;
+        private long baseDelayMs = 200;
+        private long maxDelayMs = 5_000;
+        // Retry-After lớn hơn mức này thì không chờ mà coi như lỗi
+        private long maxRetryAfterMs = 20_000;
+        // Tổng số lần thử lại cho phép của một job
+        private int jobBudget = 200;
+    }
+
+    private UrlCache urlCache = new UrlCache();
+
+    @Data
+    public static class UrlCache {
+        private boolean enabled = true;
+        // Số URL giữ trong bộ nhớ của mỗi instance
+        private int localMaxEntries = 10_000;
+        private long localTtlSeconds = 600;
+        // Thời gian sống trên Redis
+        private long ttlSeconds = 7 * 24 * 3600;
+        // Thời gian sống của kết quả mà server gốc không gửi ETag/Last-Modified:
+        // kết quả này được dùng lại mà không kiểm tra lại với server, nên chỉ được tin trong thời gian ngắn
+        private long unvalidatedTtlSeconds = 3600;
+    }
+
+    private Variants variants = new Variants();
+
+    @Data
+    public static class Variants {
+        // Tạo bản thu nhỏ cho mỗi ảnh gốc
+        private boolean enabled = false;
+        private List<Integer> widths = List.of(160, 480, 1080);
+        // jpg hoặc webp (webp chỉ dùng được khi có ImageIO plugin)
+        private String format = "jpg";
+        private float quality = 0.8f;
+    }
+
+    private MetadataWrites metadataWrites = new MetadataWrites();
+
+    @Data
+    public static class MetadataWrites {
+        // Gom metadata và ghi bằng BatchWriteItem (tối đa 25 item mỗi lô)
+        private int batchSize = 25;
+        private long flushIntervalMs = 200;
+        private int maxRetries = 5;
+        private long retryBaseDelayMs = 50;
+        // Thời gian tối đa chờ ghi hết buffer trước khi handler trả kết quả
+        private long drainTimeoutMs = 10_000;
+    }
+
     public static final long MAX_FILE_SIZE_BYTES = 5 * 1024 * 1024; // 5MB
     public static final String MAX_FILE_SIZE_MB = "5MB";
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.mm.image_aws.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cấu hình connection pool và timeout cho HTTP client dùng để tải ảnh.
+ */
+@ConfigurationProperties(prefix = "http.client")
+@Data
+public class HttpClientProperties {
+    // Tổng số kết nối tối đa của pool
+    private int maxConnTotal = 200;
+    // Số kết nối tối đa tới mỗi host nếu host không có cấu hình riêng
+    private int maxConnPerRoute = 20;
+    // Giới hạn riêng cho từng host, ví dụ http.client.max-conn-per-host.drive.google.com=40
+    // hoặc http.client.max-conn-per-host[images.example.com:8443]=10 cho cổng khác 443/80
+    private Map<String, Integer> maxConnPerHost = new HashMap<>();
+
+    private long connectTimeoutMs = 3_000;
+    // Thời gian chờ lấy kết nối từ pool
+    private long connectionRequestTimeoutMs = 5_000;
+    private long responseTimeoutMs = 15_000;
+    private long socketTimeoutMs = 15_000;
+
+    // Kết nối rảnh quá thời gian này sẽ bị đóng
+    private long idleTimeoutMs = 30_000;
+    // Thời gian tối đa một kết nối được giữ để dùng lại
+    private long keepAliveMs = 60_000;
+    private long validateAfterInactivityMs = 2_000;
+
+    // Cho phép thương lượng HTTP/2 qua ALPN với các host hỗ trợ
+    private boolean http2Enabled = true;
+
+    private boolean followRedirects = true;
+    private int maxRedirects = 5;
+
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+
+    // Giới hạn số request đồng thời tới mỗi host, tự điều chỉnh theo độ trễ và lỗi
+    private HostLimit hostLimit = new HostLimit();
+
+    @Data
+    public static class HostLimit {
+        private boolean enabled = true;
+        private int initialLimit = 4;
+        private int minLimit = 1;
+        private int maxLimit = 32;
+        // Hệ số giảm giới hạn khi host trả về 429/503 hoặc timeout
+        private double backoffRatio = 0.5;
+        // TTFB gần đây vượt quá baseline * latencyTolerance được coi là host đang chậm lại
+        private double latencyTolerance = 2.0;
+        // Trọng số của mỗi mẫu TTFB mới trong baseline; càng lớn thì baseline quên mẫu cũ càng nhanh
+        private double baselineSmoothing = 0.05;
+        // Host không có request nào trong khoảng này bị bỏ khỏi bộ nhớ
+        private long idleExpiryMs = 5 * 60_000;
+    }
+}
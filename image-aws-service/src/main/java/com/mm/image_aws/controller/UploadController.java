@@ -1,24 +1,35 @@
 package com.mm.image_aws.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mm.image_aws.dto.CdnUrlResponse;
 import com.mm.image_aws.dto.JobStatusResponse;
 import com.mm.image_aws.dto.JobSubmissionResponse; // THÊM MỚI
+import com.mm.image_aws.dto.PageResponse;
 import com.mm.image_aws.dto.UploadRequest;
 import com.mm.image_aws.service.UploadJobService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/api")
 @RequiredArgsConstructor
 public class UploadController {
 
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    // Số dòng ghi giữa hai lần flush khi trả NDJSON
+    private static final int NDJSON_FLUSH_EVERY = 100;
+
     private final UploadJobService uploadJobService;
+    private final ObjectMapper objectMapper;
 
     @PostMapping("/upload")
     public ResponseEntity<JobSubmissionResponse> submitJob(@RequestBody UploadRequest uploadRequest, @AuthenticationPrincipal UserDetails userDetails) {
@@ -47,5 +58,57 @@ public class UploadController {
     public ResponseEntity<List<CdnUrlResponse>> getUserDetailedCdnUrls(@AuthenticationPrincipal UserDetails userDetails) {
         return ResponseEntity.ok(uploadJobService.getUserDetailedCdnUrls(userDetails.getUsername()));
     }
-}
 
+    @GetMapping("/jobs/page")
+    public ResponseEntity<PageResponse<JobStatusResponse>> getUserJobsPage(@RequestParam(defaultValue = "50") int pageSize,
+                                                                           @RequestParam(required = false) String pageToken,
+                                                                           @RequestParam(defaultValue = "desc") String order,
+                                                                           @AuthenticationPrincipal UserDetails userDetails) {
+        return ResponseEntity.ok(uploadJobService.getUserJobsPage(userDetails.getUsername(), pageSize, pageToken, order));
+    }
+
+    @GetMapping("/cdn-urls/page")
+    public ResponseEntity<PageResponse<String>> getUserCdnUrlsPage(@RequestParam(defaultValue = "50") int pageSize,
+                                                                   @RequestParam(required = false) String pageToken,
+                                                                   @RequestParam(defaultValue = "desc") String order,
+                                                                   @AuthenticationPrincipal UserDetails userDetails) {
+        return ResponseEntity.ok(uploadJobService.getUserCdnUrlsPage(userDetails.getUsername(), pageSize, pageToken, order));
+    }
+
+    @GetMapping("/cdn-urls/detailed/page")
+    public ResponseEntity<PageResponse<CdnUrlResponse>> getUserDetailedCdnUrlsPage(@RequestParam(defaultValue = "50") int pageSize,
+                                                                                   @RequestParam(required = false) String pageToken,
+                                                                                   @RequestParam(defaultValue = "desc") String order,
+                                                                                   @AuthenticationPrincipal UserDetails userDetails) {
+        return ResponseEntity.ok(uploadJobService.getUserDetailedCdnUrlsPage(userDetails.getUsername(), pageSize, pageToken, order));
+    }
+
+    @GetMapping(value = "/jobs/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamUserJobs(@RequestParam(defaultValue = "desc") String order,
+                                                                @AuthenticationPrincipal UserDetails userDetails) {
+        return ndjson(uploadJobService.streamUserJobs(userDetails.getUsername(), order));
+    }
+
+    @GetMapping(value = "/cdn-urls/detailed/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamUserDetailedCdnUrls(@RequestParam(defaultValue = "desc") String order,
+                                                                           @AuthenticationPrincipal UserDetails userDetails) {
+        return ndjson(uploadJobService.streamUserDetailedCdnUrls(userDetails.getUsername(), order));
+    }
+
+    // Mỗi item một dòng JSON; item được ghi ngay khi trang DynamoDB chứa nó về tới
+    private ResponseEntity<StreamingResponseBody> ndjson(Stream<?> items) {
+        StreamingResponseBody body = out -> {
+            int written = 0;
+            Iterator<?> iterator = items.iterator();
+            while (iterator.hasNext()) {
+                out.write(objectMapper.writeValueAsBytes(iterator.next()));
+                out.write('\n');
+                if (++written % NDJSON_FLUSH_EVERY == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+}
@@ -0,0 +1,23 @@
+package com.mm.image_aws.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.mm.image_aws.entity.ContentHashEntry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Kết quả đã xử lý của một URL (sau khi chuẩn hóa), kèm ETag/Last-Modified của server gốc
+ * để kiểm tra lại bằng conditional GET.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CachedUrlResult {
+    private String etag;
+    private String lastModified;
+    private ContentHashEntry result;
+    // Thời điểm ghi vào cache (epoch millis)
+    private long cachedAt;
+}
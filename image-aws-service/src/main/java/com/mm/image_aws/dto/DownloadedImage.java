@@ -12,4 +12,20 @@ import lombok.Getter;
 public class DownloadedImage {
     private final byte[] content;
     private final String contentType;
-}
\ No newline at end of file
+    // SHA-256 (hex) của nội dung, được tính trong lúc tải
+    private final String sha256;
+    // Validator của server gốc, dùng cho conditional GET lần sau
+    private final String etag;
+    private final String lastModified;
+    // Khác null khi URL đã được xử lý trước đó và ảnh trên server không thay đổi (không có content)
+    private final CachedUrlResult cachedResult;
+
+    public static DownloadedImage fromCache(CachedUrlResult cachedResult) {
+        return new DownloadedImage(null, cachedResult.getResult().getContentType(), cachedResult.getResult().getSha256(),
+                cachedResult.getEtag(), cachedResult.getLastModified(), cachedResult);
+    }
+
+    public boolean isFromCache() {
+        return cachedResult != null;
+    }
+}
@@ -0,0 +1,23 @@
+package com.mm.image_aws.dto;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Kết quả đưa message của một job vào hàng đợi SQS.
+ * failedIndexes là vị trí (trong danh sách đầu vào) của các message không gửi được.
+ */
+@Data
+@NoArgsConstructor
+public class EnqueueReport {
+    private String jobId;
+    private int totalMessages;
+    private int enqueued;
+    private int failed;
+    private int batches;
+    private int retriedEntries;
+    private List<Integer> failedIndexes;
+    private long elapsedMillis;
+}
@@ -0,0 +1,56 @@
+package com.mm.image_aws.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Nội dung message SQS gửi cho ImageProcessorHandler.
+ * Phiên bản 2 chứa một nhóm URL của cùng một job trong imageUrls.
+ * Message cũ (không có version) chỉ chứa một URL trong imageUrl và vẫn được chấp nhận.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ImageTaskMessage {
+
+    public static final int CURRENT_VERSION = 2;
+
+    private Integer version;
+    private String jobId;
+    private String username;
+    private List<String> imageUrls;
+    // Chỉ có ở message phiên bản 1
+    private String imageUrl;
+
+    public static ImageTaskMessage of(String jobId, String username, List<String> imageUrls) {
+        return new ImageTaskMessage(CURRENT_VERSION, jobId, username, imageUrls, null);
+    }
+
+    /**
+     * @return true nếu handler hiểu được phiên bản của message (không có version được coi là phiên bản 1).
+     */
+    public boolean isSupportedVersion() {
+        return version == null || (version >= 1 && version <= CURRENT_VERSION);
+    }
+
+    /**
+     * @return Danh sách URL cần xử lý, bất kể message thuộc phiên bản nào.
+     */
+    public List<String> urls() {
+        if (imageUrls != null && !imageUrls.isEmpty()) {
+            return imageUrls;
+        }
+        if (imageUrl != null) {
+            return Collections.singletonList(imageUrl);
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,18 @@
+package com.mm.image_aws.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Một trang kết quả. nextPageToken là chuỗi mờ (opaque) để lấy trang tiếp theo, null nếu đã hết.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PageResponse<T> {
+    private List<T> items;
+    private String nextPageToken;
+}
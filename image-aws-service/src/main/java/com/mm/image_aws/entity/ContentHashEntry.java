@@ -0,0 +1,51 @@
+package com.mm.image_aws.entity;
+
+import lombok.Data;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbAttribute;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
+
+import java.util.Map;
+
+/**
+ * Chỉ mục nội dung ảnh: mỗi SHA-256 trỏ tới object S3 đã lưu và metadata đã trích xuất,
+ * để ảnh trùng nội dung không phải upload và xử lý lại.
+ */
+@DynamoDbBean
+@Data
+public class ContentHashEntry {
+
+    private String pk; // Partition Key: HASH#{sha256}
+    private String sk; // Sort Key: CONTENT
+
+    private String sha256;
+    private String s3Key;
+    private String cdnUrl;
+    private String contentType;
+    private String format;
+    private Integer width;
+    private Integer height;
+    private Long fileSize; // in bytes
+    private Integer dpi;
+    private Map<String, String> variantUrls; // Chiều rộng -> URL bản thu nhỏ
+    private String createdAt;
+
+    @DynamoDbPartitionKey
+    @DynamoDbAttribute("PK")
+    public String getPk() {
+        return "HASH#" + this.sha256;
+    }
+    public void setPk(String pk) {
+        // Setter này cần thiết cho DynamoDB enhanced client
+    }
+
+    @DynamoDbSortKey
+    @DynamoDbAttribute("SK")
+    public String getSk() {
+        return "CONTENT";
+    }
+    public void setSk(String sk) {
+        // Setter này cần thiết cho DynamoDB enhanced client
+    }
+}
@@ -4,16 +4,24 @@ import lombok.Data;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbAttribute;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondaryPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondarySortKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
 
+import java.util.Map;
+
 @DynamoDbBean
 @Data
 public class ImageMetadata {
 
+    public static final String USERNAME_INDEX = "username-createdAt-index";
+
     private String pk; // Partition Key: JOB#{jobId}
-    private String sk; // Sort Key: IMAGE#{s3Key}
+    private String sk; // Sort Key: IMAGE#{imageId}
 
     private String jobId;
+    // ID riêng của từng dòng. Không dùng s3Key: các URL trùng nội dung dùng chung một object S3
+    private String imageId;
     private String username; // Thêm username để truy vấn dễ hơn
     private String originalUrl;
     private String cdnUrl;
@@ -23,6 +31,7 @@ public class ImageMetadata {
     private Integer height;
     private Long fileSize; // in bytes
     private Integer dpi;
+    private Map<String, String> variantUrls; // Chiều rộng -> URL bản thu nhỏ
     private String errorMessage;
     private String createdAt;
 
@@ -37,9 +46,27 @@ public class ImageMetadata {
     @DynamoDbSortKey
     @DynamoDbAttribute("SK")
     public String getSk() {
-        return "IMAGE#" + this.s3Key;
+        return "IMAGE#" + this.imageId;
     }
     public void setSk(String sk) {
         // Setter này cần thiết cho DynamoDB enhanced client
     }
+
+    // Khóa của GSI username-createdAt-index. Dùng thuộc tính riêng (không dùng username/createdAt)
+    // để item UploadJob, vốn cũng có hai thuộc tính đó, nằm ở partition khác (JOBS#) trong index.
+    @DynamoDbSecondaryPartitionKey(indexNames = USERNAME_INDEX)
+    @DynamoDbAttribute("GSI1PK")
+    public String getGsi1pk() {
+        return this.username == null ? null : "USER#" + this.username;
+    }
+    public void setGsi1pk(String gsi1pk) {
+    }
+
+    @DynamoDbSecondarySortKey(indexNames = USERNAME_INDEX)
+    @DynamoDbAttribute("GSI1SK")
+    public String getGsi1sk() {
+        return this.createdAt;
+    }
+    public void setGsi1sk(String gsi1sk) {
+    }
 }
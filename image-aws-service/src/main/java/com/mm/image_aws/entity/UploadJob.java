@@ -4,6 +4,8 @@ import lombok.Data;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbAttribute;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbBean;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondaryPartitionKey;
+import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSecondarySortKey;
 import software.amazon.awssdk.enhanced.dynamodb.mapper.annotations.DynamoDbSortKey;
 
 @DynamoDbBean
@@ -17,6 +19,7 @@ public class UploadJob {
     private String username;
     private int totalImages;
     private int processedImages;
+    private int failedImages; // Số ảnh xử lý lỗi (đã tính trong processedImages)
     private String status;
     private String createdAt;
     private String updatedAt;
@@ -39,4 +42,21 @@ public class UploadJob {
     public void setSk(String sk) {
         // Setter này cần thiết cho DynamoDB enhanced client
     }
+
+    // Job dùng chung GSI với metadata nhưng với tiền tố JOBS#, để liệt kê job theo thời gian tạo
+    @DynamoDbSecondaryPartitionKey(indexNames = ImageMetadata.USERNAME_INDEX)
+    @DynamoDbAttribute("GSI1PK")
+    public String getGsi1pk() {
+        return this.username == null ? null : "JOBS#" + this.username;
+    }
+    public void setGsi1pk(String gsi1pk) {
+    }
+
+    @DynamoDbSecondarySortKey(indexNames = ImageMetadata.USERNAME_INDEX)
+    @DynamoDbAttribute("GSI1SK")
+    public String getGsi1sk() {
+        return this.createdAt;
+    }
+    public void setGsi1sk(String gsi1sk) {
+    }
 }
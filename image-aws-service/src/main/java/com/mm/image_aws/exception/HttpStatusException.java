@@ -0,0 +1,40 @@
+package com.mm.image_aws.exception;
+
+/**
+ * Exception được throw khi server trả về mã HTTP khác 200 lúc tải ảnh
+ */
+public class HttpStatusException extends RuntimeException {
+
+    private final int statusCode;
+    // Thời gian server yêu cầu chờ trước khi thử lại (header Retry-After), -1 nếu không có
+    private final long retryAfterMillis;
+
+    public HttpStatusException(int statusCode) {
+        this(statusCode, -1);
+    }
+
+    public HttpStatusException(int statusCode, long retryAfterMillis) {
+        super("Server trả về mã lỗi: " + statusCode);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    public boolean isServerError() {
+        return statusCode >= 500;
+    }
+
+    /**
+     * @return true nếu server báo đang quá tải hoặc giới hạn tần suất (429, 503).
+     */
+    public boolean isThrottled() {
+        return statusCode == 429 || statusCode == 503;
+    }
+}
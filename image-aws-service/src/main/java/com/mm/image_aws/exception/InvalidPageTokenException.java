@@ -0,0 +1,19 @@
+package com.mm.image_aws.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Exception được ném ra khi page token gửi lên không hợp lệ hoặc không thuộc về user hiện tại.
+ */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidPageTokenException extends IllegalArgumentException {
+
+    public InvalidPageTokenException(String message) {
+        super(message);
+    }
+
+    public InvalidPageTokenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
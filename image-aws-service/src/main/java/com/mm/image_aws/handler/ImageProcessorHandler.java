@@ -3,27 +3,60 @@ package com.mm.image_aws.handler;
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.LambdaLogger;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSEvent;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mm.image_aws.ImageServiceApplication;
+import com.mm.image_aws.dto.ImageTaskMessage;
+import com.mm.image_aws.service.ContentDedupService;
 import com.mm.image_aws.service.ImageProcessingService;
-import lombok.AllArgsConstructor;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import com.mm.image_aws.service.UrlResultCache;
+import com.mm.image_aws.service.JobProgressAggregator;
+import com.mm.image_aws.service.MetadataWriteBuffer;
+import com.mm.image_aws.service.download.AdaptiveHostLimiter;
+import com.mm.image_aws.service.download.HttpPoolMetrics;
+import com.mm.image_aws.service.retry.RetryExecutor;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 
-public class ImageProcessorHandler implements RequestHandler<SQSEvent, Void> {
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ImageProcessorHandler implements RequestHandler<SQSEvent, SQSBatchResponse> {
+
+    // Thời gian dành lại để trả kết quả trước khi Lambda hết thời gian
+    private static final long DEADLINE_SAFETY_MARGIN_MS = 5_000;
 
     private static final ApplicationContext applicationContext;
     private static final ImageProcessingService imageProcessingService;
+    private static final JobProgressAggregator progressAggregator;
+    private static final MetadataWriteBuffer metadataWriteBuffer;
+    private static final HttpPoolMetrics httpPoolMetrics;
+    private static final AdaptiveHostLimiter hostLimiter;
+    private static final RetryExecutor retryExecutor;
+    private static final ContentDedupService contentDedupService;
+    private static final UrlResultCache urlResultCache;
     private static final ObjectMapper objectMapper;
 
     static {
         try {
             applicationContext = new AnnotationConfigApplicationContext(ImageServiceApplication.class);
             imageProcessingService = applicationContext.getBean(ImageProcessingService.class);
+            progressAggregator = applicationContext.getBean(JobProgressAggregator.class);
+            metadataWriteBuffer = applicationContext.getBean(MetadataWriteBuffer.class);
+            httpPoolMetrics = applicationContext.getBean(HttpPoolMetrics.class);
+            hostLimiter = applicationContext.getBean(AdaptiveHostLimiter.class);
+            retryExecutor = applicationContext.getBean(RetryExecutor.class);
+            contentDedupService = applicationContext.getBean(ContentDedupService.class);
+            urlResultCache = applicationContext.getBean(UrlResultCache.class);
             objectMapper = applicationContext.getBean(ObjectMapper.class);
         } catch (Exception e) {
             System.err.println("FATAL: Could not initialize Spring Context for ImageProcessorHandler.");
@@ -32,41 +65,120 @@ public class ImageProcessorHandler implements RequestHandler<SQSEvent, Void> {
         }
     }
 
+    /**
+     * Xử lý các message SQS và chờ cho đến khi tất cả ảnh được xử lý xong (hoặc hết thời gian).
+     * @return Danh sách ID các message thất bại để SQS chỉ gửi lại những message đó.
+     */
     @Override
-    public Void handleRequest(SQSEvent sqsEvent, Context context) {
+    public SQSBatchResponse handleRequest(SQSEvent sqsEvent, Context context) {
         LambdaLogger logger = context.getLogger();
         logger.log("Received " + sqsEvent.getRecords().size() + " SQS messages.");
 
+        Map<String, CompletableFuture<Void>> futuresByMessageId = new LinkedHashMap<>();
+        List<SQSBatchResponse.BatchItemFailure> failures = new ArrayList<>();
+        metadataWriteBuffer.resetFailures();
+
         for (SQSEvent.SQSMessage msg : sqsEvent.getRecords()) {
             String messageBody = msg.getBody();
             logger.log("Processing message body: " + messageBody);
 
             try {
-                SqsMessagePayload payload = objectMapper.readValue(messageBody, SqsMessagePayload.class);
+                ImageTaskMessage message = objectMapper.readValue(messageBody, ImageTaskMessage.class);
+                if (!message.isSupportedVersion()) {
+                    // Message từ producer mới hơn: báo lỗi để được gửi lại (có thể tới phiên bản consumer mới),
+                    // sau maxReceiveCount lần thì nằm ở ImageProcessingDeadLetterQueue thay vì bị mất
+                    logger.log("ERROR: Unsupported message version " + message.getVersion() + ", supported versions are 1-"
+                            + ImageTaskMessage.CURRENT_VERSION + ". Reporting message " + msg.getMessageId() + " as failed.");
+                    failures.add(new SQSBatchResponse.BatchItemFailure(msg.getMessageId()));
+                    continue;
+                }
+                List<String> imageUrls = message.urls();
 
-                if (payload.getJobId() == null || payload.getImageUrl() == null || payload.getUsername() == null) {
-                    logger.log("ERROR: Invalid message payload. JobId, Username, or ImageUrl is null.");
+                if (message.getJobId() == null || message.getUsername() == null || imageUrls.isEmpty()) {
+                    // Không bỏ qua im lặng: message được giữ lại ở dead-letter queue để kiểm tra
+                    logger.log("ERROR: Invalid message payload. JobId, Username, or image URLs are missing. Reporting message "
+                            + msg.getMessageId() + " as failed.");
+                    failures.add(new SQSBatchResponse.BatchItemFailure(msg.getMessageId()));
                     continue;
                 }
 
-                // Gọi service để xử lý ảnh với đầy đủ thông tin
-                imageProcessingService.processImage(payload.getJobId(), payload.getUsername(), payload.getImageUrl());
+                // Gọi service để xử lý cả nhóm ảnh với đầy đủ thông tin
+                futuresByMessageId.put(msg.getMessageId(),
+                        imageProcessingService.processImages(msg.getMessageId(), message.getJobId(), message.getUsername(), imageUrls));
 
             } catch (JsonProcessingException e) {
+                // Message không đọc được thì gửi lại cũng vô ích, nên bỏ qua
                 logger.log("ERROR: Failed to parse SQS message body: " + messageBody + ". Error: " + e.getMessage());
             } catch (Exception e) {
                 logger.log("ERROR: An unexpected error occurred while processing message: " + messageBody + ". Error: " + e.getMessage());
+                failures.add(new SQSBatchResponse.BatchItemFailure(msg.getMessageId()));
+            }
+        }
+
+        awaitCompletion(futuresByMessageId, context);
+        Set<String> unflushedMessageIds;
+        if (drainMetadata(logger)) {
+            unflushedMessageIds = flushProgress(futuresByMessageId.keySet(), logger);
+        } else {
+            // Không biết dòng nào chưa được ghi nên gửi lại mọi message; tiến độ được ghi nhận lại khi xử lý lại
+            progressAggregator.discard(futuresByMessageId.keySet());
+            unflushedMessageIds = futuresByMessageId.keySet();
+        }
+        logger.log("HTTP pool: " + httpPoolMetrics.summary() + ", host limits: " + hostLimiter.snapshot());
+        logger.log("Retries: " + retryExecutor.summary() + ", dedup: " + contentDedupService.summary()
+                + ", url cache: " + urlResultCache.summary());
+
+        futuresByMessageId.forEach((messageId, future) -> {
+            // Message đã xử lý xong nhưng chưa ghi được tiến độ cũng được gửi lại; tiến độ không bị cộng hai lần
+            if (!future.isDone() || future.isCompletedExceptionally() || unflushedMessageIds.contains(messageId)) {
+                failures.add(new SQSBatchResponse.BatchItemFailure(messageId));
             }
+        });
+        if (!failures.isEmpty()) {
+            logger.log("Reporting " + failures.size() + " failed messages for redelivery.");
         }
-        return null;
+        return new SQSBatchResponse(failures);
     }
 
-    @Data
-    @NoArgsConstructor
-    @AllArgsConstructor
-    private static class SqsMessagePayload {
-        private String jobId;
-        private String username;
-        private String imageUrl;
+    // Ghi hết metadata còn trong buffer trước khi Lambda bị đóng băng, trả về false nếu có dòng chưa ghi được
+    private boolean drainMetadata(LambdaLogger logger) {
+        try {
+            boolean drained = metadataWriteBuffer.drain();
+            logger.log("Metadata writes: " + metadataWriteBuffer.summary());
+            if (!drained) {
+                logger.log("ERROR: Not all metadata could be written, every message will be redelivered.");
+            }
+            return drained;
+        } catch (Exception e) {
+            logger.log("ERROR: Failed to drain metadata writes. Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Ghi tiến độ còn lại trước khi Lambda bị đóng băng, trả về ID các message chưa ghi được tiến độ
+    private Set<String> flushProgress(Set<String> messageIds, LambdaLogger logger) {
+        try {
+            Set<String> unflushed = progressAggregator.flush();
+            logger.log("Progress flushed in " + progressAggregator.getLastFlushLatencyMs() + " ms, pending delta: "
+                    + progressAggregator.getPendingDelta());
+            return unflushed;
+        } catch (Exception e) {
+            logger.log("ERROR: Failed to flush job progress. Error: " + e.getMessage());
+            return messageIds;
+        }
+    }
+
+    private void awaitCompletion(Map<String, CompletableFuture<Void>> futuresByMessageId, Context context) {
+        long timeoutMs = Math.max(0, context.getRemainingTimeInMillis() - DEADLINE_SAFETY_MARGIN_MS);
+        try {
+            CompletableFuture.allOf(futuresByMessageId.values().toArray(new CompletableFuture[0]))
+                    .get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            context.getLogger().log("WARN: Deadline reached before all messages finished processing.");
+        } catch (ExecutionException e) {
+            // Từng message thất bại được xác định ở bước sau
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
-}
\ No newline at end of file
+}
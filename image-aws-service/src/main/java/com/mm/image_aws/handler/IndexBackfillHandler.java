@@ -0,0 +1,54 @@
+package com.mm.image_aws.handler;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.RequestHandler;
+import com.mm.image_aws.ImageServiceApplication;
+import com.mm.image_aws.repo.ImageJobRepository;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chạy tay một lần sau khi triển khai: ghi GSI1PK/GSI1SK cho job và metadata cũ
+ * để chúng xuất hiện trong các API phân trang (xem ImageJobRepository.backfillIndexKeys).
+ * Input: {"pageToken": "..."} để chạy tiếp lần trước, hoặc {} để bắt đầu từ đầu bảng.
+ * Output có nextPageToken khác null nếu chưa quét hết bảng trước khi Lambda hết thời gian.
+ */
+public class IndexBackfillHandler implements RequestHandler<Map<String, String>, Map<String, Object>> {
+
+    // Thời gian dành lại để trả kết quả trước khi Lambda hết thời gian
+    private static final long DEADLINE_SAFETY_MARGIN_MS = 30_000;
+
+    private static final ApplicationContext applicationContext;
+    private static final ImageJobRepository imageJobRepository;
+
+    static {
+        try {
+            applicationContext = new AnnotationConfigApplicationContext(ImageServiceApplication.class);
+            imageJobRepository = applicationContext.getBean(ImageJobRepository.class);
+        } catch (Exception e) {
+            System.err.println("FATAL: Could not initialize Spring Context for IndexBackfillHandler.");
+            e.printStackTrace();
+            throw new RuntimeException("Could not initialize Spring Context", e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> handleRequest(Map<String, String> input, Context context) {
+        LambdaLogger logger = context.getLogger();
+        String pageToken = input == null ? null : input.get("pageToken");
+        long deadline = System.currentTimeMillis() + Math.max(0, context.getRemainingTimeInMillis() - DEADLINE_SAFETY_MARGIN_MS);
+
+        ImageJobRepository.BackfillResult result = imageJobRepository.backfillIndexKeys(pageToken, deadline);
+        logger.log("Backfilled index keys for " + result.updated() + " items"
+                + (result.nextPageToken() == null ? ", table fully scanned." : ", more items remain."));
+
+        Map<String, Object> output = new LinkedHashMap<>();
+        output.put("updated", result.updated());
+        output.put("nextPageToken", result.nextPageToken());
+        return output;
+    }
+}
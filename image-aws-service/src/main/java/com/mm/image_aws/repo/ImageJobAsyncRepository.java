@@ -0,0 +1,286 @@
+package com.mm.image_aws.repo;
+
+import com.mm.image_aws.entity.ContentHashEntry;
+import com.mm.image_aws.entity.ImageMetadata;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbAsyncTable;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.enhanced.dynamodb.Expression;
+import software.amazon.awssdk.enhanced.dynamodb.Key;
+import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.BatchWriteItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.PutItemEnhancedRequest;
+import software.amazon.awssdk.enhanced.dynamodb.model.WriteBatch;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Truy cập bảng qua DynamoDbEnhancedAsyncClient: các thao tác trả về CompletableFuture
+ * và không giữ luồng trong lúc chờ DynamoDB.
+ * Luồng xử lý ảnh chỉ dùng repository này; ImageJobRepository (blocking) dành cho các API đồng bộ.
+ */
+@Repository
+public class ImageJobAsyncRepository {
+
+    public static final int MAX_BATCH_WRITE_ITEMS = 25;
+    public static final int MAX_TRANSACT_ITEMS = 100;
+
+    // Bằng thời gian giữ message tối đa của SQS: sau đó message không thể được gửi lại
+    private static final long PROGRESS_MARKER_TTL_SECONDS = TimeUnit.DAYS.toSeconds(14);
+
+    private final DynamoDbEnhancedAsyncClient enhancedAsyncClient;
+    private final DynamoDbAsyncTable<ImageMetadata> metadataTable;
+    private final DynamoDbAsyncTable<ContentHashEntry> contentHashTable;
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final String tableName;
+
+    public ImageJobAsyncRepository(DynamoDbEnhancedAsyncClient enhancedAsyncClient,
+                                   DynamoDbAsyncClient dynamoDbAsyncClient,
+                                   @Value("${aws.dynamodb.table-name}") String tableName) {
+        this.enhancedAsyncClient = enhancedAsyncClient;
+        this.metadataTable = enhancedAsyncClient.table(tableName, TableSchema.fromBean(ImageMetadata.class));
+        this.contentHashTable = enhancedAsyncClient.table(tableName, TableSchema.fromBean(ContentHashEntry.class));
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        this.tableName = tableName;
+    }
+
+    public CompletableFuture<Void> saveMetadata(ImageMetadata metadata) {
+        return metadataTable.putItem(metadata);
+    }
+
+    /**
+     * Ghi một lô metadata bằng BatchWriteItem.
+     * @param items Tối đa 25 item, không trùng khóa.
+     * @return Các item DynamoDB chưa xử lý (cần gửi lại).
+     */
+    public CompletableFuture<List<ImageMetadata>> batchSaveMetadata(List<ImageMetadata> items) {
+        WriteBatch.Builder<ImageMetadata> batch = WriteBatch.builder(ImageMetadata.class).mappedTableResource(metadataTable);
+        items.forEach(batch::addPutItem);
+        BatchWriteItemEnhancedRequest request = BatchWriteItemEnhancedRequest.builder()
+                .addWriteBatch(batch.build())
+                .build();
+        return enhancedAsyncClient.batchWriteItem(request)
+                .thenApply(result -> result.unprocessedPutItemsForTable(metadataTable));
+    }
+
+    public CompletableFuture<Optional<ContentHashEntry>> findContentHash(String sha256) {
+        Key key = Key.builder()
+                .partitionValue("HASH#" + sha256)
+                .sortValue("CONTENT")
+                .build();
+        return contentHashTable.getItem(key).thenApply(Optional::ofNullable);
+    }
+
+    /**
+     * Lưu chỉ mục nội dung nếu chưa có, để hai Lambda xử lý cùng một ảnh không ghi đè lẫn nhau.
+     * @return Future chứa false nếu hash đã tồn tại.
+     */
+    public CompletableFuture<Boolean> saveContentHashIfAbsent(ContentHashEntry entry) {
+        return contentHashTable.putItem(PutItemEnhancedRequest.builder(ContentHashEntry.class)
+                        .item(entry)
+                        .conditionExpression(Expression.builder().expression("attribute_not_exists(PK)").build())
+                        .build())
+                .handle((ignored, throwable) -> {
+                    if (throwable == null) {
+                        return true;
+                    }
+                    if (unwrap(throwable) instanceof ConditionalCheckFailedException) {
+                        return false;
+                    }
+                    throw new CompletionException(unwrap(throwable));
+                });
+    }
+
+    /**
+     * Tăng processedImages (và failedImages) của job một cách nguyên tử bằng UpdateItem với ADD,
+     * không cần đọc item trước và an toàn khi nhiều Lambda cập nhật cùng lúc.
+     * Sau đó chuyển trạng thái job (PENDING -> PROCESSING, hoặc -> COMPLETED) bằng điều kiện.
+     * @param processedDelta Số ảnh vừa xử lý xong (kể cả ảnh lỗi).
+     * @param failedDelta Số ảnh lỗi trong processedDelta.
+     * @return Future chứa giá trị processedImages sau khi tăng;
+     *         hoàn thành với ConditionalCheckFailedException nếu job không tồn tại.
+     */
+    public CompletableFuture<Integer> incrementProgress(String username, String jobId, int processedDelta, int failedDelta) {
+        Map<String, AttributeValue> key = jobKey(username, jobId);
+        UpdateItemRequest request = UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(key)
+                .updateExpression("ADD processedImages :processed, failedImages :failed SET updatedAt = :now")
+                .conditionExpression("attribute_exists(PK)")
+                .expressionAttributeValues(Map.of(
+                        ":processed", AttributeValue.builder().n(String.valueOf(processedDelta)).build(),
+                        ":failed", AttributeValue.builder().n(String.valueOf(failedDelta)).build(),
+                        ":now", AttributeValue.builder().s(Instant.now().toString()).build()))
+                .returnValues(ReturnValue.ALL_NEW)
+                .build();
+        return dynamoDbAsyncClient.updateItem(request).thenCompose(response -> {
+            int processedImages = Integer.parseInt(response.attributes().get("processedImages").n());
+            return advanceStatus(key, response.attributes()).thenApply(ignored -> processedImages);
+        });
+    }
+
+    /**
+     * Tiến độ của một message SQS.
+     * @param processed Số ảnh đã xử lý xong (kể cả ảnh lỗi).
+     * @param failed Số ảnh lỗi trong processed.
+     */
+    public record MessageProgress(String messageId, int processed, int failed) {
+    }
+
+    /**
+     * Cộng tiến độ của các message vào job, mỗi message chỉ được cộng một lần dù SQS gửi lại message bao nhiêu lần.
+     * Lệnh ADD nằm trong cùng một TransactWriteItems với một item đánh dấu cho mỗi message
+     * (PK PROGRESS#{jobId}, SK MSG#{messageId}, ghi với attribute_not_exists). Nếu có message đã được cộng trước đó
+     * thì cả giao dịch bị hủy; các message đó được bỏ ra và giao dịch được gửi lại với các message còn lại.
+     * Sau đó chuyển trạng thái job giống incrementProgress.
+     * @param messages Tối đa MAX_TRANSACT_ITEMS - 1 message.
+     * @return Future hoàn thành với ConditionalCheckFailedException nếu job không tồn tại.
+     */
+    public CompletableFuture<Void> incrementProgressOnce(String username, String jobId, List<MessageProgress> messages) {
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, AttributeValue> key = jobKey(username, jobId);
+        int processedDelta = messages.stream().mapToInt(MessageProgress::processed).sum();
+        int failedDelta = messages.stream().mapToInt(MessageProgress::failed).sum();
+        String expiresAt = String.valueOf(Instant.now().getEpochSecond() + PROGRESS_MARKER_TTL_SECONDS);
+
+        List<TransactWriteItem> items = new ArrayList<>(messages.size() + 1);
+        items.add(TransactWriteItem.builder().update(Update.builder()
+                .tableName(tableName)
+                .key(key)
+                .updateExpression("ADD processedImages :processed, failedImages :failed SET updatedAt = :now")
+                .conditionExpression("attribute_exists(PK)")
+                .expressionAttributeValues(Map.of(
+                        ":processed", AttributeValue.builder().n(String.valueOf(processedDelta)).build(),
+                        ":failed", AttributeValue.builder().n(String.valueOf(failedDelta)).build(),
+                        ":now", AttributeValue.builder().s(Instant.now().toString()).build()))
+                .build()).build());
+        for (MessageProgress message : messages) {
+            items.add(TransactWriteItem.builder().put(Put.builder()
+                    .tableName(tableName)
+                    .item(Map.of(
+                            "PK", AttributeValue.builder().s("PROGRESS#" + jobId).build(),
+                            "SK", AttributeValue.builder().s("MSG#" + message.messageId()).build(),
+                            "expiresAt", AttributeValue.builder().n(expiresAt).build()))
+                    .conditionExpression("attribute_not_exists(PK)")
+                    .build()).build());
+        }
+
+        return dynamoDbAsyncClient.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(items).build())
+                .handle((response, throwable) -> throwable == null ? null : unwrap(throwable))
+                .thenCompose(failure -> {
+                    if (failure == null) {
+                        return readStatus(key).thenCompose(item -> advanceStatus(key, item));
+                    }
+                    if (!(failure instanceof TransactionCanceledException canceled) || !canceled.hasCancellationReasons()) {
+                        return CompletableFuture.failedFuture(failure);
+                    }
+                    // Lý do hủy theo đúng thứ tự các item: item 0 là job, item i + 1 là đánh dấu của message i
+                    List<CancellationReason> reasons = canceled.cancellationReasons();
+                    if (isConditionFailure(reasons.get(0))) {
+                        return CompletableFuture.failedFuture(ConditionalCheckFailedException.builder()
+                                .message("Job " + jobId + " does not exist.")
+                                .build());
+                    }
+                    List<MessageProgress> remaining = new ArrayList<>(messages.size());
+                    for (int i = 0; i < messages.size(); i++) {
+                        if (!isConditionFailure(reasons.get(i + 1))) {
+                            remaining.add(messages.get(i));
+                        }
+                    }
+                    if (remaining.size() == messages.size()) {
+                        return CompletableFuture.failedFuture(failure);
+                    }
+                    return incrementProgressOnce(username, jobId, remaining);
+                });
+    }
+
+    private CompletableFuture<Map<String, AttributeValue>> readStatus(Map<String, AttributeValue> key) {
+        return dynamoDbAsyncClient.getItem(GetItemRequest.builder()
+                        .tableName(tableName)
+                        .key(key)
+                        .consistentRead(true)
+                        .projectionExpression("processedImages, totalImages, #status")
+                        .expressionAttributeNames(Map.of("#status", "status"))
+                        .build())
+                .thenApply(response -> response.item());
+    }
+
+    // PENDING -> PROCESSING khi có ảnh đầu tiên xong, -> COMPLETED khi đã xử lý đủ số ảnh
+    private CompletableFuture<Void> advanceStatus(Map<String, AttributeValue> key, Map<String, AttributeValue> item) {
+        if (item == null || !item.containsKey("processedImages")) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int processedImages = Integer.parseInt(item.get("processedImages").n());
+        int totalImages = item.containsKey("totalImages") ? Integer.parseInt(item.get("totalImages").n()) : 0;
+        String status = item.containsKey("status") ? item.get("status").s() : null;
+
+        if (processedImages >= totalImages) {
+            return transitionStatus(key, "COMPLETED", "processedImages >= totalImages AND #status <> :next", null);
+        }
+        if ("PENDING".equals(status)) {
+            return transitionStatus(key, "PROCESSING", "#status = :current", "PENDING");
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> transitionStatus(Map<String, AttributeValue> key, String nextStatus,
+                                                     String condition, String currentStatus) {
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":next", AttributeValue.builder().s(nextStatus).build());
+        if (currentStatus != null) {
+            values.put(":current", AttributeValue.builder().s(currentStatus).build());
+        }
+        return dynamoDbAsyncClient.updateItem(UpdateItemRequest.builder()
+                        .tableName(tableName)
+                        .key(key)
+                        .updateExpression("SET #status = :next")
+                        .conditionExpression(condition)
+                        .expressionAttributeNames(Map.of("#status", "status"))
+                        .expressionAttributeValues(values)
+                        .build())
+                .handle((ignored, throwable) -> {
+                    // Một lần cập nhật khác đã chuyển trạng thái trước, không cần làm gì thêm
+                    if (throwable != null && !(unwrap(throwable) instanceof ConditionalCheckFailedException)) {
+                        throw new CompletionException(unwrap(throwable));
+                    }
+                    return null;
+                });
+    }
+
+    private Map<String, AttributeValue> jobKey(String username, String jobId) {
+        return Map.of(
+                "PK", AttributeValue.builder().s("USER#" + username).build(),
+                "SK", AttributeValue.builder().s("JOB#" + jobId).build());
+    }
+
+    private static boolean isConditionFailure(CancellationReason reason) {
+        return "ConditionalCheckFailed".equals(reason.code());
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+}
@@ -1,30 +1,59 @@
 package com.mm.image_aws.repo;
 
+import com.mm.image_aws.dto.PageResponse;
 import com.mm.image_aws.entity.ImageMetadata;
 import com.mm.image_aws.entity.UploadJob;
+import com.mm.image_aws.exception.InvalidPageTokenException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbIndex;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbTable;
 import software.amazon.awssdk.enhanced.dynamodb.Key;
 import software.amazon.awssdk.enhanced.dynamodb.TableSchema;
+import software.amazon.awssdk.enhanced.dynamodb.model.Page;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryConditional;
 import software.amazon.awssdk.enhanced.dynamodb.model.QueryEnhancedRequest;
 import software.amazon.awssdk.enhanced.dynamodb.model.UpdateItemEnhancedRequest;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.ScanRequest;
+import software.amazon.awssdk.services.dynamodb.model.ScanResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Repository
 public class ImageJobRepository {
 
+    private static final int STREAM_PAGE_SIZE = 500;
+    // LastEvaluatedKey của truy vấn trên GSI gồm đúng khóa của bảng và khóa của index
+    private static final Set<String> INDEX_PAGE_KEY = Set.of("PK", "SK", "GSI1PK", "GSI1SK");
+
     private final DynamoDbTable<UploadJob> jobTable;
     private final DynamoDbTable<ImageMetadata> metadataTable;
+    private final DynamoDbIndex<UploadJob> jobsByUsername;
+    private final DynamoDbIndex<ImageMetadata> metadataByUsername;
+    private final ImageJobAsyncRepository asyncRepository;
+    private final DynamoDbClient dynamoDbClient;
+    private final String tableName;
 
-    public ImageJobRepository(DynamoDbEnhancedClient enhancedClient, @Value("${aws.dynamodb.table-name}") String tableName) {
+    public ImageJobRepository(DynamoDbEnhancedClient enhancedClient, ImageJobAsyncRepository asyncRepository,
+                              DynamoDbClient dynamoDbClient, @Value("${aws.dynamodb.table-name}") String tableName) {
         this.jobTable = enhancedClient.table(tableName, TableSchema.fromBean(UploadJob.class));
         this.metadataTable = enhancedClient.table(tableName, TableSchema.fromBean(ImageMetadata.class));
+        this.jobsByUsername = jobTable.index(ImageMetadata.USERNAME_INDEX);
+        this.metadataByUsername = metadataTable.index(ImageMetadata.USERNAME_INDEX);
+        this.asyncRepository = asyncRepository;
+        this.dynamoDbClient = dynamoDbClient;
+        this.tableName = tableName;
     }
 
     public void saveJob(UploadJob job) {
@@ -48,13 +77,64 @@ public class ImageJobRepository {
         return jobTable.query(queryConditional).items().stream().collect(Collectors.toList());
     }
     
-    public List<ImageMetadata> findMetadataByUsername(String username) {
-        // Đây là một truy vấn phức tạp hơn, cần có Global Secondary Index (GSI)
-        // Để đơn giản, chúng ta sẽ lấy tất cả các job, sau đó lấy metadata cho từng job
-        List<UploadJob> jobs = findJobsByUsername(username);
-        return jobs.stream()
-                .flatMap(job -> findMetadataByJobId(job.getJobId()).stream())
-                .collect(Collectors.toList());
+    /**
+     * Một trang job của user theo thời gian tạo, đọc từ GSI username-createdAt-index.
+     * @throws InvalidPageTokenException nếu token không hợp lệ hoặc thuộc về user khác.
+     */
+    public PageResponse<UploadJob> findJobsByUsername(String username, int pageSize, String pageToken, boolean ascending) {
+        return queryPage(jobsByUsername, "JOBS#" + username, pageSize, pageToken, ascending);
+    }
+
+    /**
+     * Toàn bộ job của user theo thời gian tạo. Stream đọc lần lượt từng trang khi được duyệt,
+     * nên bộ nhớ chỉ giữ một trang tại một thời điểm.
+     */
+    public Stream<UploadJob> streamJobsByUsername(String username, boolean ascending) {
+        return queryAll(jobsByUsername, "JOBS#" + username, ascending);
+    }
+
+    /**
+     * Một trang metadata của user, đọc từ GSI username-createdAt-index bằng một truy vấn duy nhất.
+     * @param pageSize Số item tối đa của trang.
+     * @param pageToken Token từ trang trước, null để lấy trang đầu.
+     * @param ascending true để sắp xếp cũ -> mới, false để mới -> cũ.
+     * @throws InvalidPageTokenException nếu token không hợp lệ hoặc thuộc về user khác.
+     */
+    public PageResponse<ImageMetadata> findMetadataByUsername(String username, int pageSize, String pageToken, boolean ascending) {
+        return queryPage(metadataByUsername, "USER#" + username, pageSize, pageToken, ascending);
+    }
+
+    /**
+     * Toàn bộ metadata của user, đọc dần từng trang như {@link #streamJobsByUsername}.
+     */
+    public Stream<ImageMetadata> streamMetadataByUsername(String username, boolean ascending) {
+        return queryAll(metadataByUsername, "USER#" + username, ascending);
+    }
+
+    private <T> PageResponse<T> queryPage(DynamoDbIndex<T> index, String partitionValue, int pageSize,
+                                          String pageToken, boolean ascending) {
+        Map<String, AttributeValue> startKey = PageTokenCodec.decode(pageToken);
+        if (startKey != null && (!INDEX_PAGE_KEY.equals(startKey.keySet())
+                || !partitionValue.equals(startKey.get("GSI1PK").s()))) {
+            throw new InvalidPageTokenException("Invalid page token");
+        }
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.keyEqualTo(k -> k.partitionValue(partitionValue)))
+                .limit(pageSize)
+                .scanIndexForward(ascending)
+                .exclusiveStartKey(startKey)
+                .build();
+        Page<T> page = index.query(request).iterator().next();
+        return new PageResponse<>(page.items(), PageTokenCodec.encode(page.lastEvaluatedKey()));
+    }
+
+    private <T> Stream<T> queryAll(DynamoDbIndex<T> index, String partitionValue, boolean ascending) {
+        QueryEnhancedRequest request = QueryEnhancedRequest.builder()
+                .queryConditional(QueryConditional.keyEqualTo(k -> k.partitionValue(partitionValue)))
+                .limit(STREAM_PAGE_SIZE)
+                .scanIndexForward(ascending)
+                .build();
+        return index.query(request).stream().flatMap(page -> page.items().stream());
     }
 
     public List<ImageMetadata> findMetadataByJobId(String jobId) {
@@ -62,6 +142,71 @@ public class ImageJobRepository {
         return metadataTable.query(queryConditional).items().stream().collect(Collectors.toList());
     }
 
+    /**
+     * Kết quả của một lần chạy backfillIndexKeys.
+     * @param nextPageToken Token để chạy tiếp, null nếu đã quét hết bảng.
+     */
+    public record BackfillResult(int updated, String nextPageToken) {
+    }
+
+    /**
+     * Ghi GSI1PK/GSI1SK cho các item được tạo trước khi có username-createdAt-index:
+     * job (SK JOB#) nhận JOBS#{username}, metadata (SK IMAGE#) nhận USER#{username}, cùng GSI1SK = createdAt.
+     * Thiếu hai thuộc tính này thì item không xuất hiện trong các API phân trang.
+     * Quét bảng bằng Scan và dừng ở ranh giới trang khi quá deadlineMillis; chạy lại với nextPageToken để tiếp tục.
+     * Mỗi item được cập nhật với attribute_not_exists(GSI1PK) nên chạy lại nhiều lần không ảnh hưởng.
+     */
+    public BackfillResult backfillIndexKeys(String pageToken, long deadlineMillis) {
+        Map<String, AttributeValue> startKey = PageTokenCodec.decode(pageToken);
+        int updated = 0;
+        do {
+            ScanResponse response = dynamoDbClient.scan(ScanRequest.builder()
+                    .tableName(tableName)
+                    .limit(STREAM_PAGE_SIZE)
+                    .exclusiveStartKey(startKey)
+                    .filterExpression("attribute_not_exists(GSI1PK) AND attribute_exists(#username) AND attribute_exists(createdAt)")
+                    .projectionExpression("PK, SK, #username, createdAt")
+                    .expressionAttributeNames(Map.of("#username", "username"))
+                    .build());
+            for (Map<String, AttributeValue> item : response.items()) {
+                if (backfillItem(item)) {
+                    updated++;
+                }
+            }
+            startKey = response.hasLastEvaluatedKey() && !response.lastEvaluatedKey().isEmpty()
+                    ? response.lastEvaluatedKey() : null;
+        } while (startKey != null && System.currentTimeMillis() < deadlineMillis);
+        return new BackfillResult(updated, PageTokenCodec.encode(startKey));
+    }
+
+    private boolean backfillItem(Map<String, AttributeValue> item) {
+        String sk = item.get("SK").s();
+        String username = item.get("username").s();
+        String gsi1pk;
+        if (sk.startsWith("JOB#")) {
+            gsi1pk = "JOBS#" + username;
+        } else if (sk.startsWith("IMAGE#")) {
+            gsi1pk = "USER#" + username;
+        } else {
+            return false;
+        }
+        try {
+            dynamoDbClient.updateItem(UpdateItemRequest.builder()
+                    .tableName(tableName)
+                    .key(Map.of("PK", item.get("PK"), "SK", item.get("SK")))
+                    .updateExpression("SET GSI1PK = :pk, GSI1SK = :sk")
+                    .conditionExpression("attribute_exists(PK) AND attribute_not_exists(GSI1PK)")
+                    .expressionAttributeValues(Map.of(
+                            ":pk", AttributeValue.builder().s(gsi1pk).build(),
+                            ":sk", item.get("createdAt")))
+                    .build());
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            // Item đã bị xóa hoặc đã được ghi GSI1PK sau lần quét
+            return false;
+        }
+    }
+
     public UploadJob updateJob(UploadJob job) {
         // UpdateItemEnhancedRequest cho phép cập nhật một item đã tồn tại
         UpdateItemEnhancedRequest<UploadJob> request = UpdateItemEnhancedRequest.builder(UploadJob.class)
@@ -69,4 +214,20 @@ public class ImageJobRepository {
                 .build();
         return jobTable.updateItem(request);
     }
+
+    /**
+     * Phiên bản blocking của {@link ImageJobAsyncRepository#incrementProgress}, dùng cho các API đồng bộ.
+     * @return Giá trị processedImages sau khi tăng.
+     * @throws ConditionalCheckFailedException nếu job không tồn tại.
+     */
+    public int incrementProgress(String username, String jobId, int processedDelta, int failedDelta) {
+        try {
+            return asyncRepository.incrementProgress(username, jobId, processedDelta, failedDelta).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 }
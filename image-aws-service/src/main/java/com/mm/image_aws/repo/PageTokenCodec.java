@@ -0,0 +1,59 @@
+package com.mm.image_aws.repo;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mm.image_aws.exception.InvalidPageTokenException;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Chuyển LastEvaluatedKey của DynamoDB thành token mờ (Base64 URL-safe của JSON) và ngược lại,
+ * để client không phụ thuộc vào cấu trúc khóa của bảng.
+ * Mọi khóa của bảng và GSI đều là kiểu chuỗi nên chỉ cần lưu giá trị S.
+ */
+public final class PageTokenCodec {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private PageTokenCodec() {
+    }
+
+    public static String encode(Map<String, AttributeValue> lastEvaluatedKey) {
+        if (lastEvaluatedKey == null || lastEvaluatedKey.isEmpty()) {
+            return null;
+        }
+        Map<String, String> values = new LinkedHashMap<>();
+        lastEvaluatedKey.forEach((name, value) -> values.put(name, value.s()));
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(values));
+        } catch (Exception e) {
+            throw new IllegalStateException("Không tạo được page token", e);
+        }
+    }
+
+    /**
+     * @return Khóa bắt đầu cho truy vấn tiếp theo, null nếu token rỗng.
+     * @throws InvalidPageTokenException nếu token không hợp lệ.
+     */
+    public static Map<String, AttributeValue> decode(String pageToken) {
+        if (pageToken == null || pageToken.isBlank()) {
+            return null;
+        }
+        Map<String, String> values;
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(pageToken);
+            values = MAPPER.readValue(new String(json, StandardCharsets.UTF_8), MAP_TYPE);
+        } catch (Exception e) {
+            throw new InvalidPageTokenException("Invalid page token", e);
+        }
+        Map<String, AttributeValue> key = new LinkedHashMap<>();
+        values.forEach((name, value) -> key.put(name, AttributeValue.builder().s(value).build()));
+        return key;
+    }
+}
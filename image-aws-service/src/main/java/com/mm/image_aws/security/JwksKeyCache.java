@@ -0,0 +1,137 @@
+package com.mm.image_aws.security;
+
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkProvider;
+import com.auth0.jwk.UrlJwkProvider;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cache khóa công khai từ JWKS endpoint, theo kid.
+ * - Toàn bộ key set được tải một lần và dùng lại trong ttlSeconds.
+ * - Khi còn refreshAheadSeconds trước khi hết hạn, key set được tải lại ở nền, request không phải chờ.
+ * - Gặp kid chưa biết (auth-service vừa xoay khóa) thì tải lại ngay một lần, nhưng không quá một lần
+ *   mỗi minRefetchIntervalSeconds để token giả với kid ngẫu nhiên không biến thành tấn công vào JWKS endpoint.
+ * - Không tải được thì tiếp tục dùng key set cũ.
+ * - Token không có kid (user-service không ghi kid vào header) dùng khóa duy nhất của JWKS,
+ *   giống UrlJwkProvider.get(null); JWKS có nhiều khóa thì token đó bị từ chối.
+ */
+@Component
+@Slf4j
+public class JwksKeyCache {
+
+    private final JwkProvider provider;
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final long minRefetchIntervalMillis;
+    private final ExecutorService refresher;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile KeySet keySet = new KeySet(Map.of(), null, 0, 0);
+    private volatile long lastFetchAttempt;
+
+    public JwksKeyCache(@Value("${auth.jwks-url}") String jwksUrl,
+                        @Value("${auth.jwks-cache-ttl-seconds:600}") long ttlSeconds,
+                        @Value("${auth.jwks-refresh-ahead-seconds:60}") long refreshAheadSeconds,
+                        @Value("${auth.jwks-min-refetch-interval-seconds:30}") long minRefetchIntervalSeconds)
+            throws MalformedURLException {
+        this.provider = new UrlJwkProvider(new URL(jwksUrl));
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.refreshAheadMillis = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+        this.minRefetchIntervalMillis = TimeUnit.SECONDS.toMillis(minRefetchIntervalSeconds);
+        this.refresher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "JwksRefresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param kid kid trong header của token, có thể null.
+     * @return Khóa công khai của kid (hoặc khóa duy nhất nếu kid null), hoặc null nếu không tìm được khóa.
+     */
+    public PublicKey getKey(String kid) {
+        long now = System.currentTimeMillis();
+        KeySet current = keySet;
+        long age = now - current.fetchedAt;
+        if (age >= ttlMillis) {
+            current = refresh(false);
+        } else if (age >= ttlMillis - refreshAheadMillis) {
+            refreshInBackground();
+        }
+
+        PublicKey key = current.find(kid);
+        if (key == null) {
+            // Có thể khóa vừa được xoay, hoặc key set còn rỗng: tải lại một lần
+            key = refresh(true).find(kid);
+        }
+        return key;
+    }
+
+    private synchronized KeySet refresh(boolean unknownKid) {
+        long now = System.currentTimeMillis();
+        KeySet current = keySet;
+        // Luồng khác vừa tải xong trong lúc chờ khóa
+        if (!unknownKid && now - current.fetchedAt < ttlMillis - refreshAheadMillis) {
+            return current;
+        }
+        if (now - lastFetchAttempt < minRefetchIntervalMillis && current.size > 0) {
+            return current;
+        }
+        lastFetchAttempt = now;
+        try {
+            Map<String, PublicKey> keys = new HashMap<>();
+            List<PublicKey> all = new ArrayList<>();
+            for (Jwk jwk : provider.getAll()) {
+                try {
+                    PublicKey key = jwk.getPublicKey();
+                    all.add(key);
+                    if (jwk.getId() != null) {
+                        keys.put(jwk.getId(), key);
+                    }
+                } catch (Exception e) {
+                    log.warn("Skipping JWK {} - Error: {}", jwk.getId(), e.getMessage());
+                }
+            }
+            keySet = new KeySet(Map.copyOf(keys), all.size() == 1 ? all.get(0) : null, all.size(), now);
+            log.debug("Loaded {} keys from JWKS.", all.size());
+        } catch (Exception e) {
+            log.error("Could not fetch JWKS, keeping {} cached keys - Error: {}", current.size, e.getMessage());
+        }
+        return keySet;
+    }
+
+    private void refreshInBackground() {
+        if (!refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(() -> {
+            try {
+                refresh(false);
+            } finally {
+                refreshing.set(false);
+            }
+        });
+    }
+
+    // onlyKey chỉ khác null khi JWKS có đúng một khóa
+    private record KeySet(Map<String, PublicKey> keys, PublicKey onlyKey, int size, long fetchedAt) {
+
+        PublicKey find(String kid) {
+            return kid == null ? onlyKey : keys.get(kid);
+        }
+    }
+}
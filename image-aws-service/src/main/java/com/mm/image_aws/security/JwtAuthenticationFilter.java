@@ -1,5 +1,6 @@
 package com.mm.image_aws.security;
 
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -35,9 +36,11 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         try {
             String jwt = getJwtFromRequest(request);
 
-            if (StringUtils.hasText(jwt) && jwtTokenProvider.validateToken(jwt)) {
+            // Parse và xác thực token một lần (kết quả được cache theo token)
+            Claims claims = StringUtils.hasText(jwt) ? jwtTokenProvider.getVerifiedClaims(jwt) : null;
+            if (claims != null) {
                 // Lấy username từ token
-                String username = jwtTokenProvider.getUsernameFromJWT(jwt);
+                String username = claims.getSubject();
 
                 // Tạo UserDetails object đơn giản.
                 // Vì service này chỉ cần biết username là ai để gán quyền sở hữu,
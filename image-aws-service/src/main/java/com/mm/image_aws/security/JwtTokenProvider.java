@@ -1,70 +1,117 @@
 package com.mm.image_aws.security;
 
-import com.auth0.jwk.Jwk;
-import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.UrlJwkProvider;
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Header;
-import io.jsonwebtoken.JwsHeader; // THÊM MỚI: Import để sử dụng hằng số KEY_ID
-import io.jsonwebtoken.Jwt;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.security.SignatureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.net.URL;
-import java.security.PublicKey;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Xác thực JWT do auth-service ký bằng khóa trong JWKS.
+ * Khóa công khai lấy từ JwksKeyCache, và token đã xác thực được giữ trong một LRU có giới hạn
+ * (theo SHA-256 của token) đến khi hết hạn, nên mỗi token chỉ phải parse và kiểm tra chữ ký một lần.
+ */
 @Component
 public class JwtTokenProvider {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtTokenProvider.class);
 
-    @Value("${auth.jwks-url}")
-    private String jwksUrl;
+    private final JwtParser parser;
+    private final long maxCacheMillis;
+    private final Map<String, VerifiedToken> verifiedTokens;
 
-    public String getUsernameFromJWT(String token) {
-        try {
-            Jwt<Header, Claims> untrustedJwt = Jwts.parserBuilder().build().parseClaimsJwt(token.substring(0, token.lastIndexOf('.') + 1));
-            // SỬA LỖI: Sử dụng .get() để lấy 'kid' từ header
-            String kid = (String) untrustedJwt.getHeader().get(JwsHeader.KEY_ID);
-
-            JwkProvider provider = new UrlJwkProvider(new URL(jwksUrl));
-            Jwk jwk = provider.get(kid);
-            PublicKey publicKey = jwk.getPublicKey();
+    public JwtTokenProvider(JwksKeyCache jwksKeyCache,
+                            @Value("${auth.token-cache-max-entries:10000}") int maxEntries,
+                            @Value("${auth.token-cache-max-ttl-seconds:300}") long maxCacheSeconds) {
+        this.parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    @Override
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        Key key = jwksKeyCache.getKey(header.getKeyId());
+                        if (key == null) {
+                            throw new SignatureException("Unknown signing key: " + header.getKeyId());
+                        }
+                        return key;
+                    }
+                })
+                .build();
+        this.maxCacheMillis = TimeUnit.SECONDS.toMillis(maxCacheSeconds);
+        this.verifiedTokens = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+                return size() > Math.max(1, maxEntries);
+            }
+        };
+    }
 
-            Claims claims = Jwts.parserBuilder()
-                    .setSigningKey(publicKey)
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
+    /**
+     * Parse và xác thực token (chữ ký, hạn dùng).
+     * @return Claims của token, hoặc null nếu token không hợp lệ.
+     */
+    public Claims getVerifiedClaims(String token) {
+        String cacheKey = hash(token);
+        long now = System.currentTimeMillis();
+        synchronized (verifiedTokens) {
+            VerifiedToken cached = verifiedTokens.get(cacheKey);
+            if (cached != null) {
+                if (now < cached.expiresAt) {
+                    return cached.claims;
+                }
+                verifiedTokens.remove(cacheKey);
+            }
+        }
 
-            return claims.getSubject();
-        } catch (Exception e) {
-            logger.error("Could not get username from JWT: {}", e.getMessage());
+        try {
+            Claims claims = parser.parseClaimsJws(token).getBody();
+            // Giữ đến khi token hết hạn, nhưng không quá maxCacheMillis
+            long expiresAt = now + maxCacheMillis;
+            Date expiration = claims.getExpiration();
+            if (expiration != null) {
+                expiresAt = Math.min(expiresAt, expiration.getTime());
+            }
+            synchronized (verifiedTokens) {
+                verifiedTokens.put(cacheKey, new VerifiedToken(claims, expiresAt));
+            }
+            return claims;
+        } catch (Exception ex) {
+            logger.error("Invalid JWT token: {}", ex.getMessage());
             return null;
         }
     }
 
-    public boolean validateToken(String authToken) {
-        try {
-            Jwt<Header, Claims> untrustedJwt = Jwts.parserBuilder().build().parseClaimsJwt(authToken.substring(0, authToken.lastIndexOf('.') + 1));
-            // SỬA LỖI: Sử dụng .get() để lấy 'kid' từ header
-            String kid = (String) untrustedJwt.getHeader().get(JwsHeader.KEY_ID);
+    public String getUsernameFromJWT(String token) {
+        Claims claims = getVerifiedClaims(token);
+        return claims == null ? null : claims.getSubject();
+    }
 
-            JwkProvider provider = new UrlJwkProvider(new URL(jwksUrl));
-            Jwk jwk = provider.get(kid);
-            PublicKey publicKey = jwk.getPublicKey();
+    public boolean validateToken(String authToken) {
+        return getVerifiedClaims(authToken) != null;
+    }
 
-            Jwts.parserBuilder()
-                    .setSigningKey(publicKey)
-                    .build()
-                    .parseClaimsJws(authToken);
-            return true;
-        } catch (Exception ex) {
-            logger.error("Invalid JWT token: {}", ex.getMessage());
+    private static String hash(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
         }
-        return false;
+    }
+
+    private record VerifiedToken(Claims claims, long expiresAt) {
     }
 }
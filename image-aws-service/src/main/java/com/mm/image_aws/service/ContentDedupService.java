@@ -0,0 +1,86 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.entity.ContentHashEntry;
+import com.mm.image_aws.entity.ImageMetadata;
+import com.mm.image_aws.repo.ImageJobAsyncRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chống trùng theo nội dung: ảnh có cùng SHA-256 chỉ được upload và trích xuất metadata một lần,
+ * các lần sau dùng lại object S3 và metadata đã có.
+ * Chỉ mục là phụ trợ: lỗi khi đọc/ghi chỉ mục không làm hỏng việc xử lý ảnh.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class ContentDedupService {
+
+    private final ImageJobAsyncRepository asyncRepository;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Tìm ảnh đã xử lý có cùng nội dung. Future không bao giờ lỗi: khi DynamoDB lỗi thì coi như chưa có.
+     */
+    public CompletableFuture<Optional<ContentHashEntry>> lookup(String sha256, long size) {
+        if (sha256 == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return asyncRepository.findContentHash(sha256)
+                .handle((entry, throwable) -> {
+                    if (throwable != null) {
+                        log.warn("Content hash lookup failed for {}: {}", sha256, throwable.getMessage());
+                        return Optional.<ContentHashEntry>empty();
+                    }
+                    if (entry.isPresent()) {
+                        hits.increment();
+                        bytesSaved.add(size);
+                    } else {
+                        misses.increment();
+                    }
+                    return entry;
+                });
+    }
+
+    /**
+     * Ghi nhớ ảnh vừa xử lý thành công để các lần gửi sau được dùng lại.
+     * @return Future chứa mục chỉ mục đã tạo, null nếu ảnh xử lý lỗi. Lỗi khi ghi chỉ được ghi log.
+     */
+    public CompletableFuture<ContentHashEntry> remember(String sha256, String contentType, ImageMetadata metadata) {
+        if (sha256 == null || metadata.getErrorMessage() != null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ContentHashEntry entry = new ContentHashEntry();
+        entry.setSha256(sha256);
+        entry.setS3Key(metadata.getS3Key());
+        entry.setCdnUrl(metadata.getCdnUrl());
+        entry.setContentType(contentType);
+        entry.setFormat(metadata.getFormat());
+        entry.setWidth(metadata.getWidth());
+        entry.setHeight(metadata.getHeight());
+        entry.setFileSize(metadata.getFileSize());
+        entry.setDpi(metadata.getDpi());
+        entry.setVariantUrls(metadata.getVariantUrls());
+        entry.setCreatedAt(Instant.now().toString());
+        return asyncRepository.saveContentHashIfAbsent(entry)
+                .handle((saved, throwable) -> {
+                    if (throwable != null) {
+                        log.warn("Failed to save content hash {}: {}", sha256, throwable.getMessage());
+                    }
+                    return entry;
+                });
+    }
+
+    public String summary() {
+        return String.format("hits=%d misses=%d bytesSaved=%d", hits.sum(), misses.sum(), bytesSaved.sum());
+    }
+}
@@ -1,114 +1,217 @@
 package com.mm.image_aws.service;
 
 import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.dto.CachedUrlResult;
 import com.mm.image_aws.dto.DownloadedImage;
+import com.mm.image_aws.entity.ContentHashEntry;
 import com.mm.image_aws.exception.FileTooLargeException;
+import com.mm.image_aws.service.download.AdaptiveHostLimiter;
+import com.mm.image_aws.service.download.ByteChunkPool;
+import com.mm.image_aws.service.download.ImageResponseConsumer;
+import com.mm.image_aws.service.download.StreamingImageDownload;
 import com.mm.image_aws.service.transformer.UrlTransformer;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
-import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
 import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class ImageDownloaderService {
 
     private final CloseableHttpAsyncClient httpAsyncClient;
     private final List<UrlTransformer> urlTransformers;
     private final AwsProperties awsProperties;
+    private final ByteChunkPool chunkPool;
+    private final AdaptiveHostLimiter hostLimiter;
+    private final UrlResultCache urlResultCache;
+    private final Executor taskExecutor;
+
+    public ImageDownloaderService(CloseableHttpAsyncClient httpAsyncClient,
+                                  List<UrlTransformer> urlTransformers,
+                                  AwsProperties awsProperties,
+                                  ByteChunkPool chunkPool,
+                                  AdaptiveHostLimiter hostLimiter,
+                                  UrlResultCache urlResultCache,
+                                  @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.httpAsyncClient = httpAsyncClient;
+        this.urlTransformers = urlTransformers;
+        this.awsProperties = awsProperties;
+        this.chunkPool = chunkPool;
+        this.hostLimiter = hostLimiter;
+        this.urlResultCache = urlResultCache;
+        this.taskExecutor = taskExecutor;
+    }
 
     /**
      * Tải dữ liệu ảnh từ một URL.
+     * Body được đọc theo dạng stream: ảnh có Content-Length vượt giới hạn bị từ chối trước khi đọc,
+     * và việc tải bị hủy ngay khi số byte nhận được vượt AwsProperties.maxFileSize.
+     *
+     * URL đã xử lý trước đó được tra trong UrlResultCache: nếu server gốc có ETag/Last-Modified thì
+     * kiểm tra lại bằng conditional GET, nếu không thì dùng luôn kết quả cũ mà không tải lại.
      * @param imageUrl URL của ảnh.
-     * @return CompletableFuture chứa đối tượng DownloadedImage (bao gồm cả content và content type).
+     * @return CompletableFuture chứa đối tượng DownloadedImage (bao gồm cả content và content type),
+     * hoặc DownloadedImage.fromCache(...) nếu ảnh không thay đổi so với lần xử lý trước.
      */
     public CompletableFuture<DownloadedImage> downloadImage(String imageUrl) {
-        CompletableFuture<DownloadedImage> future = new CompletableFuture<>();
-
         try {
             validateImageUrl(imageUrl);
             String directImageUrl = normalizeUrlForDirectDownload(imageUrl);
-            final SimpleHttpRequest request = SimpleHttpRequest.create("GET", URI.create(directImageUrl));
-
-            httpAsyncClient.execute(request, new FutureCallback<SimpleHttpResponse>() {
-                @Override
-                public void completed(SimpleHttpResponse response) {
-                    try {
-                        if (response.getCode() != 200) {
-                            throw new RuntimeException("Server trả về mã lỗi: " + response.getCode());
-                        }
-                        byte[] contentBytes = response.getBodyBytes();
-                        if (contentBytes == null || contentBytes.length == 0) {
-                            throw new IllegalArgumentException("Nội dung trả về rỗng.");
+            URI uri = URI.create(directImageUrl);
+            if (!awsProperties.getUrlCache().isEnabled()) {
+                return hostLimiter.execute(uri.getHost(), permit -> fetch(imageUrl, uri, null, permit));
+            }
+            // Tra cache trên taskExecutor vì Redis là lệnh gọi blocking
+            return CompletableFuture.supplyAsync(() -> urlResultCache.get(directImageUrl), taskExecutor)
+                    .thenCompose(cached -> {
+                        if (cached.isPresent() && !hasValidators(cached.get())) {
+                            return CompletableFuture.completedFuture(DownloadedImage.fromCache(cached.get()));
                         }
+                        // Giới hạn số request đồng thời tới cùng host để tránh bị 429
+                        return hostLimiter.execute(uri.getHost(), permit -> fetch(imageUrl, uri, cached.orElse(null), permit));
+                    });
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                        // THÊM MỚI: Kiểm tra dung lượng file
-                        validateFileSize(contentBytes.length, imageUrl);
+    /**
+     * Ghi nhớ kết quả xử lý của URL để lần gửi sau không phải tải lại.
+     */
+    public void rememberResult(String imageUrl, DownloadedImage downloadedImage, ContentHashEntry result) {
+        if (result == null || downloadedImage.isFromCache()) {
+            return;
+        }
+        urlResultCache.put(normalizeUrlForDirectDownload(imageUrl),
+                new CachedUrlResult(downloadedImage.getEtag(), downloadedImage.getLastModified(), result, 0));
+    }
+
+    private CompletableFuture<DownloadedImage> fetch(String imageUrl, URI uri, CachedUrlResult cached,
+                                                     AdaptiveHostLimiter.Permit permit) {
+        CompletableFuture<DownloadedImage> future = new CompletableFuture<>();
+        final SimpleHttpRequest request = SimpleHttpRequest.create("GET", uri);
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                request.setHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+        }
+        ImageResponseConsumer consumer = new ImageResponseConsumer(imageUrl, awsProperties.getMaxFileSize(), chunkPool,
+                cached != null, permit::firstByte);
+
+        httpAsyncClient.execute(SimpleRequestProducer.create(request), consumer, new FutureCallback<DownloadedImage>() {
+            @Override
+            public void completed(DownloadedImage downloadedImage) {
+                if (downloadedImage == null) {
+                    // 304 Not Modified: ảnh không đổi, dùng lại kết quả cũ
+                    log.debug("Not modified, reusing cached result - URL: {}", imageUrl);
+                    future.complete(DownloadedImage.fromCache(cached));
+                    return;
+                }
+                if (downloadedImage.getContent().length == 0) {
+                    future.completeExceptionally(new IllegalArgumentException("Nội dung trả về rỗng."));
+                    return;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("File size: {} bytes - URL: {}", downloadedImage.getContent().length, imageUrl);
+                }
+                future.complete(downloadedImage);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                FileTooLargeException tooLarge = findFileTooLarge(ex);
+                if (tooLarge != null) {
+                    log.warn(tooLarge.getMessage());
+                    future.completeExceptionally(tooLarge);
+                } else {
+                    future.completeExceptionally(ex);
+                }
+            }
 
-                        // Lấy content type thực tế từ response
-                        String contentType = Optional.ofNullable(response.getContentType())
-                                .map(Object::toString)
-                                .orElse("application/octet-stream");
+            @Override
+            public void cancelled() {
+                future.cancel(true);
+            }
+        });
+        return future;
+    }
 
-                        // Trả về đối tượng DTO mới
-                        future.complete(new DownloadedImage(contentBytes, contentType));
+    /**
+     * Bắt đầu tải ảnh ở chế độ stream để upload thẳng lên S3 trong lúc tải.
+     * @return Future hoàn thành khi đã nhận header của response; dữ liệu được đọc tiếp theo nhu cầu của S3.
+     * Thất bại với ContentLengthRequiredException nếu server không gửi Content-Length.
+     */
+    public CompletableFuture<StreamingImageDownload> streamImage(String imageUrl) {
+        try {
+            validateImageUrl(imageUrl);
+            String directImageUrl = normalizeUrlForDirectDownload(imageUrl);
+            URI uri = URI.create(directImageUrl);
+            // Chỗ của host được giữ đến khi stream kết thúc, không chỉ đến khi nhận header
+            return hostLimiter.acquire(uri.getHost()).thenCompose(permit -> {
+                StreamingImageDownload download = startStream(imageUrl, uri);
+                download.headers().thenRun(permit::firstByte);
+                download.completion().whenComplete((bytes, throwable) -> permit.release(throwable));
+                return download.headers();
+            });
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-                    } catch (Exception e) {
-                        future.completeExceptionally(e);
-                    }
+    private StreamingImageDownload startStream(String imageUrl, URI uri) {
+        final SimpleHttpRequest request = SimpleHttpRequest.create("GET", uri);
+        StreamingImageDownload download = new StreamingImageDownload(imageUrl, awsProperties.getMaxFileSize(),
+                awsProperties.getProcessing().getHeaderPrefixBytes());
+        try {
+            download.setRequestFuture(httpAsyncClient.execute(SimpleRequestProducer.create(request), download, new FutureCallback<Long>() {
+                @Override
+                public void completed(Long bytes) {
+                    log.debug("Streamed {} bytes - URL: {}", bytes, imageUrl);
                 }
 
                 @Override
                 public void failed(Exception ex) {
-                    future.completeExceptionally(ex);
+                    download.failed(ex);
                 }
 
                 @Override
                 public void cancelled() {
-                    future.cancel(true);
+                    download.failed(new CancellationException("Download cancelled: " + imageUrl));
                 }
-            });
+            }));
         } catch (Exception e) {
-            future.completeExceptionally(e);
+            download.failed(e);
         }
-        return future;
+        return download;
     }
 
-    /**
-     * @param fileSizeBytes Dung lượng file tính bằng bytes
-     * @param imageUrl URL của ảnh (để log)
-     */
-    private void validateFileSize(long fileSizeBytes, String imageUrl) {
-        // Sử dụng cấu hình từ properties, fallback về constant nếu không có
-        long maxFileSize = awsProperties.getMaxFileSize();
-        
-        if (fileSizeBytes > maxFileSize) {
-            double fileSizeMB = fileSizeBytes / (1024.0 * 1024.0);
-            double maxFileSizeMB = maxFileSize / (1024.0 * 1024.0);
-            
-            String errorMessage = String.format(
-                "File quá lớn: %.2f MB (giới hạn: %.2f MB) - URL: %s", 
-                fileSizeMB, maxFileSizeMB, imageUrl
-            );
-            
-            log.warn(errorMessage);
-            throw new FileTooLargeException(errorMessage, fileSizeBytes, maxFileSize);
-        }
-        
-        // Log thông tin dung lượng file nếu debug
-        if (log.isDebugEnabled()) {
-            double fileSizeMB = fileSizeBytes / (1024.0 * 1024.0);
-            log.debug("File size: {:.2f} MB - URL: {}", fileSizeMB, imageUrl);
+    private static boolean hasValidators(CachedUrlResult cached) {
+        return cached.getEtag() != null || cached.getLastModified() != null;
+    }
+
+    // Lỗi ném ra trong consumer có thể bị HTTP client bọc lại
+    private FileTooLargeException findFileTooLarge(Throwable throwable) {
+        for (Throwable current = throwable; current != null; current = current.getCause()) {
+            if (current instanceof FileTooLargeException) {
+                return (FileTooLargeException) current;
+            }
         }
+        return null;
     }
 
     private String normalizeUrlForDirectDownload(String url) {
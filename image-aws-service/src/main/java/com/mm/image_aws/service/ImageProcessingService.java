@@ -1,14 +1,28 @@
 package com.mm.image_aws.service;
 
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.dto.DownloadedImage;
+import com.mm.image_aws.entity.ContentHashEntry;
 import com.mm.image_aws.exception.FileTooLargeException;
+import com.mm.image_aws.service.download.StreamingImageDownload;
+import com.mm.image_aws.service.retry.RetryExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.context.annotation.Lazy;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
+import software.amazon.awssdk.transfer.s3.model.CompletedUpload;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 @Service
 @Slf4j
@@ -17,17 +31,31 @@ public class ImageProcessingService {
     private final ImageDownloaderService downloaderService;
     private final S3StorageService s3StorageService;
     private final MetadataService metadataService;
-    private final UploadJobService uploadJobService;
+    private final ContentDedupService contentDedupService;
+    private final ThumbnailService thumbnailService;
+    private final JobProgressAggregator progressAggregator;
+    private final RetryExecutor retryExecutor;
+    private final AwsProperties awsProperties;
+    private final Executor taskExecutor;
 
-    // Sử dụng @Lazy để tránh lỗi circular dependency có thể xảy ra
     public ImageProcessingService(ImageDownloaderService downloaderService,
                                   S3StorageService s3StorageService,
                                   MetadataService metadataService,
-                                  @Lazy UploadJobService uploadJobService) {
+                                  ContentDedupService contentDedupService,
+                                  ThumbnailService thumbnailService,
+                                  JobProgressAggregator progressAggregator,
+                                  RetryExecutor retryExecutor,
+                                  AwsProperties awsProperties,
+                                  @Qualifier("taskExecutor") Executor taskExecutor) {
         this.downloaderService = downloaderService;
         this.s3StorageService = s3StorageService;
         this.metadataService = metadataService;
-        this.uploadJobService = uploadJobService;
+        this.contentDedupService = contentDedupService;
+        this.thumbnailService = thumbnailService;
+        this.progressAggregator = progressAggregator;
+        this.retryExecutor = retryExecutor;
+        this.awsProperties = awsProperties;
+        this.taskExecutor = taskExecutor;
     }
 
     private static final Map<String, String> CONTENT_TYPE_TO_EXTENSION_MAP = Map.ofEntries(
@@ -37,22 +65,77 @@ public class ImageProcessingService {
             Map.entry("image/webp", ".webp")
     );
 
-    @Async("taskExecutor")
-    public void processImage(String jobId, String username, String imageUrl) {
-        downloaderService.downloadImage(imageUrl)
-                .thenCompose(downloadedImage -> {
-                    String contentType = downloadedImage.getContentType();
-                    String extension = CONTENT_TYPE_TO_EXTENSION_MAP.getOrDefault(contentType, ".jpg");
-                    String s3Key = UUID.randomUUID().toString() + extension;
-
-                    return s3StorageService.upload(s3Key, contentType, downloadedImage.getContent())
-                            .thenAccept(completedUpload -> {
-                                String cdnUrl = s3StorageService.buildS3PublicUrl(s3Key);
-                                // Khi thành công, gọi metadata service với đầy đủ thông tin
-                                metadataService.extractAndSaveMetadata(jobId, username, imageUrl, cdnUrl, s3Key, downloadedImage.getContent(), null);
-                            });
+    /**
+     * Xử lý một ảnh.
+     * @return Future hoàn thành khi ảnh đã được xử lý xong và tiến độ đã được ghi nhận.
+     * Lỗi tải/upload được ghi vào metadata nên không làm future thất bại;
+     * future chỉ thất bại khi không ghi nhận được kết quả.
+     */
+    public CompletableFuture<Void> processImage(String jobId, String username, String imageUrl) {
+        return processImages(UUID.randomUUID().toString(), jobId, username, List.of(imageUrl));
+    }
+
+    /**
+     * Xử lý một nhóm URL của cùng một job, giới hạn số ảnh chạy đồng thời.
+     * Tiến độ được ghi nhận một lần cho cả nhóm khi mọi URL đã xong, theo messageId,
+     * để message SQS bị gửi lại không làm tiến độ bị cộng hai lần.
+     * Dòng metadata của mỗi URL có imageId {messageId}-{vị trí URL trong message}: các URL trùng nội dung vẫn có
+     * dòng riêng, còn message bị gửi lại thì ghi đè đúng các dòng của lần trước.
+     * @param messageId ID của message SQS chứa nhóm URL.
+     * @return Future hoàn thành khi mọi URL đã được xử lý; thất bại nếu có URL không ghi nhận được kết quả.
+     */
+    public CompletableFuture<Void> processImages(String messageId, String jobId, String username, List<String> imageUrls) {
+        Queue<ImageTask> pending = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < imageUrls.size(); i++) {
+            pending.add(new ImageTask(messageId + "-" + i, imageUrls.get(i)));
+        }
+        AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+        AtomicInteger failedImages = new AtomicInteger();
+        int parallelism = Math.min(imageUrls.size(), Math.max(1, awsProperties.getProcessing().getMaxParallelImages()));
+
+        List<CompletableFuture<Void>> lanes = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            lanes.add(runLane(jobId, username, pending, failedImages, firstFailure));
+        }
+        return CompletableFuture.allOf(lanes.toArray(new CompletableFuture[0]))
+                .thenRun(() -> {
+                    if (firstFailure.get() != null) {
+                        // Message sẽ được gửi lại và xử lý lại từ đầu nên không ghi nhận tiến độ của lần này
+                        throw new CompletionException(firstFailure.get());
+                    }
+                    progressAggregator.record(username, jobId, messageId, imageUrls.size(), failedImages.get());
+                });
+    }
+
+    // Mỗi "lane" lần lượt lấy URL tiếp theo trong hàng đợi sau khi URL trước đó xử lý xong
+    private CompletableFuture<Void> runLane(String jobId, String username, Queue<ImageTask> pending,
+                                            AtomicInteger failedImages, AtomicReference<Throwable> firstFailure) {
+        ImageTask task = pending.poll();
+        if (task == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return runPipeline(jobId, task.imageId(), username, task.imageUrl())
+                .handle((success, throwable) -> {
+                    if (throwable != null) {
+                        firstFailure.compareAndSet(null, throwable);
+                    } else if (!success) {
+                        failedImages.incrementAndGet();
+                    }
+                    return null;
                 })
-                .whenComplete((result, throwable) -> {
+                .thenCompose(ignored -> runLane(jobId, username, pending, failedImages, firstFailure));
+    }
+
+    /**
+     * @return Future chứa false nếu ảnh xử lý lỗi (lỗi đã được ghi vào metadata).
+     */
+    private CompletableFuture<Boolean> runPipeline(String jobId, String imageId, String username, String imageUrl) {
+        CompletableFuture<Void> processing = awsProperties.getProcessing().isStreamingUpload()
+                ? streamToS3(jobId, imageId, username, imageUrl)
+                : downloadThenUpload(jobId, imageId, username, imageUrl);
+        return processing
+                // Ghi nhận kết quả trên taskExecutor để không chặn luồng I/O của HTTP client và S3
+                .handleAsync((result, throwable) -> {
                     if (throwable != null) {
                         String errorMessage;
                         if (throwable.getCause() instanceof FileTooLargeException) {
@@ -64,12 +147,126 @@ public class ImageProcessingService {
                             log.error("Xử lý thất bại cho URL {}: {}", imageUrl, errorMessage);
                         }
                         // Dù lỗi gì cũng lưu lại metadata với thông báo lỗi
-                        metadataService.extractAndSaveMetadata(jobId, username, imageUrl, null, null, null, errorMessage);
+                        metadataService.extractAndSaveMetadata(jobId, imageId, username, imageUrl, null, null, null, errorMessage);
                     } else {
                         log.info("Xử lý thành công URL: {}", imageUrl);
                     }
-                    // Luôn cập nhật trạng thái job sau khi xử lý xong (thành công hoặc thất bại)
-                    uploadJobService.updateJobAfterProcessing(username, jobId);
+                    return throwable == null;
+                }, taskExecutor);
+    }
+
+    private CompletableFuture<Void> downloadThenUpload(String jobId, String imageId, String username, String imageUrl) {
+        return retryExecutor.execute(jobId, "download " + imageUrl, () -> downloaderService.downloadImage(imageUrl))
+                .thenCompose(downloadedImage -> {
+                    if (downloadedImage.isFromCache()) {
+                        // URL đã được xử lý và ảnh không đổi: không tải, không upload
+                        metadataService.saveFromContentHash(jobId, imageId, username, imageUrl, downloadedImage.getCachedResult().getResult());
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    // Tra chỉ mục nội dung qua async client, không giữ luồng nào trong lúc chờ DynamoDB
+                    return contentDedupService.lookup(downloadedImage.getSha256(), downloadedImage.getContent().length)
+                            .thenComposeAsync(existing -> existing
+                                    .map(entry -> reuseExisting(jobId, imageId, username, imageUrl, downloadedImage, entry))
+                                    .orElseGet(() -> uploadNew(jobId, imageId, username, imageUrl, downloadedImage)), taskExecutor);
+                });
+    }
+
+    // Ảnh đã được lưu trước đó: bỏ qua upload và trích xuất metadata
+    private CompletableFuture<Void> reuseExisting(String jobId, String imageId, String username, String imageUrl,
+                                                  DownloadedImage downloadedImage, ContentHashEntry entry) {
+        metadataService.saveFromContentHash(jobId, imageId, username, imageUrl, entry);
+        downloaderService.rememberResult(imageUrl, downloadedImage, entry);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    private CompletableFuture<Void> uploadNew(String jobId, String imageId, String username, String imageUrl,
+                                              DownloadedImage downloadedImage) {
+        String sha256 = downloadedImage.getSha256();
+        String contentType = downloadedImage.getContentType();
+        String s3Key = contentS3Key(sha256, contentType);
+
+        CompletableFuture<CompletedUpload> upload = retryExecutor.execute(jobId, "upload " + s3Key,
+                () -> s3StorageService.upload(s3Key, contentType, downloadedImage.getContent()));
+        // Bản thu nhỏ được tạo song song với upload ảnh gốc
+        CompletableFuture<Map<String, String>> variants = thumbnailService.generateVariants(s3Key, downloadedImage.getContent());
+
+        return upload.thenCombine(variants, (completedUpload, variantUrls) -> variantUrls)
+                // Trích xuất metadata tốn CPU nên chạy trên taskExecutor
+                .thenApplyAsync(variantUrls -> {
+                    String cdnUrl = s3StorageService.buildS3PublicUrl(s3Key);
+                    // Khi thành công, gọi metadata service với đầy đủ thông tin
+                    return metadataService.extractAndSaveMetadata(jobId, imageId, username, imageUrl, cdnUrl, s3Key,
+                            downloadedImage.getContent(), null, variantUrls);
+                }, taskExecutor)
+                .thenCompose(metadata -> contentDedupService.remember(sha256, contentType, metadata))
+                .thenAcceptAsync(entry -> downloaderService.rememberResult(imageUrl, downloadedImage, entry), taskExecutor);
+    }
+
+    /**
+     * Upload lên S3 song song với việc tải: dữ liệu đi thẳng từ HTTP response vào request S3,
+     * metadata chỉ đọc từ phần đầu file. Nếu server không báo Content-Length thì quay về cách tải hết rồi upload.
+     */
+    private CompletableFuture<Void> streamToS3(String jobId, String imageId, String username, String imageUrl) {
+        // Body dạng stream không đọc lại được nên khi lỗi phải chạy lại cả quá trình tải + upload
+        return retryExecutor.execute(jobId, "stream " + imageUrl, () -> streamUpload(imageUrl))
+                .thenAcceptAsync(uploaded -> {
+                    String cdnUrl = s3StorageService.buildS3PublicUrl(uploaded.s3Key());
+                    metadataService.extractAndSaveMetadataFromHeader(jobId, imageId, username, imageUrl, cdnUrl, uploaded.s3Key(),
+                            uploaded.headerBytes(), uploaded.contentLength());
+                }, taskExecutor)
+                .exceptionallyCompose(throwable -> {
+                    if (hasCause(throwable, StreamingImageDownload.ContentLengthRequiredException.class)) {
+                        log.debug("Không có Content-Length, chuyển sang tải toàn bộ - URL: {}", imageUrl);
+                        return downloadThenUpload(jobId, imageId, username, imageUrl);
+                    }
+                    return CompletableFuture.failedFuture(throwable);
+                });
+    }
+
+    private CompletableFuture<StreamedUpload> streamUpload(String imageUrl) {
+        return downloaderService.streamImage(imageUrl)
+                .thenCompose(download -> {
+                    String s3Key = newS3Key(download.getContentType());
+                    CompletableFuture<Void> upload = s3StorageService
+                            .upload(s3Key, download.getContentType(), download, download.getContentLength())
+                            .thenAccept(completedUpload -> { })
+                            .whenComplete((ignored, throwable) -> {
+                                if (throwable != null) {
+                                    download.cancel();
+                                }
+                            });
+
+                    return CompletableFuture.allOf(upload, download.completion())
+                            .thenCompose(ignored -> download.headerPrefix())
+                            .thenApply(headerBytes -> new StreamedUpload(s3Key, headerBytes, download.getContentLength()));
                 });
     }
+
+    private record ImageTask(String imageId, String imageUrl) {
+    }
+
+    private record StreamedUpload(String s3Key, byte[] headerBytes, long contentLength) {
+    }
+
+    // Key suy ra từ nội dung nên cùng một ảnh luôn nằm ở cùng một object
+    private String contentS3Key(String sha256, String contentType) {
+        if (sha256 == null) {
+            return newS3Key(contentType);
+        }
+        return sha256 + CONTENT_TYPE_TO_EXTENSION_MAP.getOrDefault(contentType, ".jpg");
+    }
+
+    private String newS3Key(String contentType) {
+        String extension = CONTENT_TYPE_TO_EXTENSION_MAP.getOrDefault(contentType, ".jpg");
+        return UUID.randomUUID().toString() + extension;
+    }
+
+    private static boolean hasCause(Throwable throwable, Class<? extends Throwable> type) {
+        for (Throwable current = throwable; current != null; current = current.getCause()) {
+            if (type.isInstance(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,197 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.repo.ImageJobAsyncRepository;
+import com.mm.image_aws.repo.ImageJobAsyncRepository.MessageProgress;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gom tiến độ xử lý ảnh theo từng job trong bộ nhớ và ghi xuống DynamoDB
+ * bằng một giao dịch cho mỗi job, thay vì một lệnh ghi cho mỗi ảnh.
+ * Tiến độ được ghi nhận theo message SQS và mỗi message chỉ được cộng một lần
+ * (ImageJobAsyncRepository.incrementProgressOnce), nên message bị gửi lại không làm tiến độ bị đếm hai lần.
+ * Dữ liệu được ghi định kỳ và khi kết thúc mỗi lần gọi Lambda (qua flush()).
+ */
+@Service
+@Slf4j
+public class JobProgressAggregator {
+
+    private final ImageJobAsyncRepository asyncRepository;
+    private final MetadataWriteBuffer metadataWriteBuffer;
+    // Map bên trong chỉ được sửa trong compute của key tương ứng, hoặc sau khi đã remove khỏi pending
+    private final ConcurrentHashMap<JobKey, Map<String, MessageProgress>> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long lastFlushLatencyMs;
+    private volatile int lastFlushedJobs;
+
+    public JobProgressAggregator(ImageJobAsyncRepository asyncRepository, MetadataWriteBuffer metadataWriteBuffer,
+                                 AwsProperties awsProperties) {
+        this.asyncRepository = asyncRepository;
+        this.metadataWriteBuffer = metadataWriteBuffer;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "JobProgressFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(100, awsProperties.getProgress().getFlushIntervalMs());
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ghi nhận một message SQS của job đã được xử lý xong.
+     * @param processed Số ảnh của message (kể cả ảnh lỗi).
+     * @param failed Số ảnh lỗi trong processed.
+     */
+    public void record(String username, String jobId, String messageId, int processed, int failed) {
+        MessageProgress progress = new MessageProgress(messageId, processed, failed);
+        pending.compute(new JobKey(username, jobId), (key, messages) -> {
+            Map<String, MessageProgress> result = messages == null ? new LinkedHashMap<>() : messages;
+            result.put(messageId, progress);
+            return result;
+        });
+    }
+
+    /**
+     * Ghi toàn bộ tiến độ đang chờ xuống DynamoDB. Chỉ một lần flush chạy tại một thời điểm,
+     * nên khi hàm này trả về thì không còn lần ghi nào đang dở.
+     * Metadata trong buffer được ghi trước, để job không chuyển sang COMPLETED khi còn dòng metadata chưa ghi;
+     * nếu metadata không ghi được thì tiến độ cũng chưa được ghi.
+     * @return ID các message có tiến độ chưa ghi được (vẫn được giữ lại để lần flush sau ghi tiếp).
+     */
+    public synchronized Set<String> flush() {
+        if (pending.isEmpty()) {
+            return Set.of();
+        }
+        if (!metadataWriteBuffer.drain()) {
+            log.warn("Metadata writes did not complete, postponing progress flush.");
+            return getPendingMessageIds();
+        }
+        long startTime = System.nanoTime();
+        AtomicInteger flushedJobs = new AtomicInteger();
+        List<CompletableFuture<Void>> updates = new ArrayList<>();
+        // Các job được cập nhật song song, chỉ chờ một lần cho cả đợt
+        for (JobKey key : new ArrayList<>(pending.keySet())) {
+            Map<String, MessageProgress> messages = pending.remove(key);
+            if (messages == null) {
+                continue;
+            }
+            updates.add(flushJob(key, new ArrayList<>(messages.values()))
+                    .handle((ignored, throwable) -> {
+                        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                                ? throwable.getCause() : throwable;
+                        if (cause == null) {
+                            flushedJobs.incrementAndGet();
+                        } else if (cause instanceof ConditionalCheckFailedException) {
+                            log.warn("Dropping progress for missing job {}: {} messages.", key.jobId, messages.size());
+                        } else {
+                            // Trả lại các message để lần flush sau ghi tiếp; message đã được cộng sẽ bị bỏ qua khi đó
+                            log.error("Failed to flush progress for job {}: {}", key.jobId, cause.getMessage());
+                            pending.compute(key, (k, current) -> {
+                                Map<String, MessageProgress> result = current == null ? new LinkedHashMap<>() : current;
+                                messages.forEach(result::putIfAbsent);
+                                return result;
+                            });
+                        }
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(updates.toArray(new CompletableFuture[0])).join();
+        lastFlushLatencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        lastFlushedJobs = flushedJobs.get();
+        log.debug("Flushed progress for {} jobs in {} ms.", lastFlushedJobs, lastFlushLatencyMs);
+        return getPendingMessageIds();
+    }
+
+    /**
+     * Bỏ tiến độ chưa ghi của các message sẽ được SQS gửi lại: lần xử lý sau sẽ ghi nhận lại.
+     */
+    public void discard(Collection<String> messageIds) {
+        for (JobKey key : pending.keySet()) {
+            pending.computeIfPresent(key, (k, messages) -> {
+                messages.keySet().removeAll(messageIds);
+                return messages.isEmpty() ? null : messages;
+            });
+        }
+    }
+
+    // Mỗi giao dịch chứa tối đa MAX_TRANSACT_ITEMS - 1 message, các giao dịch của một job chạy lần lượt
+    private CompletableFuture<Void> flushJob(JobKey key, List<MessageProgress> messages) {
+        int chunkSize = ImageJobAsyncRepository.MAX_TRANSACT_ITEMS - 1;
+        CompletableFuture<Void> result = CompletableFuture.completedFuture(null);
+        for (int from = 0; from < messages.size(); from += chunkSize) {
+            List<MessageProgress> chunk = messages.subList(from, Math.min(from + chunkSize, messages.size()));
+            result = result.thenCompose(ignored -> asyncRepository.incrementProgressOnce(key.username, key.jobId, chunk));
+        }
+        return result;
+    }
+
+    /**
+     * @return Tổng số ảnh đã xử lý nhưng chưa được ghi xuống DynamoDB.
+     */
+    public long getPendingDelta() {
+        AtomicLong total = new AtomicLong();
+        for (JobKey key : pending.keySet()) {
+            pending.computeIfPresent(key, (k, messages) -> {
+                messages.values().forEach(progress -> total.addAndGet(progress.processed()));
+                return messages;
+            });
+        }
+        return total.get();
+    }
+
+    private Set<String> getPendingMessageIds() {
+        Set<String> messageIds = new HashSet<>();
+        for (JobKey key : pending.keySet()) {
+            pending.computeIfPresent(key, (k, messages) -> {
+                messageIds.addAll(messages.keySet());
+                return messages;
+            });
+        }
+        return messageIds;
+    }
+
+    public long getLastFlushLatencyMs() {
+        return lastFlushLatencyMs;
+    }
+
+    public int getLastFlushedJobs() {
+        return lastFlushedJobs;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Scheduled progress flush failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        flush();
+    }
+
+    private record JobKey(String username, String jobId) {
+    }
+}
@@ -7,34 +7,93 @@ import com.drew.metadata.Tag;
 import com.drew.metadata.exif.ExifIFD0Directory;
 import com.drew.metadata.jfif.JfifDirectory;
 import com.drew.metadata.png.PngDirectory;
+import com.mm.image_aws.entity.ContentHashEntry;
 import com.mm.image_aws.entity.ImageMetadata;
-import com.mm.image_aws.repo.ImageJobRepository;
+import com.mm.image_aws.service.metadata.ImageHeaderParser;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.io.ByteArrayInputStream;
 import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class MetadataService {
 
-    private final ImageJobRepository imageJobRepository;
+    // Metadata được ghi theo lô, không chặn luồng xử lý ảnh
+    private final MetadataWriteBuffer metadataWriteBuffer;
 
-    public void extractAndSaveMetadata(String jobId, String username, String originalUrl, String cdnUrl, String s3Key, byte[] imageBytes, String errorMessage) {
+    /**
+     * @param imageId ID của dòng metadata, khác nhau cho mỗi URL của job.
+     */
+    public ImageMetadata extractAndSaveMetadata(String jobId, String imageId, String username, String originalUrl, String cdnUrl, String s3Key, byte[] imageBytes, String errorMessage) {
+        return extractAndSaveMetadata(jobId, imageId, username, originalUrl, cdnUrl, s3Key, imageBytes, errorMessage, null);
+    }
+
+    /**
+     * @param variantUrls Các bản thu nhỏ đã tạo (chiều rộng -> URL), có thể null.
+     */
+    public ImageMetadata extractAndSaveMetadata(String jobId, String imageId, String username, String originalUrl, String cdnUrl, String s3Key, byte[] imageBytes, String errorMessage, Map<String, String> variantUrls) {
+        long fileSize = imageBytes != null ? imageBytes.length : 0;
+        return extractAndSave(jobId, imageId, username, originalUrl, cdnUrl, s3Key, imageBytes, fileSize, errorMessage, true, variantUrls);
+    }
+
+    /**
+     * Lưu metadata cho ảnh được upload dạng stream, khi chỉ có phần đầu file trong bộ nhớ.
+     * Lỗi đọc phần đầu file chỉ được ghi log vì bản thân ảnh đã được upload thành công.
+     * @param headerBytes Phần đầu file.
+     * @param fileSize Dung lượng thực của file.
+     */
+    public ImageMetadata extractAndSaveMetadataFromHeader(String jobId, String imageId, String username, String originalUrl, String cdnUrl, String s3Key, byte[] headerBytes, long fileSize) {
+        return extractAndSave(jobId, imageId, username, originalUrl, cdnUrl, s3Key, headerBytes, fileSize, null, false, null);
+    }
+
+    /**
+     * Lưu metadata cho ảnh trùng nội dung với một ảnh đã xử lý trước đó, dùng lại kết quả đã trích xuất.
+     */
+    public ImageMetadata saveFromContentHash(String jobId, String imageId, String username, String originalUrl, ContentHashEntry entry) {
+        ImageMetadata imageMeta = new ImageMetadata();
+        imageMeta.setJobId(jobId);
+        imageMeta.setImageId(imageId);
+        imageMeta.setUsername(username);
+        imageMeta.setOriginalUrl(originalUrl);
+        imageMeta.setCdnUrl(entry.getCdnUrl());
+        imageMeta.setS3Key(entry.getS3Key());
+        imageMeta.setFormat(entry.getFormat());
+        imageMeta.setWidth(entry.getWidth());
+        imageMeta.setHeight(entry.getHeight());
+        imageMeta.setFileSize(entry.getFileSize());
+        imageMeta.setDpi(entry.getDpi());
+        imageMeta.setVariantUrls(entry.getVariantUrls());
+        imageMeta.setCreatedAt(Instant.now().toString());
+
+        metadataWriteBuffer.enqueue(imageMeta);
+        log.info("Đã lưu metadata (trùng nội dung với {}) cho URL: {}", entry.getS3Key(), originalUrl);
+        return imageMeta;
+    }
+
+    private ImageMetadata extractAndSave(String jobId, String imageId, String username, String originalUrl, String cdnUrl, String s3Key,
+                                byte[] imageBytes, long fileSize, String errorMessage, boolean recordExtractionErrors,
+                                Map<String, String> variantUrls) {
 
         ImageMetadata imageMeta = new ImageMetadata();
         imageMeta.setJobId(jobId);
+        imageMeta.setImageId(imageId);
         imageMeta.setUsername(username);
         imageMeta.setOriginalUrl(originalUrl);
         imageMeta.setCdnUrl(cdnUrl);
         imageMeta.setS3Key(s3Key);
         imageMeta.setCreatedAt(Instant.now().toString());
+        if (variantUrls != null && !variantUrls.isEmpty()) {
+            imageMeta.setVariantUrls(variantUrls);
+        }
 
-        if (imageBytes != null && imageBytes.length > 0) {
-            imageMeta.setFileSize((long) imageBytes.length);
+        if (fileSize > 0) {
+            imageMeta.setFileSize(fileSize);
         }
 
         if (errorMessage != null) {
@@ -42,25 +101,43 @@ public class MetadataService {
         }
 
         if (imageBytes != null && imageBytes.length > 0) {
-            try (ByteArrayInputStream inputStream = new ByteArrayInputStream(imageBytes)) {
-                Metadata metadata = ImageMetadataReader.readMetadata(inputStream);
-                extractDimensions(imageMeta, metadata);
-                extractDpi(imageMeta, metadata);
-            } catch (Exception e) {
-                log.error("Lỗi khi trích xuất metadata cho URL {}: {}", originalUrl, e.getMessage());
-                if (imageMeta.getErrorMessage() == null) {
-                    String errorMsg = "Lỗi trích xuất: " + e.getMessage();
-                    imageMeta.setErrorMessage(errorMsg.substring(0, Math.min(errorMsg.length(), 512)));
-                }
+            // Đường nhanh: đọc kích thước và DPI từ header, chỉ dùng ImageMetadataReader khi không đọc được
+            Optional<ImageHeaderParser.HeaderInfo> header = ImageHeaderParser.parse(imageBytes);
+            if (header.isPresent()) {
+                imageMeta.setFormat(header.get().format());
+                imageMeta.setWidth(header.get().width());
+                imageMeta.setHeight(header.get().height());
+                imageMeta.setDpi(header.get().dpi());
+            } else {
+                extractWithMetadataReader(imageMeta, imageBytes, originalUrl, recordExtractionErrors);
             }
         }
 
-        imageJobRepository.saveMetadata(imageMeta);
+        metadataWriteBuffer.enqueue(imageMeta);
         log.info("Đã lưu metadata cho URL: {}", originalUrl);
+        return imageMeta;
+    }
+
+    private void extractWithMetadataReader(ImageMetadata imageMeta, byte[] imageBytes, String originalUrl, boolean recordExtractionErrors) {
+        try (ByteArrayInputStream inputStream = new ByteArrayInputStream(imageBytes)) {
+            Metadata metadata = ImageMetadataReader.readMetadata(inputStream);
+            extractDimensions(imageMeta, metadata);
+            extractDpi(imageMeta, metadata);
+        } catch (Exception e) {
+            log.error("Lỗi khi trích xuất metadata cho URL {}: {}", originalUrl, e.getMessage());
+            if (recordExtractionErrors && imageMeta.getErrorMessage() == null) {
+                String errorMsg = "Lỗi trích xuất: " + e.getMessage();
+                imageMeta.setErrorMessage(errorMsg.substring(0, Math.min(errorMsg.length(), 512)));
+            }
+        }
     }
 
     private void extractDimensions(ImageMetadata imageMeta, Metadata metadata) {
         for (Directory directory : metadata.getDirectories()) {
+            // Bỏ qua kích thước của ảnh thumbnail nhúng trong EXIF
+            if (directory.getName().toLowerCase().contains("thumbnail")) {
+                continue;
+            }
             for (Tag tag : directory.getTags()) {
                 String tagName = tag.getTagName().toLowerCase();
                 int tagType = tag.getTagType();
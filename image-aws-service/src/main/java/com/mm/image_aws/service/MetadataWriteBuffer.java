@@ -0,0 +1,225 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.entity.ImageMetadata;
+import com.mm.image_aws.repo.ImageJobAsyncRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Buffer ghi sau (write-behind) cho ImageMetadata: gom các dòng metadata và ghi bằng
+ * BatchWriteItem qua async client, để độ trễ DynamoDB không nằm trên đường xử lý của từng ảnh.
+ * Lô được gửi khi đủ batchSize, hoặc định kỳ, và phải được drain() trước khi Lambda trả kết quả.
+ * Dòng không ghi được (kể cả sau khi ghi lẻ từng dòng) được đếm lại để drain() báo thất bại,
+ * khi đó các message của lần gọi phải được gửi lại thay vì bị xác nhận.
+ */
+@Service
+@Slf4j
+public class MetadataWriteBuffer {
+
+    private final ImageJobAsyncRepository asyncRepository;
+    private final AwsProperties.MetadataWrites settings;
+
+    private final Queue<ImageMetadata> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Set<CompletableFuture<Void>> inFlight = ConcurrentHashMap.newKeySet();
+    // Số dòng không ghi được kể từ lần resetFailures() gần nhất
+    private final AtomicLong unwrittenSinceReset = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder fallbackWrites = new LongAdder();
+    private final LongAdder failedWrites = new LongAdder();
+
+    public MetadataWriteBuffer(ImageJobAsyncRepository asyncRepository, AwsProperties awsProperties) {
+        this.asyncRepository = asyncRepository;
+        this.settings = awsProperties.getMetadataWrites();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "MetadataWriteFlush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(50, settings.getFlushIntervalMs());
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Đưa một dòng metadata vào buffer. Khi đủ một lô thì gửi ngay.
+     */
+    public void enqueue(ImageMetadata metadata) {
+        pending.add(metadata);
+        if (pendingCount.incrementAndGet() >= batchSize()) {
+            flush(false);
+        }
+    }
+
+    /**
+     * Gửi toàn bộ buffer và chờ đến khi mọi lô (kể cả các lần gửi lại) đã xong, tối đa drainTimeoutMs.
+     * @return false nếu hết thời gian chờ, hoặc có dòng không ghi được kể từ lần resetFailures() gần nhất.
+     */
+    public boolean drain() {
+        flush(true);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(settings.getDrainTimeoutMs());
+        while (!inFlight.isEmpty() || pendingCount.get() > 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                log.warn("Metadata drain timed out with {} pending and {} batches in flight.", pendingCount.get(), inFlight.size());
+                return false;
+            }
+            flush(true);
+            try {
+                CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Kiểm tra lại điều kiện vòng lặp
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        long unwritten = unwrittenSinceReset.get();
+        if (unwritten > 0) {
+            log.warn("Metadata drain finished with {} items that could not be written.", unwritten);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Bắt đầu đếm lại số dòng không ghi được, gọi ở đầu mỗi lần gọi Lambda.
+     */
+    public void resetFailures() {
+        unwrittenSinceReset.set(0);
+    }
+
+    // partial = true: gửi cả lô chưa đủ batchSize
+    private void flush(boolean partial) {
+        while (true) {
+            int available = pendingCount.get();
+            if (available == 0 || (!partial && available < batchSize())) {
+                return;
+            }
+            // Lô được tính là đang gửi trước khi lấy khỏi hàng đợi, để drain() không thấy
+            // pendingCount = 0 và inFlight rỗng trong lúc lô vừa lấy ra chưa được gửi
+            CompletableFuture<Void> slot = new CompletableFuture<>();
+            inFlight.add(slot);
+            List<ImageMetadata> batch = takeBatch();
+            if (batch.isEmpty()) {
+                release(slot);
+                return;
+            }
+            writeWithRetry(batch, 0).whenComplete((ignored, throwable) -> {
+                if (throwable != null) {
+                    log.error("Failed to write {} metadata items: {}", batch.size(), throwable.getMessage());
+                    recordUnwritten(batch.size());
+                }
+                release(slot);
+            });
+        }
+    }
+
+    private List<ImageMetadata> takeBatch() {
+        List<ImageMetadata> batch = new ArrayList<>(batchSize());
+        ImageMetadata item;
+        while (batch.size() < batchSize() && (item = pending.poll()) != null) {
+            pendingCount.decrementAndGet();
+            batch.add(item);
+        }
+        return batch;
+    }
+
+    private CompletableFuture<Void> writeWithRetry(List<ImageMetadata> items, int attempt) {
+        return asyncRepository.batchSaveMetadata(items)
+                .handle((unprocessed, throwable) -> {
+                    List<ImageMetadata> remaining = throwable != null ? items : unprocessed;
+                    written.add(items.size() - remaining.size());
+                    if (remaining.isEmpty()) {
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (attempt >= settings.getMaxRetries()) {
+                        log.error("Giving up batch write of {} metadata items after {} attempts, writing one by one.",
+                                remaining.size(), attempt + 1);
+                        return writeIndividually(remaining);
+                    }
+                    if (throwable != null) {
+                        log.warn("BatchWriteItem failed (attempt {}): {}", attempt + 1, throwable.getMessage());
+                    }
+                    retried.add(remaining.size());
+                    long maxDelay = settings.getRetryBaseDelayMs() << Math.min(attempt, 10);
+                    long delay = ThreadLocalRandom.current().nextLong(maxDelay + 1);
+                    return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> writeWithRetry(remaining, attempt + 1));
+                })
+                .thenCompose(future -> future);
+    }
+
+    private CompletableFuture<Void> writeIndividually(List<ImageMetadata> items) {
+        CompletableFuture<?>[] writes = items.stream()
+                .map(item -> asyncRepository.saveMetadata(item).handle((ignored, throwable) -> {
+                    if (throwable != null) {
+                        log.error("Failed to save metadata for URL {}: {}", item.getOriginalUrl(), throwable.getMessage());
+                        recordUnwritten(1);
+                    } else {
+                        fallbackWrites.increment();
+                    }
+                    return null;
+                }))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(writes);
+    }
+
+    private void release(CompletableFuture<Void> slot) {
+        inFlight.remove(slot);
+        slot.complete(null);
+    }
+
+    private void recordUnwritten(int count) {
+        failedWrites.add(count);
+        unwrittenSinceReset.addAndGet(count);
+    }
+
+    private int batchSize() {
+        return Math.max(1, Math.min(settings.getBatchSize(), ImageJobAsyncRepository.MAX_BATCH_WRITE_ITEMS));
+    }
+
+    private void flushQuietly() {
+        try {
+            flush(true);
+        } catch (Exception e) {
+            log.error("Scheduled metadata flush failed: {}", e.getMessage());
+        }
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public String summary() {
+        return String.format("written=%d retried=%d fallback=%d failed=%d pending=%d inFlight=%d",
+                written.sum(), retried.sum(), fallbackWrites.sum(), failedWrites.sum(), pendingCount.get(), inFlight.size());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        drain();
+    }
+}
@@ -22,9 +22,17 @@ public class S3StorageService {
     private final AwsProperties config;
 
     public CompletableFuture<CompletedUpload> upload(String fileName, String contentType, byte[] content) {
+        return upload(fileName, contentType, AsyncRequestBody.fromBytes(content), content.length);
+    }
+
+    /**
+     * Upload từ một AsyncRequestBody bất kỳ (ví dụ body đang được tải về dạng stream).
+     * @param contentLength Dung lượng phải biết trước vì S3 PutObject yêu cầu Content-Length.
+     */
+    public CompletableFuture<CompletedUpload> upload(String fileName, String contentType, AsyncRequestBody body, long contentLength) {
         UploadRequest uploadRequest = UploadRequest.builder()
-                .putObjectRequest(req -> req.bucket(config.getBucket()).key(fileName).contentType(contentType))
-                .requestBody(AsyncRequestBody.fromBytes(content))
+                .putObjectRequest(req -> req.bucket(config.getBucket()).key(fileName).contentType(contentType).contentLength(contentLength))
+                .requestBody(body)
                 .build();
 
         log.info("Bắt đầu upload file {} lên S3.", fileName);
@@ -0,0 +1,212 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.dto.EnqueueReport;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Gửi message lên SQS bằng SendMessageBatch thay vì một request cho mỗi message.
+ * Mỗi lô tối đa 10 entry và không vượt quá 256 KB, số lô chạy song song được giới hạn,
+ * và chỉ các entry bị lỗi mới được gửi lại.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SqsBatchPublisher {
+
+    static final int MAX_BATCH_ENTRIES = 10;
+    static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    private final SqsAsyncClient sqsClient;
+    private final AwsProperties awsProperties;
+
+    @Value("${aws.sqs.queue.url}")
+    private String queueUrl;
+
+    /**
+     * Đưa toàn bộ message của một job vào hàng đợi và chờ đến khi có kết quả cho từng message.
+     * @param jobId ID của job (dùng làm MessageGroupId).
+     * @param messageBodies Nội dung các message theo thứ tự.
+     * @return Báo cáo số message đã gửi, bị lỗi và vị trí của các message lỗi.
+     */
+    public EnqueueReport publish(String jobId, List<String> messageBodies) {
+        long startTime = System.currentTimeMillis();
+        AwsProperties.Sqs settings = awsProperties.getSqs();
+        PublishContext context = new PublishContext(jobId, settings);
+
+        List<List<PendingEntry>> batches = groupIntoBatches(messageBodies, context);
+        Semaphore inFlight = new Semaphore(Math.max(1, settings.getMaxInFlightBatches()));
+        List<CompletableFuture<Void>> futures = new ArrayList<>(batches.size());
+
+        int submitted = 0;
+        try {
+            for (List<PendingEntry> batch : batches) {
+                inFlight.acquire();
+                futures.add(sendWithRetry(batch, 0, context)
+                        .whenComplete((ignored, ex) -> inFlight.release()));
+                submitted++;
+            }
+        } catch (InterruptedException e) {
+            // Các lô chưa gửi phải được báo lỗi, nếu không job sẽ chờ mãi những URL không có trong hàng đợi
+            for (List<PendingEntry> batch : batches.subList(submitted, batches.size())) {
+                batch.forEach(entry -> context.failedIndexes.add(entry.index));
+            }
+            log.error("Interrupted while queueing messages for job ID: {}, {} batches were not sent.",
+                    jobId, batches.size() - submitted);
+            Thread.currentThread().interrupt();
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        List<Integer> failedIndexes = new ArrayList<>(context.failedIndexes);
+        Collections.sort(failedIndexes);
+
+        EnqueueReport report = new EnqueueReport();
+        report.setJobId(jobId);
+        report.setTotalMessages(messageBodies.size());
+        report.setEnqueued(context.enqueued.get());
+        report.setFailed(messageBodies.size() - context.enqueued.get());
+        report.setBatches(batches.size());
+        report.setRetriedEntries(context.retried.get());
+        report.setFailedIndexes(failedIndexes);
+        report.setElapsedMillis(System.currentTimeMillis() - startTime);
+        return report;
+    }
+
+    private List<List<PendingEntry>> groupIntoBatches(List<String> messageBodies, PublishContext context) {
+        List<List<PendingEntry>> batches = new ArrayList<>();
+        List<PendingEntry> current = new ArrayList<>();
+        int currentBytes = 0;
+
+        for (int i = 0; i < messageBodies.size(); i++) {
+            String body = messageBodies.get(i);
+            int size = body.getBytes(StandardCharsets.UTF_8).length;
+            if (size > MAX_BATCH_BYTES) {
+                log.error("Message {} of job {} is {} bytes, larger than the SQS limit.", i, context.jobId, size);
+                context.failedIndexes.add(i);
+                continue;
+            }
+            if (current.size() == MAX_BATCH_ENTRIES || currentBytes + size > MAX_BATCH_BYTES) {
+                batches.add(current);
+                current = new ArrayList<>();
+                currentBytes = 0;
+            }
+            current.add(new PendingEntry(i, body));
+            currentBytes += size;
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    private CompletableFuture<Void> sendWithRetry(List<PendingEntry> entries, int attempt, PublishContext context) {
+        SendMessageBatchRequest request = SendMessageBatchRequest.builder()
+                .queueUrl(queueUrl)
+                .entries(entries.stream().map(entry -> entry.toRequestEntry(context.jobId)).toList())
+                .build();
+
+        return sqsClient.sendMessageBatch(request)
+                .handle((response, ex) -> {
+                    List<PendingEntry> retryable = new ArrayList<>();
+                    if (ex != null) {
+                        log.warn("SendMessageBatch failed for job {} (attempt {}): {}", context.jobId, attempt + 1, ex.getMessage());
+                        retryable.addAll(entries);
+                    } else {
+                        context.enqueued.addAndGet(response.successful().size());
+                        Map<String, PendingEntry> entriesById = new HashMap<>();
+                        entries.forEach(entry -> entriesById.put(entry.id(), entry));
+                        for (BatchResultErrorEntry failure : response.failed()) {
+                            PendingEntry entry = entriesById.get(failure.id());
+                            if (entry == null) {
+                                continue;
+                            }
+                            if (Boolean.TRUE.equals(failure.senderFault())) {
+                                // Lỗi do phía gửi (payload sai...) thì gửi lại cũng không thành công
+                                log.error("Message {} of job {} rejected: {} {}", entry.index, context.jobId, failure.code(), failure.message());
+                                context.failedIndexes.add(entry.index);
+                            } else {
+                                retryable.add(entry);
+                            }
+                        }
+                    }
+                    return retryLater(retryable, attempt, context);
+                })
+                .thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<Void> retryLater(List<PendingEntry> entries, int attempt, PublishContext context) {
+        if (entries.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (attempt >= context.settings.getMaxRetries()) {
+            log.error("Giving up on {} messages of job {} after {} attempts.", entries.size(), context.jobId, attempt + 1);
+            entries.forEach(entry -> context.failedIndexes.add(entry.index));
+            return CompletableFuture.completedFuture(null);
+        }
+        context.retried.addAndGet(entries.size());
+        long maxDelay = context.settings.getRetryBaseDelayMs() << attempt;
+        long delay = ThreadLocalRandom.current().nextLong(maxDelay + 1);
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                .thenCompose(ignored -> sendWithRetry(entries, attempt + 1, context));
+    }
+
+    private static class PublishContext {
+        private final String jobId;
+        private final AwsProperties.Sqs settings;
+        private final AtomicInteger enqueued = new AtomicInteger();
+        private final AtomicInteger retried = new AtomicInteger();
+        private final ConcurrentLinkedQueue<Integer> failedIndexes = new ConcurrentLinkedQueue<>();
+
+        private PublishContext(String jobId, AwsProperties.Sqs settings) {
+            this.jobId = jobId;
+            this.settings = settings;
+        }
+    }
+
+    private static class PendingEntry {
+        private final int index;
+        private final String body;
+        // Giữ nguyên deduplication ID giữa các lần gửi lại
+        private final String deduplicationId = UUID.randomUUID().toString();
+
+        private PendingEntry(int index, String body) {
+            this.index = index;
+            this.body = body;
+        }
+
+        private String id() {
+            return "m" + index;
+        }
+
+        private SendMessageBatchRequestEntry toRequestEntry(String jobId) {
+            return SendMessageBatchRequestEntry.builder()
+                    .id(id())
+                    .messageBody(body)
+                    .messageGroupId(jobId)
+                    .messageDeduplicationId(deduplicationId)
+                    .build();
+        }
+    }
+}
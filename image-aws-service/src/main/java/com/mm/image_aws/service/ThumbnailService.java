@@ -0,0 +1,182 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.imgscalr.Scalr;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Tạo các bản thu nhỏ theo chiều rộng (ví dụ 160, 480, 1080px) bằng imgscalr và upload lên S3
+ * dưới key variants/{width}/{tên ảnh gốc}.{định dạng}.
+ * Ảnh được giải mã với subsampling nên ảnh rất lớn không chiếm nhiều heap.
+ */
+@Service
+@Slf4j
+public class ThumbnailService {
+
+    private final S3StorageService s3StorageService;
+    private final AwsProperties.Variants settings;
+    private final Executor taskExecutor;
+
+    public ThumbnailService(S3StorageService s3StorageService,
+                            AwsProperties awsProperties,
+                            @Qualifier("taskExecutor") Executor taskExecutor) {
+        this.s3StorageService = s3StorageService;
+        this.settings = awsProperties.getVariants();
+        this.taskExecutor = taskExecutor;
+    }
+
+    public boolean isEnabled() {
+        return settings.isEnabled() && !settings.getWidths().isEmpty();
+    }
+
+    /**
+     * Tạo và upload các bản thu nhỏ. Lỗi chỉ được ghi log, không làm hỏng việc xử lý ảnh gốc.
+     * @param s3Key Key của ảnh gốc.
+     * @return Future chứa map chiều rộng -> URL của bản thu nhỏ (rỗng nếu không tạo được).
+     */
+    public CompletableFuture<Map<String, String>> generateVariants(String s3Key, byte[] imageBytes) {
+        if (!isEnabled()) {
+            return CompletableFuture.completedFuture(Map.of());
+        }
+        return CompletableFuture.supplyAsync(() -> renderVariants(imageBytes), taskExecutor)
+                .thenCompose(rendered -> uploadVariants(s3Key, rendered))
+                .exceptionally(throwable -> {
+                    log.warn("Không tạo được bản thu nhỏ cho {}: {}", s3Key, throwable.getMessage());
+                    return Map.of();
+                });
+    }
+
+    private Map<Integer, byte[]> renderVariants(byte[] imageBytes) {
+        int maxWidth = settings.getWidths().stream().mapToInt(Integer::intValue).max().orElse(0);
+        DecodedImage decoded = decodeSubsampled(imageBytes, maxWidth);
+        if (decoded == null) {
+            throw new IllegalArgumentException("Định dạng ảnh không được hỗ trợ.");
+        }
+        BufferedImage source = decoded.image();
+        String format = outputFormat();
+        Map<Integer, byte[]> result = new LinkedHashMap<>();
+        for (Integer width : settings.getWidths()) {
+            // Không phóng to ảnh nhỏ hơn kích thước yêu cầu. So với chiều rộng gốc:
+            // ảnh đã giải mã có thể hẹp hơn do subsampling nhưng vẫn không hẹp hơn bản thu nhỏ lớn nhất
+            if (width == null || width <= 0 || width >= decoded.originalWidth()) {
+                continue;
+            }
+            BufferedImage resized = Scalr.resize(source, Scalr.Method.QUALITY, Scalr.Mode.FIT_TO_WIDTH, width);
+            try {
+                result.put(width, encode(resized, format));
+            } catch (IOException e) {
+                throw new IllegalStateException("Không mã hóa được bản thu nhỏ " + width + "px", e);
+            } finally {
+                resized.flush();
+            }
+        }
+        source.flush();
+        return result;
+    }
+
+    private CompletableFuture<Map<String, String>> uploadVariants(String s3Key, Map<Integer, byte[]> rendered) {
+        String baseName = s3Key.contains(".") ? s3Key.substring(0, s3Key.lastIndexOf('.')) : s3Key;
+        String format = outputFormat();
+        String contentType = "image/" + ("jpg".equals(format) ? "jpeg" : format);
+
+        Map<String, String> urls = new LinkedHashMap<>();
+        List<CompletableFuture<?>> uploads = new ArrayList<>();
+        rendered.forEach((width, bytes) -> {
+            String variantKey = "variants/" + width + "/" + baseName + "." + format;
+            urls.put(String.valueOf(width), s3StorageService.buildS3PublicUrl(variantKey));
+            uploads.add(s3StorageService.upload(variantKey, contentType, bytes));
+        });
+        return CompletableFuture.allOf(uploads.toArray(new CompletableFuture[0])).thenApply(ignored -> urls);
+    }
+
+    private record DecodedImage(BufferedImage image, int originalWidth) {
+    }
+
+    // Giải mã với hệ số subsampling lớn nhất mà vẫn giữ chiều rộng >= bản thu nhỏ lớn nhất
+    private DecodedImage decodeSubsampled(byte[] imageBytes, int maxTargetWidth) {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sourceWidth = reader.getWidth(0);
+                int factor = maxTargetWidth > 0 ? Math.max(1, sourceWidth / maxTargetWidth) : 1;
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return new DecodedImage(reader.read(0, param), sourceWidth);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Không giải mã được ảnh: " + e.getMessage(), e);
+        }
+    }
+
+    private byte[] encode(BufferedImage image, String format) throws IOException {
+        BufferedImage output = image;
+        if ("jpg".equals(format) && image.getColorModel().hasAlpha()) {
+            // JPEG không có kênh alpha, ghép lên nền trắng
+            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = output.createGraphics();
+            graphics.drawImage(image, 0, 0, Color.WHITE, null);
+            graphics.dispose();
+        }
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null && param.getCompressionTypes().length > 0) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(settings.getQuality());
+            }
+            writer.write(null, new IIOImage(output, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    // ImageIO mặc định không có WebP writer; khi không có thì dùng JPEG
+    private String outputFormat() {
+        String format = settings.getFormat() == null ? "jpg" : settings.getFormat().toLowerCase();
+        if ("jpeg".equals(format)) {
+            format = "jpg";
+        }
+        if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+            return "jpg";
+        }
+        return format;
+    }
+}
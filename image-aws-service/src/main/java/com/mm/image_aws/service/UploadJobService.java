@@ -2,40 +2,42 @@ package com.mm.image_aws.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mm.image_aws.config.AwsProperties;
 import com.mm.image_aws.dto.CdnUrlResponse;
+import com.mm.image_aws.dto.EnqueueReport;
+import com.mm.image_aws.dto.ImageTaskMessage;
 import com.mm.image_aws.dto.JobStatusResponse;
+import com.mm.image_aws.dto.PageResponse;
 import com.mm.image_aws.dto.UploadRequest;
 import com.mm.image_aws.entity.ImageMetadata;
 import com.mm.image_aws.entity.UploadJob;
 import com.mm.image_aws.exception.ResourceNotFoundException; // THAY ĐỔI: Import exception mới
 import com.mm.image_aws.repo.ImageJobRepository;
-import lombok.AllArgsConstructor;
-import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.sqs.SqsAsyncClient;
-import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class UploadJobService {
 
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private final ImageJobRepository imageJobRepository;
-    private final SqsAsyncClient sqsClient;
+    private final SqsBatchPublisher sqsBatchPublisher;
     private final ObjectMapper objectMapper;
-
-    @Value("${aws.sqs.queue.url}")
-    private String queueUrl;
+    private final AwsProperties awsProperties;
 
     public String createJob(UploadRequest uploadRequest, String username) {
         List<String> urls = uploadRequest.getUrls();
@@ -56,29 +58,31 @@ public class UploadJobService {
         imageJobRepository.saveJob(job);
         log.info("Created job with ID: {} for user: {} with {} URLs", job.getJobId(), username, urls.size());
 
-        for (String url : urls) {
+        int chunkSize = Math.max(1, awsProperties.getSqs().getUrlsPerMessage());
+        List<String> messageBodies = new ArrayList<>();
+        List<List<String>> queuedChunks = new ArrayList<>();
+        List<String> unqueuedUrls = new ArrayList<>();
+        for (int start = 0; start < urls.size(); start += chunkSize) {
+            List<String> chunk = urls.subList(start, Math.min(start + chunkSize, urls.size()));
             try {
-                SqsMessagePayload payload = new SqsMessagePayload(job.getJobId(), username, url);
-                String messageBody = objectMapper.writeValueAsString(payload);
-                SendMessageRequest sendMessageRequest = SendMessageRequest.builder()
-                        .queueUrl(queueUrl)
-                        .messageBody(messageBody)
-                        .messageGroupId(job.getJobId())
-                        .messageDeduplicationId(UUID.randomUUID().toString())
-                        .build();
-
-                sqsClient.sendMessage(sendMessageRequest).thenAccept(response -> {
-                    log.info("Successfully sent message for URL: {} with MessageId: {}", url, response.messageId());
-                }).exceptionally(ex -> {
-                    log.error("Failed to send message for URL: {}", url, ex);
-                    return null;
-                });
-
+                ImageTaskMessage message = ImageTaskMessage.of(job.getJobId(), username, chunk);
+                messageBodies.add(objectMapper.writeValueAsString(message));
+                queuedChunks.add(chunk);
             } catch (JsonProcessingException e) {
                 log.error("Error serializing SQS message payload for job ID: {}", job.getJobId(), e);
+                unqueuedUrls.addAll(chunk);
             }
         }
-        log.info("Queued {} messages for job ID: {}", urls.size(), job.getJobId());
+
+        EnqueueReport report = sqsBatchPublisher.publish(job.getJobId(), messageBodies);
+        report.getFailedIndexes().forEach(index -> unqueuedUrls.addAll(queuedChunks.get(index)));
+        log.info("Queued {} URLs in {}/{} messages for job ID: {} using {} batches ({} entries retried, {} ms)",
+                urls.size() - unqueuedUrls.size(), report.getEnqueued(), messageBodies.size(), job.getJobId(),
+                report.getBatches(), report.getRetriedEntries(), report.getElapsedMillis());
+
+        if (!unqueuedUrls.isEmpty()) {
+            markUnqueuedUrls(job, unqueuedUrls);
+        }
 
         return job.getJobId();
     }
@@ -88,73 +92,120 @@ public class UploadJobService {
                 // THAY ĐỔI: Sử dụng ResourceNotFoundException
                 .orElseThrow(() -> new ResourceNotFoundException("Job not found with ID: " + jobId));
 
-        return new JobStatusResponse(
-                Long.parseLong(job.getJobId().replaceAll("[^0-9]", "")),
-                job.getStatus(),
-                job.getTotalImages(),
-                job.getProcessedImages(),
-                LocalDateTime.ofInstant(Instant.parse(job.getCreatedAt()), ZoneOffset.UTC),
-                LocalDateTime.ofInstant(Instant.parse(job.getUpdatedAt()), ZoneOffset.UTC)
-        );
+        return toJobStatusResponse(job);
     }
 
     public List<JobStatusResponse> getUserJobs(String username) {
         List<UploadJob> jobs = imageJobRepository.findJobsByUsername(username);
         return jobs.stream()
-                .map(job -> new JobStatusResponse(
-                        Long.parseLong(job.getJobId().replaceAll("[^0-g]", "")),
-                        job.getStatus(),
-                        job.getTotalImages(),
-                        job.getProcessedImages(),
-                        LocalDateTime.ofInstant(Instant.parse(job.getCreatedAt()), ZoneOffset.UTC),
-                        LocalDateTime.ofInstant(Instant.parse(job.getUpdatedAt()), ZoneOffset.UTC)
-                ))
+                .map(this::toJobStatusResponse)
                 .collect(Collectors.toList());
     }
 
     public List<String> getUserCdnUrls(String username) {
-        List<ImageMetadata> metadataList = imageJobRepository.findMetadataByUsername(username);
-        return metadataList.stream()
+        return imageJobRepository.streamMetadataByUsername(username, false)
                 .map(ImageMetadata::getCdnUrl)
                 .collect(Collectors.toList());
     }
 
     public List<CdnUrlResponse> getUserDetailedCdnUrls(String username) {
-        List<ImageMetadata> metadataList = imageJobRepository.findMetadataByUsername(username);
-        return metadataList.stream()
-                .map(meta -> new CdnUrlResponse(
-                        Long.parseLong(meta.getJobId().replaceAll("[^0-9]", "")),
-                        meta.getOriginalUrl(),
-                        meta.getCdnUrl(),
-                        LocalDateTime.ofInstant(Instant.parse(meta.getCreatedAt()), ZoneOffset.UTC)
-                ))
+        return imageJobRepository.streamMetadataByUsername(username, false)
+                .map(this::toCdnUrlResponse)
                 .collect(Collectors.toList());
     }
 
-    public synchronized void updateJobAfterProcessing(String username, String jobId) {
-        UploadJob job = imageJobRepository.findJobById(username, jobId)
-                // THAY ĐỔI: Sử dụng ResourceNotFoundException
-                .orElseThrow(() -> new ResourceNotFoundException("Cannot update job. Job not found with ID: " + jobId));
+    /**
+     * Một trang job của user theo thời gian tạo.
+     * @param pageToken nextPageToken của trang trước, null để lấy trang đầu.
+     * @param order "asc" (cũ -> mới) hoặc "desc" (mới -> cũ, mặc định).
+     */
+    public PageResponse<JobStatusResponse> getUserJobsPage(String username, int pageSize, String pageToken, String order) {
+        PageResponse<UploadJob> page = imageJobRepository.findJobsByUsername(username, clampPageSize(pageSize), pageToken, isAscending(order));
+        return new PageResponse<>(page.getItems().stream().map(this::toJobStatusResponse).collect(Collectors.toList()),
+                page.getNextPageToken());
+    }
 
-        job.setProcessedImages(job.getProcessedImages() + 1);
-        job.setUpdatedAt(Instant.now().toString());
+    public PageResponse<String> getUserCdnUrlsPage(String username, int pageSize, String pageToken, String order) {
+        PageResponse<ImageMetadata> page = imageJobRepository.findMetadataByUsername(username, clampPageSize(pageSize), pageToken, isAscending(order));
+        return new PageResponse<>(page.getItems().stream().map(ImageMetadata::getCdnUrl).collect(Collectors.toList()),
+                page.getNextPageToken());
+    }
 
-        if (job.getProcessedImages() < job.getTotalImages()) {
-            job.setStatus("PROCESSING");
-        } else {
-            job.setStatus("COMPLETED");
-            log.info("Job {} has completed processing all {} images.", jobId, job.getTotalImages());
-        }
+    public PageResponse<CdnUrlResponse> getUserDetailedCdnUrlsPage(String username, int pageSize, String pageToken, String order) {
+        PageResponse<ImageMetadata> page = imageJobRepository.findMetadataByUsername(username, clampPageSize(pageSize), pageToken, isAscending(order));
+        return new PageResponse<>(page.getItems().stream().map(this::toCdnUrlResponse).collect(Collectors.toList()),
+                page.getNextPageToken());
+    }
+
+    /**
+     * Toàn bộ job của user dưới dạng Stream được đọc dần từ DynamoDB, dùng cho phản hồi NDJSON.
+     */
+    public Stream<JobStatusResponse> streamUserJobs(String username, String order) {
+        return imageJobRepository.streamJobsByUsername(username, isAscending(order)).map(this::toJobStatusResponse);
+    }
+
+    public Stream<CdnUrlResponse> streamUserDetailedCdnUrls(String username, String order) {
+        return imageJobRepository.streamMetadataByUsername(username, isAscending(order)).map(this::toCdnUrlResponse);
+    }
+
+    private JobStatusResponse toJobStatusResponse(UploadJob job) {
+        return new JobStatusResponse(
+                Long.parseLong(job.getJobId().replaceAll("[^0-9]", "")),
+                job.getStatus(),
+                job.getTotalImages(),
+                job.getProcessedImages(),
+                LocalDateTime.ofInstant(Instant.parse(job.getCreatedAt()), ZoneOffset.UTC),
+                LocalDateTime.ofInstant(Instant.parse(job.getUpdatedAt()), ZoneOffset.UTC)
+        );
+    }
+
+    private CdnUrlResponse toCdnUrlResponse(ImageMetadata meta) {
+        return new CdnUrlResponse(
+                Long.parseLong(meta.getJobId().replaceAll("[^0-9]", "")),
+                meta.getOriginalUrl(),
+                meta.getCdnUrl(),
+                LocalDateTime.ofInstant(Instant.parse(meta.getCreatedAt()), ZoneOffset.UTC)
+        );
+    }
 
-        imageJobRepository.updateJob(job);
-        log.debug("Updated Job {}: {}/{} images processed.", jobId, job.getProcessedImages(), job.getTotalImages());
+    private static int clampPageSize(int pageSize) {
+        return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
     }
 
-    @Data
-    @AllArgsConstructor
-    private static class SqsMessagePayload {
-        private String jobId;
-        private String username;
-        private String imageUrl;
+    private static boolean isAscending(String order) {
+        return "asc".equalsIgnoreCase(order);
+    }
+
+    /**
+     * Các URL không đưa được vào hàng đợi sẽ không bao giờ được xử lý,
+     * nên ghi nhận lỗi và tính chúng là đã xử lý để job vẫn có thể kết thúc.
+     */
+    private void markUnqueuedUrls(UploadJob job, List<String> unqueuedUrls) {
+        log.error("{} URLs of job ID: {} could not be queued.", unqueuedUrls.size(), job.getJobId());
+        for (String url : unqueuedUrls) {
+            ImageMetadata errorMeta = new ImageMetadata();
+            errorMeta.setJobId(job.getJobId());
+            errorMeta.setImageId(UUID.randomUUID().toString());
+            errorMeta.setUsername(job.getUsername());
+            errorMeta.setOriginalUrl(url);
+            errorMeta.setErrorMessage("Không thể đưa URL vào hàng đợi xử lý.");
+            errorMeta.setCreatedAt(Instant.now().toString());
+            imageJobRepository.saveMetadata(errorMeta);
+        }
+        updateJobAfterProcessing(job.getUsername(), job.getJobId(), unqueuedUrls.size(), unqueuedUrls.size());
+    }
+
+    /**
+     * Cộng thêm số ảnh đã xử lý cho job bằng một lệnh UpdateItem nguyên tử, không cần khóa hay đọc trước.
+     * Luồng xử lý ảnh gom các thay đổi này qua JobProgressAggregator thay vì gọi trực tiếp cho từng ảnh.
+     */
+    public void updateJobAfterProcessing(String username, String jobId, int processedCount, int failedCount) {
+        int processedImages;
+        try {
+            processedImages = imageJobRepository.incrementProgress(username, jobId, processedCount, failedCount);
+        } catch (ConditionalCheckFailedException e) {
+            throw new ResourceNotFoundException("Cannot update job. Job not found with ID: " + jobId, e);
+        }
+        log.debug("Updated Job {}: {} images processed.", jobId, processedImages);
     }
 }
@@ -0,0 +1,131 @@
+package com.mm.image_aws.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.dto.CachedUrlResult;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache URL (đã chuẩn hóa) -> kết quả đã xử lý, gồm hai tầng:
+ * LRU trong bộ nhớ của từng instance và Redis dùng chung.
+ * Redis không truy cập được thì chỉ dùng tầng bộ nhớ, giống cách RateLimitingService xử lý.
+ * Kết quả không có ETag/Last-Modified không thể kiểm tra lại bằng conditional GET nên chỉ sống unvalidatedTtlSeconds.
+ */
+@Service
+@Slf4j
+public class UrlResultCache {
+
+    private static final String KEY_PREFIX = "url_result:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final AwsProperties.UrlCache settings;
+    private final Map<String, CachedUrlResult> local;
+
+    private final LongAdder localHits = new LongAdder();
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UrlResultCache(StringRedisTemplate redisTemplate, ObjectMapper objectMapper, AwsProperties awsProperties) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.settings = awsProperties.getUrlCache();
+        int maxEntries = Math.max(1, settings.getLocalMaxEntries());
+        this.local = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUrlResult> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public Optional<CachedUrlResult> get(String normalizedUrl) {
+        if (!settings.isEnabled()) {
+            return Optional.empty();
+        }
+        String key = cacheKey(normalizedUrl);
+        synchronized (local) {
+            CachedUrlResult cached = local.get(key);
+            if (cached != null) {
+                if (age(cached) <= Math.min(settings.getLocalTtlSeconds(), ttlSeconds(cached)) * 1000) {
+                    localHits.increment();
+                    return Optional.of(cached);
+                }
+                local.remove(key);
+            }
+        }
+        try {
+            String json = redisTemplate.opsForValue().get(key);
+            if (json != null) {
+                CachedUrlResult cached = objectMapper.readValue(json, CachedUrlResult.class);
+                // Bản ghi cũ có thể được ghi với TTL dài hơn trước khi có unvalidatedTtlSeconds
+                if (age(cached) <= ttlSeconds(cached) * 1000) {
+                    putLocal(key, cached);
+                    redisHits.increment();
+                    return Optional.of(cached);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Redis lookup failed for URL cache, using local tier only - Error: {}", e.getMessage());
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(String normalizedUrl, CachedUrlResult result) {
+        if (!settings.isEnabled() || result.getResult() == null) {
+            return;
+        }
+        String key = cacheKey(normalizedUrl);
+        result.setCachedAt(System.currentTimeMillis());
+        putLocal(key, result);
+        try {
+            redisTemplate.opsForValue().set(key, objectMapper.writeValueAsString(result), Duration.ofSeconds(ttlSeconds(result)));
+        } catch (Exception e) {
+            log.warn("Failed to write URL cache to Redis - Error: {}", e.getMessage());
+        }
+    }
+
+    private long ttlSeconds(CachedUrlResult result) {
+        if (result.getEtag() != null || result.getLastModified() != null) {
+            return settings.getTtlSeconds();
+        }
+        return Math.min(settings.getTtlSeconds(), settings.getUnvalidatedTtlSeconds());
+    }
+
+    private static long age(CachedUrlResult result) {
+        return System.currentTimeMillis() - result.getCachedAt();
+    }
+
+    private void putLocal(String key, CachedUrlResult result) {
+        synchronized (local) {
+            local.put(key, result);
+        }
+    }
+
+    // URL có thể rất dài nên dùng hash làm key
+    private static String cacheKey(String normalizedUrl) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(normalizedUrl.getBytes(StandardCharsets.UTF_8));
+            return KEY_PREFIX + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public String summary() {
+        return String.format("localHits=%d redisHits=%d misses=%d", localHits.sum(), redisHits.sum(), misses.sum());
+    }
+}
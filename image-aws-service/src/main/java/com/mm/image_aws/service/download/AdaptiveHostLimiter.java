@@ -0,0 +1,268 @@
+package com.mm.image_aws.service.download;
+
+import com.mm.image_aws.config.HttpClientProperties;
+import com.mm.image_aws.exception.HttpStatusException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Giới hạn số request tải ảnh đồng thời tới mỗi host và tự điều chỉnh giới hạn theo AIMD:
+ * tăng dần (+1 mỗi "vòng" limit request) khi host trả lời nhanh, giảm theo cấp số nhân
+ * khi host trả về 429/503, timeout hoặc độ trễ tăng vọt so với baseline.
+ * Độ trễ được đo đến byte đầu tiên của response (TTFB) nên không phụ thuộc dung lượng ảnh,
+ * và baseline là trung bình trượt nên dần quên các mẫu cũ.
+ *
+ * Request vượt giới hạn được xếp hàng chờ thay vì bị từ chối. Host không được dùng quá idleExpiryMs bị bỏ khỏi bộ nhớ.
+ */
+@Component
+@Slf4j
+public class AdaptiveHostLimiter {
+
+    // Khoảng cách tối thiểu giữa hai lần dọn các host không còn dùng
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final HttpClientProperties.HostLimit settings;
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+
+    public AdaptiveHostLimiter(HttpClientProperties properties) {
+        this.settings = properties.getHostLimit();
+    }
+
+    /**
+     * Chạy một request khi host còn chỗ trống, giữ chỗ cho đến khi future của request hoàn thành.
+     * @param request Nhận Permit để gọi Permit.firstByte() khi nhận được header của response.
+     */
+    public <T> CompletableFuture<T> execute(String host, Function<Permit, CompletableFuture<T>> request) {
+        return acquire(host).thenCompose(permit -> {
+            CompletableFuture<T> future;
+            try {
+                future = request.apply(permit);
+            } catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            return future.whenComplete((result, throwable) -> permit.release(throwable));
+        });
+    }
+
+    /**
+     * Lấy một chỗ cho host. Phía gọi phải gọi Permit.release() đúng một lần khi request kết thúc.
+     */
+    public CompletableFuture<Permit> acquire(String host) {
+        if (!settings.isEnabled() || host == null) {
+            return CompletableFuture.completedFuture(Permit.NOOP);
+        }
+        expireIdleHosts();
+        String key = host.toLowerCase();
+        while (true) {
+            CompletableFuture<Permit> permit = hosts.computeIfAbsent(key, k -> new HostState(k, settings)).acquire();
+            if (permit != null) {
+                return permit;
+            }
+            // State vừa bị bỏ khỏi map vì lâu không dùng, lấy state mới
+        }
+    }
+
+    private void expireIdleHosts() {
+        long now = System.nanoTime();
+        long last = lastSweepNanos.get();
+        if (now - last < SWEEP_INTERVAL_NANOS || !lastSweepNanos.compareAndSet(last, now)) {
+            return;
+        }
+        long idleNanos = TimeUnit.MILLISECONDS.toNanos(settings.getIdleExpiryMs());
+        hosts.forEach((host, state) -> {
+            if (state.retireIfIdle(now, idleNanos)) {
+                hosts.remove(host, state);
+            }
+        });
+    }
+
+    /**
+     * @return Giới hạn hiện tại, số request đang chạy và đang chờ của từng host.
+     */
+    public Map<String, String> snapshot() {
+        Map<String, String> result = new LinkedHashMap<>();
+        hosts.forEach((host, state) -> result.put(host, state.describe()));
+        return result;
+    }
+
+    public interface Permit {
+        Permit NOOP = throwable -> { };
+
+        /**
+         * Đánh dấu đã nhận header của response. Request không gọi hàm này thì chỉ lỗi của nó được tính.
+         */
+        default void firstByte() {
+        }
+
+        /**
+         * @param throwable Lỗi của request, null nếu thành công.
+         */
+        void release(Throwable throwable);
+    }
+
+    private static final class HostState {
+        private final String host;
+        private final HttpClientProperties.HostLimit settings;
+        private final ArrayDeque<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+
+        private double limit;
+        private int inFlight;
+        // TTFB "bình thường" của host: trung bình trượt chậm, mẫu cũ giảm dần trọng số
+        private double baselineNanos;
+        // TTFB gần đây: trung bình trượt nhanh, để một mẫu chậm lẻ loi không làm giảm giới hạn
+        private double recentNanos;
+        private long lastDecreaseNanos;
+        private long lastUsedNanos = System.nanoTime();
+        private boolean retired;
+
+        private HostState(String host, HttpClientProperties.HostLimit settings) {
+            this.host = host;
+            this.settings = settings;
+            this.limit = Math.max(settings.getMinLimit(), settings.getInitialLimit());
+        }
+
+        // null nếu state đã bị bỏ khỏi map
+        private CompletableFuture<Permit> acquire() {
+            synchronized (this) {
+                if (retired) {
+                    return null;
+                }
+                lastUsedNanos = System.nanoTime();
+                if (inFlight < (int) limit) {
+                    inFlight++;
+                    return CompletableFuture.completedFuture(newPermit());
+                }
+                CompletableFuture<Permit> pending = new CompletableFuture<>();
+                waiting.add(pending);
+                return pending;
+            }
+        }
+
+        private synchronized boolean retireIfIdle(long now, long idleNanos) {
+            if (inFlight == 0 && waiting.isEmpty() && now - lastUsedNanos > idleNanos) {
+                retired = true;
+            }
+            return retired;
+        }
+
+        private Permit newPermit() {
+            long startNanos = System.nanoTime();
+            return new Permit() {
+                private long firstByteNanos = -1;
+                private boolean released;
+
+                @Override
+                public void firstByte() {
+                    synchronized (HostState.this) {
+                        if (firstByteNanos < 0) {
+                            firstByteNanos = System.nanoTime() - startNanos;
+                        }
+                    }
+                }
+
+                @Override
+                public void release(Throwable throwable) {
+                    long ttfbNanos;
+                    synchronized (HostState.this) {
+                        if (released) {
+                            return;
+                        }
+                        released = true;
+                        ttfbNanos = firstByteNanos;
+                    }
+                    onComplete(ttfbNanos, throwable);
+                }
+            };
+        }
+
+        // ttfbNanos < 0: không có mẫu độ trễ
+        private void onComplete(long ttfbNanos, Throwable throwable) {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            synchronized (this) {
+                inFlight--;
+                lastUsedNanos = System.nanoTime();
+                adjustLimit(ttfbNanos, throwable);
+                while (inFlight < (int) limit && !waiting.isEmpty()) {
+                    CompletableFuture<Permit> next = waiting.poll();
+                    inFlight++;
+                    granted.add(next);
+                }
+            }
+            // Hoàn thành future ngoài lock vì các bước tiếp theo có thể chạy ngay trên luồng này
+            for (CompletableFuture<Permit> next : granted) {
+                next.complete(newPermit());
+            }
+        }
+
+        private void adjustLimit(long ttfbNanos, Throwable throwable) {
+            if (throwable != null) {
+                if (isOverloadSignal(throwable)) {
+                    decrease(settings.getBackoffRatio(), "throttled");
+                }
+                // Các lỗi khác (404, URL sai...) không nói gì về tải của host
+                return;
+            }
+            if (ttfbNanos < 0) {
+                return;
+            }
+            if (baselineNanos == 0) {
+                baselineNanos = ttfbNanos;
+                recentNanos = ttfbNanos;
+            } else {
+                double smoothing = settings.getBaselineSmoothing();
+                baselineNanos = baselineNanos * (1 - smoothing) + ttfbNanos * smoothing;
+                recentNanos = recentNanos * 0.7 + ttfbNanos * 0.3;
+            }
+            if (recentNanos > baselineNanos * settings.getLatencyTolerance()) {
+                decrease(0.9, "slow");
+            } else if (limit < settings.getMaxLimit()) {
+                limit = Math.min(settings.getMaxLimit(), limit + 1.0 / limit);
+            }
+        }
+
+        // Chỉ giảm tối đa một lần trong mỗi khoảng baseline, vì các request đang chạy cùng lúc
+        // thường cùng nhận 429 cho một lần quá tải
+        private void decrease(double ratio, String reason) {
+            long now = System.nanoTime();
+            if (lastDecreaseNanos != 0 && now - lastDecreaseNanos < baselineNanos) {
+                return;
+            }
+            lastDecreaseNanos = now;
+            double previous = limit;
+            limit = Math.max(settings.getMinLimit(), limit * ratio);
+            if ((int) previous != (int) limit) {
+                log.info("Host {} {}: concurrency limit {} -> {}", host, reason, (int) previous, (int) limit);
+            }
+        }
+
+        private static boolean isOverloadSignal(Throwable throwable) {
+            for (Throwable current = throwable; current != null; current = current.getCause()) {
+                if (current instanceof HttpStatusException statusException) {
+                    return statusException.isThrottled();
+                }
+                if (current instanceof TimeoutException || current instanceof SocketTimeoutException) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized String describe() {
+            return String.format("limit=%d inFlight=%d queued=%d", (int) limit, inFlight, waiting.size());
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.mm.image_aws.service.download;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool các mảng byte kích thước cố định dùng làm bộ đệm khi tải ảnh
+ * không biết trước dung lượng, tránh cấp phát mảng mới cho mỗi lần tải.
+ */
+@Component
+public class ByteChunkPool {
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+    // Giữ lại tối đa 16 MB bộ đệm rảnh
+    private static final int MAX_POOLED_CHUNKS = 256;
+
+    private final ConcurrentLinkedQueue<byte[]> freeChunks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    public byte[] acquire() {
+        byte[] chunk = freeChunks.poll();
+        if (chunk == null) {
+            return new byte[CHUNK_SIZE];
+        }
+        pooledCount.decrementAndGet();
+        return chunk;
+    }
+
+    public void release(byte[] chunk) {
+        if (chunk.length == CHUNK_SIZE && pooledCount.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+            freeChunks.offer(chunk);
+        } else if (chunk.length == CHUNK_SIZE) {
+            pooledCount.decrementAndGet();
+        }
+    }
+}
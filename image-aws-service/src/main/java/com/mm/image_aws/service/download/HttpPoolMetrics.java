@@ -0,0 +1,101 @@
+package com.mm.image_aws.service.download;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.async.AsyncExecChainHandler;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Theo dõi connection pool của HTTP client: thời gian chờ lấy kết nối (lease),
+ * số request đang xếp hàng chờ kết nối và số kết nối tới từng host.
+ *
+ * Thời gian lease được đo bằng hai interceptor đặt trước và sau bước CONNECT của exec chain.
+ */
+public class HttpPoolMetrics {
+
+    private static final String LEASE_START_ATTRIBUTE = HttpPoolMetrics.class.getName() + ".leaseStart";
+
+    private final LongAdder leaseCount = new LongAdder();
+    private final LongAdder leaseNanos = new LongAdder();
+    private final LongAccumulator maxLeaseNanos = new LongAccumulator(Math::max, 0);
+
+    private volatile PoolingAsyncClientConnectionManager connectionManager;
+
+    public void bind(PoolingAsyncClientConnectionManager connectionManager) {
+        this.connectionManager = connectionManager;
+    }
+
+    public AsyncExecChainHandler beforeConnect() {
+        return (request, entityProducer, scope, chain, callback) -> {
+            scope.clientContext.setAttribute(LEASE_START_ATTRIBUTE, System.nanoTime());
+            chain.proceed(request, entityProducer, scope, callback);
+        };
+    }
+
+    public AsyncExecChainHandler afterConnect() {
+        return (request, entityProducer, scope, chain, callback) -> {
+            Object start = scope.clientContext.removeAttribute(LEASE_START_ATTRIBUTE);
+            if (start instanceof Long startNanos) {
+                long elapsed = System.nanoTime() - startNanos;
+                leaseCount.increment();
+                leaseNanos.add(elapsed);
+                maxLeaseNanos.accumulate(elapsed);
+            }
+            chain.proceed(request, entityProducer, scope, callback);
+        };
+    }
+
+    public long getLeaseCount() {
+        return leaseCount.sum();
+    }
+
+    public double getAverageLeaseMillis() {
+        long count = leaseCount.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(leaseNanos.sum() / count) / 1000.0;
+    }
+
+    public long getMaxLeaseMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLeaseNanos.get());
+    }
+
+    /**
+     * @return Số request đang chờ lấy kết nối từ pool.
+     */
+    public int getPendingLeases() {
+        PoolingAsyncClientConnectionManager manager = connectionManager;
+        return manager == null ? 0 : manager.getTotalStats().getPending();
+    }
+
+    public int getLeasedConnections() {
+        PoolingAsyncClientConnectionManager manager = connectionManager;
+        return manager == null ? 0 : manager.getTotalStats().getLeased();
+    }
+
+    /**
+     * @return Số kết nối (đang dùng + rảnh) tới từng host.
+     */
+    public Map<String, Integer> getConnectionsPerHost() {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        PoolingAsyncClientConnectionManager manager = connectionManager;
+        if (manager == null) {
+            return result;
+        }
+        for (HttpRoute route : manager.getRoutes()) {
+            PoolStats stats = manager.getStats(route);
+            result.merge(route.getTargetHost().getHostName(), stats.getLeased() + stats.getAvailable(), Integer::sum);
+        }
+        return result;
+    }
+
+    public String summary() {
+        return String.format("leases=%d avgLeaseMs=%.2f maxLeaseMs=%d leased=%d pending=%d perHost=%s",
+                getLeaseCount(), getAverageLeaseMillis(), getMaxLeaseMillis(),
+                getLeasedConnections(), getPendingLeases(), getConnectionsPerHost());
+    }
+}
@@ -0,0 +1,188 @@
+package com.mm.image_aws.service.download;
+
+import com.mm.image_aws.dto.DownloadedImage;
+import com.mm.image_aws.exception.FileTooLargeException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.nio.entity.AbstractBinResponseConsumer;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Đọc body ảnh theo dạng stream thay vì để SimpleHttpResponse gom toàn bộ vào bộ nhớ.
+ * Từ chối ngay khi Content-Length vượt giới hạn, và dừng đọc khi số byte nhận được vượt giới hạn,
+ * nên bộ nhớ dùng cho mỗi lần tải không bao giờ lớn hơn maxFileSize.
+ * Với conditional GET, response 304 cho kết quả null (ảnh không đổi so với lần trước).
+ */
+public class ImageResponseConsumer extends AbstractBinResponseConsumer<DownloadedImage> {
+
+    private final String imageUrl;
+    private final long maxFileSize;
+    private final ByteChunkPool chunkPool;
+    // Request có gửi If-None-Match/If-Modified-Since nên chấp nhận 304
+    private final boolean conditional;
+    // Được gọi khi nhận header của response, để đo thời gian đến byte đầu tiên
+    private final Runnable onResponseStart;
+
+    private String contentType = "application/octet-stream";
+    private String etag;
+    private String lastModified;
+    private boolean notModified;
+    private long bytesRead;
+    // Băm nội dung ngay trong lúc đọc để không phải duyệt lại toàn bộ mảng byte
+    private final MessageDigest digest = newSha256();
+
+    // Dùng khi biết trước Content-Length: đọc thẳng vào một mảng đúng kích thước
+    private byte[] exactBuffer;
+    // Dùng khi không biết dung lượng: đọc vào các chunk lấy từ pool
+    private final List<byte[]> chunks = new ArrayList<>();
+
+    public ImageResponseConsumer(String imageUrl, long maxFileSize, ByteChunkPool chunkPool, boolean conditional,
+                                 Runnable onResponseStart) {
+        this.imageUrl = imageUrl;
+        this.maxFileSize = maxFileSize;
+        this.chunkPool = chunkPool;
+        this.conditional = conditional;
+        this.onResponseStart = onResponseStart;
+    }
+
+    @Override
+    protected void start(HttpResponse response, ContentType contentType) {
+        onResponseStart.run();
+        if (conditional && response.getCode() == HttpStatus.SC_NOT_MODIFIED) {
+            notModified = true;
+            return;
+        }
+        if (response.getCode() != 200) {
+            throw ResponseErrors.statusError(response);
+        }
+        if (contentType != null) {
+            this.contentType = contentType.getMimeType();
+        }
+        this.etag = headerValue(response, HttpHeaders.ETAG);
+        this.lastModified = headerValue(response, HttpHeaders.LAST_MODIFIED);
+
+        long contentLength = parseContentLength(response);
+        if (contentLength > maxFileSize) {
+            throw tooLarge(contentLength);
+        }
+        if (contentLength > 0) {
+            exactBuffer = new byte[(int) contentLength];
+        }
+    }
+
+    @Override
+    protected int capacityIncrement() {
+        return ByteChunkPool.CHUNK_SIZE * 4;
+    }
+
+    @Override
+    protected void data(ByteBuffer src, boolean endOfStream) {
+        int length = src.remaining();
+        if (bytesRead + length > maxFileSize) {
+            throw tooLarge(bytesRead + length);
+        }
+        digest.update(src.duplicate());
+        store(src);
+    }
+
+    private void store(ByteBuffer src) {
+        int length = src.remaining();
+        if (exactBuffer != null) {
+            if (bytesRead + length > exactBuffer.length) {
+                // Server gửi nhiều hơn Content-Length đã báo, chuyển sang đọc theo chunk
+                switchToChunks();
+            } else {
+                src.get(exactBuffer, (int) bytesRead, length);
+                bytesRead += length;
+                return;
+            }
+        }
+
+        while (src.hasRemaining()) {
+            int offset = (int) (bytesRead % ByteChunkPool.CHUNK_SIZE);
+            if (offset == 0 && chunks.size() * (long) ByteChunkPool.CHUNK_SIZE == bytesRead) {
+                chunks.add(chunkPool.acquire());
+            }
+            byte[] current = chunks.get(chunks.size() - 1);
+            int count = Math.min(src.remaining(), ByteChunkPool.CHUNK_SIZE - offset);
+            src.get(current, offset, count);
+            bytesRead += count;
+        }
+    }
+
+    @Override
+    protected DownloadedImage buildResult() {
+        if (notModified) {
+            return null;
+        }
+        byte[] content;
+        if (exactBuffer != null) {
+            content = bytesRead == exactBuffer.length ? exactBuffer : Arrays.copyOf(exactBuffer, (int) bytesRead);
+        } else {
+            content = new byte[(int) bytesRead];
+            int position = 0;
+            for (byte[] chunk : chunks) {
+                int count = Math.min(chunk.length, content.length - position);
+                System.arraycopy(chunk, 0, content, position, count);
+                position += count;
+            }
+        }
+        return new DownloadedImage(content, contentType, HexFormat.of().formatHex(digest.digest()), etag, lastModified, null);
+    }
+
+    @Override
+    public void releaseResources() {
+        chunks.forEach(chunkPool::release);
+        chunks.clear();
+        exactBuffer = null;
+    }
+
+    private void switchToChunks() {
+        byte[] received = exactBuffer;
+        int receivedCount = (int) bytesRead;
+        exactBuffer = null;
+        bytesRead = 0;
+        store(ByteBuffer.wrap(received, 0, receivedCount));
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    private long parseContentLength(HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(header.getValue().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private FileTooLargeException tooLarge(long size) {
+        String message = String.format("File quá lớn: %.2f MB (giới hạn: %.2f MB) - URL: %s",
+                size / (1024.0 * 1024.0), maxFileSize / (1024.0 * 1024.0), imageUrl);
+        return new FileTooLargeException(message, size, maxFileSize);
+    }
+}
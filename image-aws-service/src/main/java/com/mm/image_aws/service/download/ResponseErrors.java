@@ -0,0 +1,44 @@
+package com.mm.image_aws.service.download;
+
+import com.mm.image_aws.exception.HttpStatusException;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Tạo exception cho response có mã lỗi, kèm thời gian chờ từ header Retry-After nếu có.
+ */
+final class ResponseErrors {
+
+    private ResponseErrors() {
+    }
+
+    static HttpStatusException statusError(HttpResponse response) {
+        return new HttpStatusException(response.getCode(), parseRetryAfter(response.getFirstHeader(HttpHeaders.RETRY_AFTER)));
+    }
+
+    // Retry-After có thể là số giây hoặc một mốc thời gian dạng HTTP-date
+    private static long parseRetryAfter(Header header) {
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value)) * 1000;
+        } catch (NumberFormatException ignored) {
+            // Không phải số giây, thử đọc dạng ngày giờ
+        }
+        try {
+            Instant retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return Math.max(0, Duration.between(Instant.now(), retryAt).toMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.mm.image_aws.service.download;
+
+import com.mm.image_aws.exception.FileTooLargeException;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nối body của HTTP response (HttpClient5) thẳng vào một AsyncRequestBody để upload lên S3
+ * trong lúc vẫn đang tải, thay vì tải hết vào byte[] rồi mới upload.
+ *
+ * Phía HTTP chỉ được cấp thêm capacity khi S3 đã lấy bớt dữ liệu (backpressure),
+ * nên lượng dữ liệu nằm trong bộ nhớ không vượt quá MAX_BUFFERED_BYTES.
+ * Một bản sao của phần đầu file (headerPrefix) được giữ lại để đọc metadata.
+ *
+ * Body chỉ dùng được một lần: nếu SDK subscribe lại (retry) thì upload sẽ thất bại.
+ */
+public class StreamingImageDownload implements AsyncResponseConsumer<Long>, AsyncRequestBody {
+
+    private static final int MAX_BUFFERED_BYTES = 1024 * 1024;
+
+    private final String imageUrl;
+    private final long maxFileSize;
+    private final byte[] prefixBuffer;
+
+    private final CompletableFuture<StreamingImageDownload> headersFuture = new CompletableFuture<>();
+    private final CompletableFuture<byte[]> prefixFuture = new CompletableFuture<>();
+    private final CompletableFuture<Long> completionFuture = new CompletableFuture<>();
+
+    private volatile String contentType = "application/octet-stream";
+    private volatile long contentLength = -1;
+    private volatile FutureCallback<Long> resultCallback;
+    private volatile Future<?> requestFuture;
+
+    // Trạng thái phía HTTP
+    private final Queue<ByteBuffer> queue = new ConcurrentLinkedQueue<>();
+    private CapacityChannel capacityChannel;
+    private long grantedBytes;
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong deliveredBytes = new AtomicLong();
+    private volatile boolean ended;
+    private volatile Throwable error;
+
+    // Trạng thái phía S3 (subscriber)
+    private volatile Subscriber<? super ByteBuffer> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger drainWip = new AtomicInteger();
+    private volatile boolean cancelled;
+    private boolean terminated;
+
+    public StreamingImageDownload(String imageUrl, long maxFileSize, int headerPrefixBytes) {
+        this.imageUrl = imageUrl;
+        this.maxFileSize = maxFileSize;
+        this.prefixBuffer = new byte[headerPrefixBytes];
+    }
+
+    // ===== Thông tin cho phía gọi =====
+
+    /**
+     * @return Future hoàn thành khi đã nhận header (dung lượng, kiểu file) và có thể bắt đầu upload.
+     */
+    public CompletableFuture<StreamingImageDownload> headers() {
+        return headersFuture;
+    }
+
+    /**
+     * @return Phần đầu file (tối đa headerPrefixBytes) dùng để trích xuất metadata.
+     */
+    public CompletableFuture<byte[]> headerPrefix() {
+        return prefixFuture;
+    }
+
+    /**
+     * @return Future hoàn thành với tổng số byte khi đã tải xong.
+     */
+    public CompletableFuture<Long> completion() {
+        return completionFuture;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public void setRequestFuture(Future<?> requestFuture) {
+        this.requestFuture = requestFuture;
+    }
+
+    /**
+     * Hủy việc tải (ví dụ khi upload lên S3 thất bại).
+     */
+    public void cancel() {
+        cancelled = true;
+        Future<?> future = requestFuture;
+        if (future != null) {
+            future.cancel(true);
+        }
+    }
+
+    // ===== AsyncResponseConsumer (phía HTTP) =====
+
+    @Override
+    public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+                                FutureCallback<Long> resultCallback) throws IOException {
+        this.resultCallback = resultCallback;
+        if (response.getCode() != 200) {
+            throw ResponseErrors.statusError(response);
+        }
+        if (entityDetails == null || entityDetails.getContentLength() == 0) {
+            throw new IllegalArgumentException("Nội dung trả về rỗng.");
+        }
+        long length = entityDetails.getContentLength();
+        if (length > maxFileSize) {
+            throw tooLarge(length);
+        }
+        if (length < 0) {
+            // S3 cần biết trước dung lượng, phía gọi sẽ chuyển sang tải toàn bộ vào bộ nhớ
+            throw new ContentLengthRequiredException(imageUrl);
+        }
+        if (entityDetails.getContentType() != null) {
+            ContentType parsed = ContentType.parseLenient(entityDetails.getContentType());
+            if (parsed != null) {
+                this.contentType = parsed.getMimeType();
+            }
+        }
+        this.contentLength = length;
+        headersFuture.complete(this);
+    }
+
+    @Override
+    public void informationResponse(HttpResponse response, HttpContext context) {
+    }
+
+    @Override
+    public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+        synchronized (this) {
+            this.capacityChannel = capacityChannel;
+        }
+        grantCapacity();
+    }
+
+    @Override
+    public void consume(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        long received = receivedBytes.addAndGet(length);
+        if (received > maxFileSize || received > contentLength) {
+            throw tooLarge(received);
+        }
+
+        capturePrefix(src.duplicate(), received - length);
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        copy.put(src);
+        copy.flip();
+        queue.offer(copy);
+        drain();
+    }
+
+    @Override
+    public void streamEnd(List<? extends Header> trailers) {
+        ended = true;
+        completePrefix();
+        drain();
+        completionFuture.complete(receivedBytes.get());
+        if (resultCallback != null) {
+            resultCallback.completed(receivedBytes.get());
+        }
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        error = cause;
+        headersFuture.completeExceptionally(cause);
+        prefixFuture.completeExceptionally(cause);
+        completionFuture.completeExceptionally(cause);
+        drain();
+    }
+
+    @Override
+    public void releaseResources() {
+        // Dữ liệu còn trong hàng đợi vẫn thuộc về subscriber, không xóa ở đây
+    }
+
+    // ===== AsyncRequestBody (phía S3) =====
+
+    @Override
+    public Optional<Long> contentLength() {
+        return Optional.of(contentLength);
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> s) {
+        synchronized (this) {
+            if (subscriber != null) {
+                s.onSubscribe(new NoOpSubscription());
+                s.onError(new IllegalStateException("Streaming body can only be subscribed once: " + imageUrl));
+                return;
+            }
+            subscriber = s;
+        }
+        s.onSubscribe(new Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Demand must be positive: " + n);
+                } else {
+                    demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+                }
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                StreamingImageDownload.this.cancel();
+            }
+        });
+    }
+
+    // Chuyển dữ liệu trong hàng đợi cho subscriber theo demand, chỉ một luồng chạy tại một thời điểm
+    private void drain() {
+        if (drainWip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            Subscriber<? super ByteBuffer> s = subscriber;
+            if (s != null && !terminated && !cancelled) {
+                if (error != null) {
+                    terminated = true;
+                    queue.clear();
+                    s.onError(error);
+                } else {
+                    ByteBuffer next;
+                    while (demand.get() > 0 && (next = queue.poll()) != null) {
+                        demand.decrementAndGet();
+                        deliveredBytes.addAndGet(next.remaining());
+                        s.onNext(next);
+                    }
+                    if (ended && queue.isEmpty()) {
+                        terminated = true;
+                        s.onComplete();
+                    }
+                }
+            }
+        } while (drainWip.decrementAndGet() != 0);
+
+        try {
+            grantCapacity();
+        } catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    // Cho phía HTTP đọc tiếp tối đa MAX_BUFFERED_BYTES byte chưa được S3 lấy đi
+    private void grantCapacity() throws IOException {
+        CapacityChannel channel;
+        int increment;
+        synchronized (this) {
+            channel = capacityChannel;
+            long outstanding = grantedBytes - deliveredBytes.get();
+            increment = (int) Math.max(0, MAX_BUFFERED_BYTES - outstanding);
+            if (channel == null || increment == 0 || ended || error != null) {
+                return;
+            }
+            grantedBytes += increment;
+        }
+        channel.update(increment);
+    }
+
+    private void capturePrefix(ByteBuffer src, long offset) {
+        if (offset >= prefixBuffer.length) {
+            return;
+        }
+        int count = (int) Math.min(src.remaining(), prefixBuffer.length - offset);
+        src.get(prefixBuffer, (int) offset, count);
+        if (offset + count >= prefixBuffer.length) {
+            completePrefix();
+        }
+    }
+
+    private void completePrefix() {
+        if (!prefixFuture.isDone()) {
+            int length = (int) Math.min(prefixBuffer.length, receivedBytes.get());
+            prefixFuture.complete(length == prefixBuffer.length ? prefixBuffer : Arrays.copyOf(prefixBuffer, length));
+        }
+    }
+
+    private FileTooLargeException tooLarge(long size) {
+        String message = String.format("File quá lớn: %.2f MB (giới hạn: %.2f MB) - URL: %s",
+                size / (1024.0 * 1024.0), maxFileSize / (1024.0 * 1024.0), imageUrl);
+        return new FileTooLargeException(message, size, maxFileSize);
+    }
+
+    private static class NoOpSubscription implements Subscription {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+
+    /**
+     * Server không gửi Content-Length nên không thể stream thẳng lên S3.
+     */
+    public static class ContentLengthRequiredException extends IOException {
+        public ContentLengthRequiredException(String imageUrl) {
+            super("Missing Content-Length, cannot stream to S3: " + imageUrl);
+        }
+    }
+}
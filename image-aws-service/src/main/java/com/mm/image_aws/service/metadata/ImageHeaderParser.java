@@ -0,0 +1,237 @@
+package com.mm.image_aws.service.metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Đọc kích thước và DPI trực tiếp từ phần header của JPEG (SOF, JFIF, EXIF IFD0), PNG (IHDR, pHYs),
+ * GIF và WebP, không cần dựng toàn bộ cây metadata như ImageMetadataReader.
+ * Trả về Optional.empty() khi không nhận ra định dạng hoặc header bị cắt, để phía gọi dùng cách đọc đầy đủ.
+ */
+public final class ImageHeaderParser {
+
+    private ImageHeaderParser() {
+    }
+
+    public record HeaderInfo(String format, int width, int height, Integer dpi) {
+    }
+
+    public static Optional<HeaderInfo> parse(byte[] data) {
+        if (data == null || data.length < 12) {
+            return Optional.empty();
+        }
+        try {
+            if (u8(data, 0) == 0xFF && u8(data, 1) == 0xD8) {
+                return parseJpeg(data);
+            }
+            if (u8(data, 0) == 0x89 && startsWith(data, 1, "PNG")) {
+                return parsePng(data);
+            }
+            if (startsWith(data, 0, "GIF8")) {
+                return parseGif(data);
+            }
+            if (startsWith(data, 0, "RIFF") && startsWith(data, 8, "WEBP")) {
+                return parseWebp(data);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Header bị cắt giữa chừng
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<HeaderInfo> parseJpeg(byte[] data) {
+        Integer jfifDpi = null;
+        Integer exifDpi = null;
+        int pos = 2;
+        while (pos + 4 <= data.length) {
+            if (u8(data, pos) != 0xFF) {
+                return Optional.empty();
+            }
+            int marker = u8(data, pos + 1);
+            if (marker == 0xFF) {
+                // Byte đệm giữa các marker
+                pos++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                pos += 2;
+                continue;
+            }
+            int length = u16be(data, pos + 2);
+            int segment = pos + 4;
+            if (marker == 0xE0 && startsWith(data, segment, "JFIF\0")) {
+                jfifDpi = jfifDpi(data, segment);
+            } else if (marker == 0xE1 && startsWith(data, segment, "Exif\0\0")) {
+                exifDpi = exifDpi(data, segment + 6, Math.min(data.length, segment + length - 2));
+            } else if (isStartOfFrame(marker)) {
+                int height = u16be(data, segment + 1);
+                int width = u16be(data, segment + 3);
+                if (width == 0 || height == 0) {
+                    return Optional.empty();
+                }
+                // Giống thứ tự cũ: ưu tiên JFIF, sau đó EXIF
+                return Optional.of(new HeaderInfo("JPEG", width, height, jfifDpi != null ? jfifDpi : exifDpi));
+            } else if (marker == 0xDA) {
+                // Đã tới dữ liệu ảnh mà chưa thấy SOF
+                return Optional.empty();
+            }
+            pos += 2 + length;
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    private static Integer jfifDpi(byte[] data, int segment) {
+        int units = u8(data, segment + 7);
+        int resX = u16be(data, segment + 8);
+        if (resX <= 0) {
+            return null;
+        }
+        if (units == 1) {
+            return resX;
+        }
+        if (units == 2) {
+            return (int) Math.round(resX * 2.54);
+        }
+        return null;
+    }
+
+    // Đọc XResolution/ResolutionUnit trong IFD0 của khối TIFF bên trong APP1
+    private static Integer exifDpi(byte[] data, int tiff, int end) {
+        boolean littleEndian = startsWith(data, tiff, "II");
+        if (!littleEndian && !startsWith(data, tiff, "MM")) {
+            return null;
+        }
+        int ifd = tiff + u32(data, tiff + 4, littleEndian);
+        if (ifd + 2 > end) {
+            return null;
+        }
+        int entries = u16(data, ifd, littleEndian);
+        Double xResolution = null;
+        int unit = 2;
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            int tag = u16(data, entry, littleEndian);
+            if (tag == 0x011A) {
+                int valueOffset = tiff + u32(data, entry + 8, littleEndian);
+                if (valueOffset + 8 <= end) {
+                    long numerator = u32(data, valueOffset, littleEndian) & 0xFFFFFFFFL;
+                    long denominator = u32(data, valueOffset + 4, littleEndian) & 0xFFFFFFFFL;
+                    if (denominator != 0) {
+                        xResolution = (double) numerator / denominator;
+                    }
+                }
+            } else if (tag == 0x0128) {
+                unit = u16(data, entry + 8, littleEndian);
+            }
+        }
+        if (xResolution == null || xResolution <= 0) {
+            return null;
+        }
+        return (int) Math.round(unit == 3 ? xResolution * 2.54 : xResolution);
+    }
+
+    private static Optional<HeaderInfo> parsePng(byte[] data) {
+        if (!startsWith(data, 12, "IHDR")) {
+            return Optional.empty();
+        }
+        int width = u32(data, 16, false);
+        int height = u32(data, 20, false);
+        Integer dpi = null;
+        // pHYs phải nằm trước IDAT
+        int pos = 8;
+        while (pos + 8 <= data.length) {
+            int length = u32(data, pos, false);
+            if (startsWith(data, pos + 4, "pHYs")) {
+                long pixelsPerUnitX = u32(data, pos + 8, false) & 0xFFFFFFFFL;
+                int unit = u8(data, pos + 16);
+                if (unit == 1 && pixelsPerUnitX > 0) {
+                    dpi = (int) Math.round(pixelsPerUnitX * 0.0254);
+                }
+                break;
+            }
+            if (startsWith(data, pos + 4, "IDAT") || length < 0) {
+                break;
+            }
+            pos += 12 + length;
+        }
+        return Optional.of(new HeaderInfo("PNG", width, height, dpi));
+    }
+
+    private static Optional<HeaderInfo> parseGif(byte[] data) {
+        int width = u16le(data, 6);
+        int height = u16le(data, 8);
+        return Optional.of(new HeaderInfo("GIF", width, height, null));
+    }
+
+    private static Optional<HeaderInfo> parseWebp(byte[] data) {
+        if (startsWith(data, 12, "VP8 ")) {
+            // Khung lossy: mã bắt đầu 9D 01 2A, sau đó 14 bit chiều rộng và chiều cao
+            if (u8(data, 23) != 0x9D || u8(data, 24) != 0x01 || u8(data, 25) != 0x2A) {
+                return Optional.empty();
+            }
+            return Optional.of(new HeaderInfo("WEBP", u16le(data, 26) & 0x3FFF, u16le(data, 28) & 0x3FFF, null));
+        }
+        if (startsWith(data, 12, "VP8L")) {
+            if (u8(data, 20) != 0x2F) {
+                return Optional.empty();
+            }
+            int bits = u32(data, 21, true);
+            int width = (bits & 0x3FFF) + 1;
+            int height = ((bits >>> 14) & 0x3FFF) + 1;
+            return Optional.of(new HeaderInfo("WEBP", width, height, null));
+        }
+        if (startsWith(data, 12, "VP8X")) {
+            int width = u24le(data, 24) + 1;
+            int height = u24le(data, 27) + 1;
+            return Optional.of(new HeaderInfo("WEBP", width, height, null));
+        }
+        return Optional.empty();
+    }
+
+    private static boolean startsWith(byte[] data, int offset, String ascii) {
+        byte[] expected = ascii.getBytes(StandardCharsets.ISO_8859_1);
+        if (offset < 0 || offset + expected.length > data.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int u8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    private static int u16be(byte[] data, int offset) {
+        return (u8(data, offset) << 8) | u8(data, offset + 1);
+    }
+
+    private static int u16le(byte[] data, int offset) {
+        return u8(data, offset) | (u8(data, offset + 1) << 8);
+    }
+
+    private static int u24le(byte[] data, int offset) {
+        return u8(data, offset) | (u8(data, offset + 1) << 8) | (u8(data, offset + 2) << 16);
+    }
+
+    private static int u16(byte[] data, int offset, boolean littleEndian) {
+        return littleEndian ? u16le(data, offset) : u16be(data, offset);
+    }
+
+    private static int u32(byte[] data, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return u16le(data, offset) | (u16le(data, offset + 2) << 16);
+        }
+        return (u16be(data, offset) << 16) | u16be(data, offset + 2);
+    }
+}
@@ -0,0 +1,199 @@
+package com.mm.image_aws.service.retry;
+
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.exception.FileTooLargeException;
+import com.mm.image_aws.exception.HttpStatusException;
+import com.mm.image_aws.service.download.StreamingImageDownload;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Thử lại các bước tải/upload khi gặp lỗi tạm thời (5xx, 429, timeout, lỗi kết nối).
+ * Thời gian chờ tăng theo cấp số nhân với full jitter, tôn trọng Retry-After của server,
+ * và tổng số lần thử lại của mỗi job bị giới hạn để một job lỗi hàng loạt không chiếm hết thời gian Lambda.
+ */
+@Component
+@Slf4j
+public class RetryExecutor {
+
+    // Số job gần nhất được giữ lại để tính ngân sách thử lại
+    private static final int MAX_TRACKED_JOBS = 1_000;
+
+    private final AwsProperties.Retry settings;
+    private final Map<String, AtomicInteger> retriesByJob = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AtomicInteger> eldest) {
+            return size() > MAX_TRACKED_JOBS;
+        }
+    };
+    private final Map<RetryReason, LongAdder> retriesByReason = new EnumMap<>(RetryReason.class);
+    private final LongAdder exhausted = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+
+    public RetryExecutor(AwsProperties awsProperties) {
+        this.settings = awsProperties.getRetry();
+        for (RetryReason reason : RetryReason.values()) {
+            retriesByReason.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Chạy action và thử lại khi lỗi có thể thử lại.
+     * @param jobId Job sở hữu action, dùng để tính ngân sách thử lại.
+     * @param stage Tên bước (để ghi log).
+     * @return Kết quả của lần thử thành công, hoặc lỗi của lần thử cuối cùng.
+     */
+    public <T> CompletableFuture<T> execute(String jobId, String stage, Supplier<CompletableFuture<T>> action) {
+        return attempt(jobId, stage, action, 1);
+    }
+
+    private <T> CompletableFuture<T> attempt(String jobId, String stage, Supplier<CompletableFuture<T>> action, int attempt) {
+        CompletableFuture<T> future;
+        try {
+            future = action.get();
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future
+                .handle((result, throwable) -> {
+                    if (throwable == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    long delay = retryDelay(jobId, stage, throwable, attempt);
+                    if (delay < 0) {
+                        return CompletableFuture.<T>failedFuture(unwrap(throwable));
+                    }
+                    return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> attempt(jobId, stage, action, attempt + 1));
+                })
+                .thenCompose(Function.identity());
+    }
+
+    // Trả về thời gian chờ trước lần thử tiếp theo, hoặc -1 nếu không thử lại
+    private long retryDelay(String jobId, String stage, Throwable throwable, int attempt) {
+        Throwable cause = unwrap(throwable);
+        RetryReason reason = classify(cause);
+        if (!reason.isRetryable()) {
+            return -1;
+        }
+        if (attempt >= settings.getMaxAttempts()) {
+            exhausted.increment();
+            log.warn("{} failed after {} attempts ({}): {}", stage, attempt, reason, cause.getMessage());
+            return -1;
+        }
+
+        long backoff = Math.min(settings.getMaxDelayMs(), settings.getBaseDelayMs() << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+        if (cause instanceof HttpStatusException statusException && statusException.getRetryAfterMillis() >= 0) {
+            if (statusException.getRetryAfterMillis() > settings.getMaxRetryAfterMs()) {
+                log.warn("{} asked to wait {} ms, more than allowed, giving up.", stage, statusException.getRetryAfterMillis());
+                return -1;
+            }
+            delay = Math.max(delay, statusException.getRetryAfterMillis());
+        }
+        if (!consumeBudget(jobId)) {
+            budgetExhausted.increment();
+            log.warn("Retry budget of job {} exhausted, not retrying {}.", jobId, stage);
+            return -1;
+        }
+        retriesByReason.get(reason).increment();
+        log.debug("Retrying {} in {} ms (attempt {}, {}): {}", stage, delay, attempt + 1, reason, cause.getMessage());
+        return delay;
+    }
+
+    private boolean consumeBudget(String jobId) {
+        if (jobId == null) {
+            return true;
+        }
+        AtomicInteger used;
+        synchronized (retriesByJob) {
+            used = retriesByJob.computeIfAbsent(jobId, key -> new AtomicInteger());
+        }
+        return used.incrementAndGet() <= settings.getJobBudget();
+    }
+
+    /**
+     * Phân loại lỗi để quyết định có thử lại hay không.
+     */
+    public static RetryReason classify(Throwable throwable) {
+        for (Throwable current = throwable; current != null; current = current.getCause()) {
+            if (current instanceof HttpStatusException statusException) {
+                if (statusException.isThrottled()) {
+                    return RetryReason.THROTTLED;
+                }
+                return statusException.isServerError() ? RetryReason.SERVER_ERROR : RetryReason.CLIENT_ERROR;
+            }
+            if (current instanceof FileTooLargeException) {
+                return RetryReason.TOO_LARGE;
+            }
+            if (current instanceof IllegalArgumentException
+                    || current instanceof StreamingImageDownload.ContentLengthRequiredException) {
+                return RetryReason.INVALID;
+            }
+            if (current instanceof TimeoutException || current instanceof SocketTimeoutException
+                    || current instanceof ApiCallTimeoutException || current instanceof ApiCallAttemptTimeoutException) {
+                return RetryReason.TIMEOUT;
+            }
+            if (current instanceof AwsServiceException serviceException) {
+                if (serviceException.isThrottlingException()) {
+                    return RetryReason.THROTTLED;
+                }
+                return serviceException.statusCode() >= 500 ? RetryReason.S3_ERROR : RetryReason.CLIENT_ERROR;
+            }
+            if (current instanceof IOException) {
+                return RetryReason.CONNECTION;
+            }
+            if (current instanceof SdkClientException && current.getCause() == null) {
+                return RetryReason.S3_ERROR;
+            }
+        }
+        return RetryReason.UNKNOWN;
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        Throwable current = throwable;
+        while ((current instanceof CompletionException || current instanceof ExecutionException) && current.getCause() != null) {
+            current = current.getCause();
+        }
+        return current;
+    }
+
+    /**
+     * @return Số lần đã thử lại theo từng lý do.
+     */
+    public Map<RetryReason, Long> getRetriesByReason() {
+        Map<RetryReason, Long> result = new EnumMap<>(RetryReason.class);
+        retriesByReason.forEach((reason, count) -> {
+            long value = count.sum();
+            if (value > 0) {
+                result.put(reason, value);
+            }
+        });
+        return result;
+    }
+
+    public String summary() {
+        return String.format("retries=%s exhausted=%d budgetExhausted=%d",
+                getRetriesByReason(), exhausted.sum(), budgetExhausted.sum());
+    }
+}
@@ -0,0 +1,26 @@
+package com.mm.image_aws.service.retry;
+
+/**
+ * Lý do một lần thử bị lỗi, dùng để quyết định có thử lại không và để thống kê.
+ */
+public enum RetryReason {
+    THROTTLED(true),
+    SERVER_ERROR(true),
+    TIMEOUT(true),
+    CONNECTION(true),
+    S3_ERROR(true),
+    CLIENT_ERROR(false),
+    TOO_LARGE(false),
+    INVALID(false),
+    UNKNOWN(false);
+
+    private final boolean retryable;
+
+    RetryReason(boolean retryable) {
+        this.retryable = retryable;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
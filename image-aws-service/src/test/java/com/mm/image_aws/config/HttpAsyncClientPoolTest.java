@@ -0,0 +1,125 @@
+package com.mm.image_aws.config;
+
+import com.mm.image_aws.service.download.HttpPoolMetrics;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Kiểm tra giới hạn kết nối theo route và số liệu của HttpPoolMetrics với một server HTTP cục bộ (JDK HttpServer)
+ * giữ mọi request cho tới khi test cho phép trả lời.
+ */
+class HttpAsyncClientPoolTest {
+
+    private static final int REQUESTS_PER_HOST = 8;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger maxActive = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private CloseableHttpAsyncClient client;
+    private HttpPoolMetrics metrics;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Lắng nghe trên mọi địa chỉ để "localhost" và "127.0.0.1" là hai route khác nhau tới cùng server
+        server = HttpServer.create(new InetSocketAddress(0), 64);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                release.await(10, TimeUnit.SECONDS);
+                byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+                exchange.close();
+            }
+        });
+        server.start();
+
+        HttpClientProperties properties = new HttpClientProperties();
+        properties.setMaxConnTotal(20);
+        properties.setMaxConnPerRoute(2);
+        properties.setMaxConnPerHost(Map.of("127.0.0.1:" + port(), 4));
+        properties.setConnectionRequestTimeoutMs(10_000);
+        properties.setIoThreadCount(2);
+        metrics = new HttpPoolMetrics();
+        client = new AppConfig().httpAsyncClient(properties, metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        client.close(CloseMode.IMMEDIATE);
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void limitsConnectionsPerRouteAndReportsPendingLeases() throws Exception {
+        List<Future<SimpleHttpResponse>> responses = new ArrayList<>();
+        for (int i = 0; i < REQUESTS_PER_HOST; i++) {
+            responses.add(get("localhost", i));
+            responses.add(get("127.0.0.1", i));
+        }
+
+        // localhost dùng giới hạn mặc định (2), 127.0.0.1 có giới hạn riêng (4); các request còn lại chờ trong pool
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> {
+            assertThat(active.get()).isEqualTo(6);
+            assertThat(metrics.getLeasedConnections()).isEqualTo(6);
+            assertThat(metrics.getPendingLeases()).isEqualTo(2 * REQUESTS_PER_HOST - 6);
+        });
+        assertThat(metrics.getConnectionsPerHost()).containsEntry("localhost", 2).containsEntry("127.0.0.1", 4);
+
+        // Giữ thêm một lúc: không request nào được vượt giới hạn
+        Thread.sleep(200);
+        assertThat(maxActive.get()).isEqualTo(6);
+
+        release.countDown();
+        for (Future<SimpleHttpResponse> response : responses) {
+            assertThat(response.get(10, TimeUnit.SECONDS).getCode()).isEqualTo(200);
+        }
+
+        assertThat(maxActive.get()).isEqualTo(6);
+        assertThat(metrics.getLeaseCount()).isEqualTo(2 * REQUESTS_PER_HOST);
+        assertThat(metrics.getPendingLeases()).isZero();
+        // Các request phải chờ kết nối ít nhất 200 ms ở trên
+        assertThat(metrics.getMaxLeaseMillis()).isGreaterThanOrEqualTo(200);
+        assertThat(metrics.summary()).contains("leases=" + 2 * REQUESTS_PER_HOST, "pending=0");
+    }
+
+    private Future<SimpleHttpResponse> get(String host, int index) {
+        return client.execute(SimpleRequestBuilder.get("http://" + host + ":" + port() + "/image-" + index + ".jpg").build(), null);
+    }
+
+    private int port() {
+        return server.getAddress().getPort();
+    }
+}
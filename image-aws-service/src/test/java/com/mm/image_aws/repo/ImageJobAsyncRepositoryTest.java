@@ -0,0 +1,173 @@
+package com.mm.image_aws.repo;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class ImageJobAsyncRepositoryTest {
+
+    private static final String USERNAME = "alice";
+    private static final String JOB_ID = "job-1";
+    private static final int THREADS = 16;
+
+    private InMemoryDynamoDbAsyncClient dynamoDb;
+    private ImageJobAsyncRepository repository;
+    private ExecutorService callers;
+
+    @BeforeEach
+    void setUp() {
+        dynamoDb = new InMemoryDynamoDbAsyncClient();
+        repository = new ImageJobAsyncRepository(mock(DynamoDbEnhancedAsyncClient.class), dynamoDb, "images");
+        callers = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        callers.shutdownNow();
+        dynamoDb.close();
+    }
+
+    @Test
+    void concurrentAtomicAddsCountEveryImageExactlyOnce() throws Exception {
+        int callsPerThread = 50;
+        createJob(THREADS * callsPerThread * 2);
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < callsPerThread; i++) {
+                // Mỗi lần: 2 ảnh, trong đó 1 ảnh lỗi
+                repository.incrementProgress(USERNAME, JOB_ID, 2, 1).get(5, TimeUnit.SECONDS);
+            }
+        });
+
+        Map<String, AttributeValue> job = job();
+        assertThat(job.get("processedImages").n()).isEqualTo(String.valueOf(THREADS * callsPerThread * 2));
+        assertThat(job.get("failedImages").n()).isEqualTo(String.valueOf(THREADS * callsPerThread));
+        assertThat(job.get("status").s()).isEqualTo("COMPLETED");
+    }
+
+    @Test
+    void concurrentMessagesAreCountedExactlyOnce() throws Exception {
+        int messagesPerThread = 40;
+        int batchSize = 4;
+        createJob(THREADS * messagesPerThread * 3);
+
+        runConcurrently(thread -> {
+            for (int start = 0; start < messagesPerThread; start += batchSize) {
+                List<ImageJobAsyncRepository.MessageProgress> batch = new ArrayList<>();
+                for (int i = start; i < start + batchSize; i++) {
+                    batch.add(new ImageJobAsyncRepository.MessageProgress("m-" + thread + "-" + i, 3, 1));
+                }
+                repository.incrementProgressOnce(USERNAME, JOB_ID, batch).get(5, TimeUnit.SECONDS);
+            }
+        });
+
+        Map<String, AttributeValue> job = job();
+        assertThat(job.get("processedImages").n()).isEqualTo(String.valueOf(THREADS * messagesPerThread * 3));
+        assertThat(job.get("failedImages").n()).isEqualTo(String.valueOf(THREADS * messagesPerThread));
+        assertThat(job.get("status").s()).isEqualTo("COMPLETED");
+        assertThat(dynamoDb.countItemsWithPk("PROGRESS#" + JOB_ID)).isEqualTo(THREADS * messagesPerThread);
+    }
+
+    @Test
+    void redeliveredMessageIsNotCountedAgain() throws Exception {
+        createJob(100);
+        repository.incrementProgressOnce(USERNAME, JOB_ID, List.of(progress("m-1", 5, 1))).get(5, TimeUnit.SECONDS);
+
+        // SQS gửi lại m-1, một mình và cùng lô với message mới
+        repository.incrementProgressOnce(USERNAME, JOB_ID, List.of(progress("m-1", 5, 1))).get(5, TimeUnit.SECONDS);
+        repository.incrementProgressOnce(USERNAME, JOB_ID,
+                List.of(progress("m-2", 2, 0), progress("m-1", 5, 1), progress("m-3", 4, 2))).get(5, TimeUnit.SECONDS);
+
+        Map<String, AttributeValue> job = job();
+        assertThat(job.get("processedImages").n()).isEqualTo("11");
+        assertThat(job.get("failedImages").n()).isEqualTo("3");
+        assertThat(job.get("status").s()).isEqualTo("PROCESSING");
+    }
+
+    @Test
+    void concurrentRedeliveriesOfTheSameMessagesAreCountedOnce() throws Exception {
+        int messages = 20;
+        createJob(messages * 2);
+
+        // Mọi luồng cùng nhận lại toàn bộ message (ví dụ visibility timeout hết hạn nhiều lần)
+        runConcurrently(thread -> {
+            for (int i = 0; i < messages; i++) {
+                int id = (i + thread) % messages;
+                repository.incrementProgressOnce(USERNAME, JOB_ID, List.of(progress("m-" + id, 2, 0)))
+                        .get(5, TimeUnit.SECONDS);
+            }
+        });
+
+        Map<String, AttributeValue> job = job();
+        assertThat(job.get("processedImages").n()).isEqualTo(String.valueOf(messages * 2));
+        assertThat(job.get("status").s()).isEqualTo("COMPLETED");
+        assertThat(dynamoDb.countItemsWithPk("PROGRESS#" + JOB_ID)).isEqualTo(messages);
+    }
+
+    @Test
+    void missingJobFailsWithoutWritingMarkers() {
+        assertThatThrownBy(() -> repository.incrementProgressOnce(USERNAME, "missing-job", List.of(progress("m-1", 1, 0)))
+                .get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(ConditionalCheckFailedException.class);
+        assertThat(dynamoDb.countItemsWithPk("PROGRESS#missing-job")).isZero();
+    }
+
+    private interface Worker {
+        void run(int thread) throws Exception;
+    }
+
+    // Các luồng bắt đầu cùng lúc để các lệnh ghi chồng lên nhau
+    private void runConcurrently(Worker worker) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREADS; thread++) {
+            int index = thread;
+            futures.add(callers.submit(() -> {
+                start.await();
+                worker.run(index);
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+    }
+
+    private void createJob(int totalImages) {
+        dynamoDb.putItem(Map.of(
+                "PK", AttributeValue.builder().s("USER#" + USERNAME).build(),
+                "SK", AttributeValue.builder().s("JOB#" + JOB_ID).build(),
+                "status", AttributeValue.builder().s("PENDING").build(),
+                "totalImages", AttributeValue.builder().n(String.valueOf(totalImages)).build()));
+    }
+
+    private Map<String, AttributeValue> job() {
+        return dynamoDb.item(Map.of(
+                "PK", AttributeValue.builder().s("USER#" + USERNAME).build(),
+                "SK", AttributeValue.builder().s("JOB#" + JOB_ID).build()));
+    }
+
+    private static ImageJobAsyncRepository.MessageProgress progress(String messageId, int processed, int failed) {
+        return new ImageJobAsyncRepository.MessageProgress(messageId, processed, failed);
+    }
+}
@@ -0,0 +1,220 @@
+package com.mm.image_aws.repo;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+import software.amazon.awssdk.services.dynamodb.model.Update;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bảng DynamoDB trong bộ nhớ cho test: hỗ trợ đúng các lệnh ImageJobAsyncRepository dùng để cập nhật tiến độ
+ * (UpdateItem, GetItem, TransactWriteItems) và kiểm tra điều kiện giống DynamoDB:
+ * - ConditionExpression: attribute_exists / attribute_not_exists, so sánh = <> >= <= > < nối bằng AND.
+ * - UpdateExpression: ADD (cộng số, tạo thuộc tính nếu chưa có) và SET.
+ * - TransactWriteItems là nguyên tử: một điều kiện sai thì không item nào được ghi, và lỗi có lý do hủy theo từng item.
+ * Mỗi lệnh chạy trên luồng riêng (bất đồng bộ như SDK thật) nhưng được tuần tự hóa trên bảng.
+ */
+class InMemoryDynamoDbAsyncClient implements DynamoDbAsyncClient {
+
+    private static final Pattern COMPARISON = Pattern.compile("(\\S+)\\s*(<>|>=|<=|=|>|<)\\s*(\\S+)");
+    private static final Pattern FUNCTION = Pattern.compile("(attribute_exists|attribute_not_exists)\\((\\S+)\\)");
+    private static final Pattern SECTION = Pattern.compile("\\b(ADD|SET)\\s+(.*?)(?=\\s+\\b(?:ADD|SET)\\b|$)");
+
+    private final Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(8, runnable -> {
+        Thread thread = new Thread(runnable, "FakeDynamoDb");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    synchronized void putItem(Map<String, AttributeValue> item) {
+        items.put(keyOf(item), new HashMap<>(item));
+    }
+
+    synchronized Map<String, AttributeValue> item(Map<String, AttributeValue> key) {
+        Map<String, AttributeValue> item = items.get(keyOf(key));
+        return item == null ? null : new HashMap<>(item);
+    }
+
+    synchronized long countItemsWithPk(String pk) {
+        return items.values().stream().filter(item -> pk.equals(item.get("PK").s())).count();
+    }
+
+    @Override
+    public CompletableFuture<UpdateItemResponse> updateItem(UpdateItemRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (this) {
+                Map<String, AttributeValue> current = items.get(keyOf(request.key()));
+                if (!matches(request.conditionExpression(), current, request.expressionAttributeNames(),
+                        request.expressionAttributeValues())) {
+                    throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+                }
+                Map<String, AttributeValue> updated = applyUpdate(request.key(), current, request.updateExpression(),
+                        request.expressionAttributeNames(), request.expressionAttributeValues());
+                items.put(keyOf(request.key()), updated);
+                UpdateItemResponse.Builder response = UpdateItemResponse.builder();
+                if (request.returnValues() == ReturnValue.ALL_NEW) {
+                    response.attributes(new HashMap<>(updated));
+                }
+                return response.build();
+            }
+        }, executor);
+    }
+
+    @Override
+    public CompletableFuture<GetItemResponse> getItem(GetItemRequest request) {
+        return CompletableFuture.supplyAsync(() -> GetItemResponse.builder().item(item(request.key())).build(), executor);
+    }
+
+    @Override
+    public CompletableFuture<TransactWriteItemsResponse> transactWriteItems(TransactWriteItemsRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (this) {
+                List<CancellationReason> reasons = new ArrayList<>();
+                boolean canceled = false;
+                for (TransactWriteItem item : request.transactItems()) {
+                    boolean ok = item.update() != null ? check(item.update()) : check(item.put());
+                    reasons.add(CancellationReason.builder().code(ok ? "None" : "ConditionalCheckFailed").build());
+                    canceled |= !ok;
+                }
+                if (canceled) {
+                    throw TransactionCanceledException.builder()
+                            .message("Transaction cancelled, please refer cancellation reasons for specific reasons")
+                            .cancellationReasons(reasons)
+                            .build();
+                }
+                for (TransactWriteItem item : request.transactItems()) {
+                    if (item.update() != null) {
+                        Update update = item.update();
+                        items.put(keyOf(update.key()), applyUpdate(update.key(), items.get(keyOf(update.key())),
+                                update.updateExpression(), update.expressionAttributeNames(), update.expressionAttributeValues()));
+                    } else {
+                        items.put(keyOf(item.put().item()), new HashMap<>(item.put().item()));
+                    }
+                }
+                return TransactWriteItemsResponse.builder().build();
+            }
+        }, executor);
+    }
+
+    @Override
+    public String serviceName() {
+        return "dynamodb";
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private boolean check(Update update) {
+        return matches(update.conditionExpression(), items.get(keyOf(update.key())),
+                update.expressionAttributeNames(), update.expressionAttributeValues());
+    }
+
+    private boolean check(Put put) {
+        return matches(put.conditionExpression(), items.get(keyOf(put.item())),
+                put.expressionAttributeNames(), put.expressionAttributeValues());
+    }
+
+    private static boolean matches(String condition, Map<String, AttributeValue> item,
+                                   Map<String, String> names, Map<String, AttributeValue> values) {
+        if (condition == null) {
+            return true;
+        }
+        for (String clause : condition.split("\\s+AND\\s+")) {
+            Matcher function = FUNCTION.matcher(clause.trim());
+            if (function.matches()) {
+                boolean exists = item != null && item.containsKey(name(function.group(2), names));
+                if (exists != function.group(1).equals("attribute_exists")) {
+                    return false;
+                }
+                continue;
+            }
+            Matcher comparison = COMPARISON.matcher(clause.trim());
+            if (!comparison.matches()) {
+                throw new IllegalArgumentException("Unsupported condition: " + clause);
+            }
+            AttributeValue left = operand(comparison.group(1), item, names, values);
+            AttributeValue right = operand(comparison.group(3), item, names, values);
+            // Giống DynamoDB: so sánh với thuộc tính không tồn tại luôn sai
+            if (left == null || right == null || !compare(left, comparison.group(2), right)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean compare(AttributeValue left, String operator, AttributeValue right) {
+        int order = left.n() != null && right.n() != null
+                ? new BigDecimal(left.n()).compareTo(new BigDecimal(right.n()))
+                : String.valueOf(left.s()).compareTo(String.valueOf(right.s()));
+        return switch (operator) {
+            case "=" -> order == 0;
+            case "<>" -> order != 0;
+            case ">=" -> order >= 0;
+            case "<=" -> order <= 0;
+            case ">" -> order > 0;
+            default -> order < 0;
+        };
+    }
+
+    private static Map<String, AttributeValue> applyUpdate(Map<String, AttributeValue> key, Map<String, AttributeValue> current,
+                                                           String expression, Map<String, String> names,
+                                                           Map<String, AttributeValue> values) {
+        Map<String, AttributeValue> updated = current == null ? new HashMap<>(key) : new HashMap<>(current);
+        Matcher section = SECTION.matcher(expression);
+        while (section.find()) {
+            for (String action : section.group(2).split(",")) {
+                if (section.group(1).equals("ADD")) {
+                    String[] parts = action.trim().split("\\s+");
+                    String attribute = name(parts[0], names);
+                    BigDecimal base = updated.containsKey(attribute) ? new BigDecimal(updated.get(attribute).n()) : BigDecimal.ZERO;
+                    BigDecimal delta = new BigDecimal(values.get(parts[1]).n());
+                    updated.put(attribute, AttributeValue.builder().n(base.add(delta).toPlainString()).build());
+                } else {
+                    String[] parts = action.split("=");
+                    updated.put(name(parts[0].trim(), names), values.get(parts[1].trim()));
+                }
+            }
+        }
+        return updated;
+    }
+
+    private static AttributeValue operand(String token, Map<String, AttributeValue> item,
+                                          Map<String, String> names, Map<String, AttributeValue> values) {
+        if (token.startsWith(":")) {
+            return values.get(token);
+        }
+        return item == null ? null : item.get(name(token, names));
+    }
+
+    private static String name(String token, Map<String, String> names) {
+        return token.startsWith("#") ? names.get(token) : token;
+    }
+
+    private static String keyOf(Map<String, AttributeValue> item) {
+        return item.get("PK").s() + "|" + item.get("SK").s();
+    }
+}
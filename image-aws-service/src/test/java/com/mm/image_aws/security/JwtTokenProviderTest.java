@@ -0,0 +1,102 @@
+package com.mm.image_aws.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JwtTokenProviderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private KeyPair publishedKey;
+    private KeyPair otherKey;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        publishedKey = generator.generateKeyPair();
+        otherKey = generator.generateKeyPair();
+    }
+
+    @Test
+    void acceptsTokenWithoutKidSignedByTheOnlyPublishedKey() throws Exception {
+        // user-service công bố khóa có kid nhưng không ghi kid vào header của token
+        JwtTokenProvider provider = providerFor(List.of(jwk(publishedKey, "user-service-key")));
+
+        String token = token(publishedKey, null);
+
+        assertThat(provider.getUsernameFromJWT(token)).isEqualTo("alice");
+    }
+
+    @Test
+    void acceptsTokenWithMatchingKid() throws Exception {
+        JwtTokenProvider provider = providerFor(List.of(jwk(publishedKey, "key-1"), jwk(otherKey, "key-2")));
+
+        assertThat(provider.getUsernameFromJWT(token(otherKey, "key-2"))).isEqualTo("alice");
+    }
+
+    @Test
+    void rejectsTokenWithoutKidWhenSeveralKeysArePublished() throws Exception {
+        JwtTokenProvider provider = providerFor(List.of(jwk(publishedKey, "key-1"), jwk(otherKey, "key-2")));
+
+        assertThat(provider.validateToken(token(publishedKey, null))).isFalse();
+    }
+
+    @Test
+    void rejectsTokenSignedByAnotherKey() throws Exception {
+        JwtTokenProvider provider = providerFor(List.of(jwk(publishedKey, "user-service-key")));
+
+        assertThat(provider.validateToken(token(otherKey, null))).isFalse();
+    }
+
+    private JwtTokenProvider providerFor(List<String> jwks) throws Exception {
+        Path file = tempDir.resolve("jwks.json");
+        Files.writeString(file, "{\"keys\":[" + String.join(",", jwks) + "]}");
+        JwksKeyCache keyCache = new JwksKeyCache(file.toUri().toString(), 600, 60, 30);
+        return new JwtTokenProvider(keyCache, 100, 300);
+    }
+
+    private static String token(KeyPair keyPair, String kid) {
+        var builder = Jwts.builder()
+                .setSubject("alice")
+                .setIssuedAt(new Date())
+                .setExpiration(new Date(System.currentTimeMillis() + 60_000));
+        if (kid != null) {
+            builder.setHeaderParam("kid", kid);
+        }
+        return builder.signWith(keyPair.getPrivate(), SignatureAlgorithm.RS256).compact();
+    }
+
+    private static String jwk(KeyPair keyPair, String kid) {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        return List.of(
+                "\"kty\":\"RSA\"",
+                "\"use\":\"sig\"",
+                "\"alg\":\"RS256\"",
+                "\"kid\":\"" + kid + "\"",
+                "\"n\":\"" + base64Url(key.getModulus()) + "\"",
+                "\"e\":\"" + base64Url(key.getPublicExponent()) + "\""
+        ).stream().collect(Collectors.joining(",", "{", "}"));
+    }
+
+    private static String base64Url(BigInteger value) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.toByteArray());
+    }
+}
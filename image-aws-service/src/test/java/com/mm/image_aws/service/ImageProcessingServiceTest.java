@@ -0,0 +1,128 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.dto.DownloadedImage;
+import com.mm.image_aws.entity.ContentHashEntry;
+import com.mm.image_aws.entity.ImageMetadata;
+import com.mm.image_aws.repo.ImageJobAsyncRepository;
+import com.mm.image_aws.service.retry.RetryExecutor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageProcessingServiceTest {
+
+    private static final String JOB_ID = "job-1";
+    private static final String USERNAME = "alice";
+    private static final String SHA256 = "0f1e2d3c";
+
+    private final Executor directExecutor = Runnable::run;
+    private final Map<String, ContentHashEntry> contentHashes = new ConcurrentHashMap<>();
+
+    private ImageDownloaderService downloaderService;
+    private S3StorageService s3StorageService;
+    private MetadataWriteBuffer metadataWriteBuffer;
+    private JobProgressAggregator progressAggregator;
+    private ImageProcessingService imageProcessingService;
+
+    @BeforeEach
+    void setUp() {
+        AwsProperties awsProperties = new AwsProperties();
+        // Một ảnh mỗi lần để URL thứ hai đi qua nhánh trùng nội dung
+        awsProperties.getProcessing().setMaxParallelImages(1);
+
+        ImageJobAsyncRepository asyncRepository = mock(ImageJobAsyncRepository.class);
+        when(asyncRepository.findContentHash(anyString()))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(
+                        Optional.ofNullable(contentHashes.get(invocation.<String>getArgument(0)))));
+        when(asyncRepository.saveContentHashIfAbsent(any())).thenAnswer(invocation -> {
+            ContentHashEntry entry = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(contentHashes.putIfAbsent(entry.getSha256(), entry) == null);
+        });
+
+        downloaderService = mock(ImageDownloaderService.class);
+        s3StorageService = mock(S3StorageService.class);
+        when(s3StorageService.upload(anyString(), anyString(), any(byte[].class)))
+                .thenReturn(CompletableFuture.completedFuture(null));
+        when(s3StorageService.buildS3PublicUrl(anyString()))
+                .thenAnswer(invocation -> "https://cdn.example.com/" + invocation.getArgument(0));
+        ThumbnailService thumbnailService = mock(ThumbnailService.class);
+        when(thumbnailService.generateVariants(anyString(), any())).thenReturn(CompletableFuture.completedFuture(Map.of()));
+        metadataWriteBuffer = mock(MetadataWriteBuffer.class);
+        progressAggregator = mock(JobProgressAggregator.class);
+
+        imageProcessingService = new ImageProcessingService(downloaderService, s3StorageService,
+                new MetadataService(metadataWriteBuffer), new ContentDedupService(asyncRepository), thumbnailService,
+                progressAggregator, new RetryExecutor(awsProperties), awsProperties, directExecutor);
+    }
+
+    @Test
+    void urlsWithIdenticalContentGetTheirOwnMetadataRows() throws Exception {
+        byte[] content = pngBytes();
+        String firstUrl = "https://a.example.com/logo.png";
+        String secondUrl = "https://b.example.com/copy-of-logo.png";
+        when(downloaderService.downloadImage(anyString())).thenAnswer(invocation ->
+                CompletableFuture.completedFuture(new DownloadedImage(content, "image/png", SHA256, null, null, null)));
+
+        imageProcessingService.processImages("message-1", JOB_ID, USERNAME, List.of(firstUrl, secondUrl))
+                .get(5, TimeUnit.SECONDS);
+
+        ArgumentCaptor<ImageMetadata> saved = ArgumentCaptor.forClass(ImageMetadata.class);
+        verify(metadataWriteBuffer, atLeastOnce()).enqueue(saved.capture());
+        List<ImageMetadata> rows = saved.getAllValues();
+
+        assertThat(rows).extracting(ImageMetadata::getOriginalUrl).containsExactly(firstUrl, secondUrl);
+        assertThat(rows).extracting(ImageMetadata::getPk).containsOnly("JOB#" + JOB_ID);
+        assertThat(rows).extracting(ImageMetadata::getSk).doesNotHaveDuplicates();
+        // Hai dòng vẫn dùng chung một object S3
+        assertThat(rows).extracting(ImageMetadata::getS3Key).containsOnly(SHA256 + ".png");
+        verify(s3StorageService).upload(anyString(), anyString(), any(byte[].class));
+        verify(progressAggregator).record(USERNAME, JOB_ID, "message-1", 2, 0);
+    }
+
+    @Test
+    void redeliveredMessageRewritesTheSameRows() throws Exception {
+        // Lỗi không thử lại để test không phải chờ backoff
+        when(downloaderService.downloadImage(anyString())).thenReturn(
+                CompletableFuture.failedFuture(new IllegalArgumentException("not an image")));
+        List<String> urls = List.of("https://a.example.com/1.png", "https://a.example.com/2.png");
+
+        imageProcessingService.processImages("message-1", JOB_ID, USERNAME, urls).get(5, TimeUnit.SECONDS);
+        imageProcessingService.processImages("message-1", JOB_ID, USERNAME, urls).get(5, TimeUnit.SECONDS);
+
+        ArgumentCaptor<ImageMetadata> saved = ArgumentCaptor.forClass(ImageMetadata.class);
+        verify(metadataWriteBuffer, atLeastOnce()).enqueue(saved.capture());
+        List<String> keys = saved.getAllValues().stream().map(ImageMetadata::getSk).toList();
+
+        // Dòng lỗi không có s3Key nhưng vẫn có khóa riêng cho mỗi URL
+        assertThat(keys).hasSize(4);
+        assertThat(keys.subList(0, 2)).doesNotHaveDuplicates().doesNotContain("IMAGE#null");
+        assertThat(keys.subList(2, 4)).isEqualTo(keys.subList(0, 2));
+    }
+
+    private static byte[] pngBytes() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), "png", output);
+        return output.toByteArray();
+    }
+}
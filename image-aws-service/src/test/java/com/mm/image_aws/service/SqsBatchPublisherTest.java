@@ -0,0 +1,178 @@
+package com.mm.image_aws.service;
+
+import com.mm.image_aws.config.AwsProperties;
+import com.mm.image_aws.dto.EnqueueReport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResultEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SqsBatchPublisherTest {
+
+    private static final String JOB_ID = "job-1";
+
+    private SqsAsyncClient sqsClient;
+    private AwsProperties awsProperties;
+    private SqsBatchPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        sqsClient = mock(SqsAsyncClient.class);
+        awsProperties = new AwsProperties();
+        awsProperties.getSqs().setRetryBaseDelayMs(1);
+        publisher = new SqsBatchPublisher(sqsClient, awsProperties);
+        ReflectionTestUtils.setField(publisher, "queueUrl", "https://sqs.local/queue.fifo");
+    }
+
+    @Test
+    void sendsAtMostTenEntriesPerBatch() {
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(respond(invocation.getArgument(0), Set.of(), Set.of())));
+
+        EnqueueReport report = publisher.publish(JOB_ID, bodies(25, 100));
+
+        assertThat(sentBatchSizes(3)).containsExactlyInAnyOrder(10, 10, 5);
+        assertThat(report.getEnqueued()).isEqualTo(25);
+        assertThat(report.getFailed()).isZero();
+        assertThat(report.getBatches()).isEqualTo(3);
+    }
+
+    @Test
+    void splitsBatchesAt256KilobytesAndRejectsOversizedMessages() {
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(respond(invocation.getArgument(0), Set.of(), Set.of())));
+        // Hai message 100 KB vừa một lô, message thứ ba phải sang lô mới; message 300 KB không gửi được
+        List<String> bodies = new ArrayList<>(bodies(5, 100 * 1024));
+        bodies.add(2, "x".repeat(300 * 1024));
+
+        EnqueueReport report = publisher.publish(JOB_ID, bodies);
+
+        ArgumentCaptor<SendMessageBatchRequest> requests = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqsClient, times(3)).sendMessageBatch(requests.capture());
+        assertThat(requests.getAllValues()).allSatisfy(request -> assertThat(request.entries().stream()
+                .mapToInt(entry -> entry.messageBody().length()).sum()).isLessThanOrEqualTo(SqsBatchPublisher.MAX_BATCH_BYTES));
+        assertThat(requests.getAllValues()).extracting(request -> request.entries().size()).containsExactlyInAnyOrder(2, 2, 1);
+        assertThat(report.getEnqueued()).isEqualTo(5);
+        assertThat(report.getFailedIndexes()).containsExactly(2);
+    }
+
+    @Test
+    void retriesOnlyFailedEntriesAndNeverSenderFaults() {
+        // m8 lỗi phía SQS lần đầu, m9 bị từ chối do phía gửi
+        AtomicReference<Boolean> firstCall = new AtomicReference<>(true);
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> {
+            boolean first = firstCall.getAndSet(false);
+            return CompletableFuture.completedFuture(respond(invocation.getArgument(0),
+                    first ? Set.of("m8") : Set.of(), Set.of("m9")));
+        });
+
+        EnqueueReport report = publisher.publish(JOB_ID, bodies(10, 100));
+
+        ArgumentCaptor<SendMessageBatchRequest> requests = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqsClient, times(2)).sendMessageBatch(requests.capture());
+        SendMessageBatchRequestEntry firstM8 = entry(requests.getAllValues().get(0), "m8");
+        assertThat(requests.getAllValues().get(1).entries()).extracting(SendMessageBatchRequestEntry::id).containsExactly("m8");
+        // Cùng deduplication ID để SQS FIFO không nhận trùng nếu lần gửi đầu thực ra đã thành công
+        assertThat(requests.getAllValues().get(1).entries().get(0).messageDeduplicationId())
+                .isEqualTo(firstM8.messageDeduplicationId());
+        assertThat(report.getEnqueued()).isEqualTo(9);
+        assertThat(report.getRetriedEntries()).isEqualTo(1);
+        assertThat(report.getFailedIndexes()).containsExactly(9);
+    }
+
+    @Test
+    void reportsFailedIndexesAfterTheLastRetry() {
+        awsProperties.getSqs().setMaxRetries(2);
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class)))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(respond(invocation.getArgument(0), Set.of("m1"), Set.of())));
+
+        EnqueueReport report = publisher.publish(JOB_ID, bodies(3, 100));
+
+        verify(sqsClient, times(3)).sendMessageBatch(any(SendMessageBatchRequest.class));
+        assertThat(report.getEnqueued()).isEqualTo(2);
+        assertThat(report.getFailed()).isEqualTo(1);
+        assertThat(report.getFailedIndexes()).containsExactly(1);
+    }
+
+    @Test
+    void reportsUnsentBatchesWhenInterrupted() throws Exception {
+        awsProperties.getSqs().setMaxInFlightBatches(1);
+        CompletableFuture<SendMessageBatchResponse> firstResponse = new CompletableFuture<>();
+        AtomicReference<SendMessageBatchRequest> firstRequest = new AtomicReference<>();
+        when(sqsClient.sendMessageBatch(any(SendMessageBatchRequest.class))).thenAnswer(invocation -> {
+            firstRequest.set(invocation.getArgument(0));
+            return firstResponse;
+        });
+        AtomicReference<EnqueueReport> report = new AtomicReference<>();
+        Thread publishing = new Thread(() -> report.set(publisher.publish(JOB_ID, bodies(25, 100))));
+
+        // Luồng gửi chờ chỗ cho lô thứ hai trong khi lô đầu chưa có kết quả
+        publishing.start();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> firstRequest.get() != null);
+        publishing.interrupt();
+        firstResponse.complete(respond(firstRequest.get(), Set.of(), Set.of()));
+        publishing.join(5_000);
+
+        verify(sqsClient, times(1)).sendMessageBatch(any(SendMessageBatchRequest.class));
+        assertThat(report.get().getEnqueued()).isEqualTo(10);
+        assertThat(report.get().getFailed()).isEqualTo(15);
+        assertThat(report.get().getFailedIndexes()).containsExactlyElementsOf(
+                IntStream.range(10, 25).boxed().collect(Collectors.toList()));
+    }
+
+    private List<Integer> sentBatchSizes(int calls) {
+        ArgumentCaptor<SendMessageBatchRequest> requests = ArgumentCaptor.forClass(SendMessageBatchRequest.class);
+        verify(sqsClient, times(calls)).sendMessageBatch(requests.capture());
+        return requests.getAllValues().stream().map(request -> request.entries().size()).collect(Collectors.toList());
+    }
+
+    // Entry có id trong retryable lỗi phía SQS, trong senderFaults bị từ chối do phía gửi, còn lại thành công
+    private static SendMessageBatchResponse respond(SendMessageBatchRequest request, Set<String> retryable, Set<String> senderFaults) {
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (SendMessageBatchRequestEntry entry : request.entries()) {
+            if (retryable.contains(entry.id())) {
+                failed.add(BatchResultErrorEntry.builder().id(entry.id()).senderFault(false).code("InternalError").build());
+            } else if (senderFaults.contains(entry.id())) {
+                failed.add(BatchResultErrorEntry.builder().id(entry.id()).senderFault(true).code("InvalidMessageContents").build());
+            } else {
+                successful.add(SendMessageBatchResultEntry.builder().id(entry.id()).messageId("sqs-" + entry.id()).build());
+            }
+        }
+        return SendMessageBatchResponse.builder().successful(successful).failed(failed).build();
+    }
+
+    private static SendMessageBatchRequestEntry entry(SendMessageBatchRequest request, String id) {
+        return request.entries().stream().filter(entry -> entry.id().equals(id)).findFirst().orElseThrow();
+    }
+
+    private static List<String> bodies(int count, int size) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> String.join("", Collections.nCopies(size, "a")))
+                .collect(Collectors.toList());
+    }
+}
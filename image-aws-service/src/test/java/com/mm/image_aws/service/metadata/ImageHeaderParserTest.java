@@ -0,0 +1,135 @@
+package com.mm.image_aws.service.metadata;
+
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifIFD0Directory;
+import com.drew.metadata.gif.GifHeaderDirectory;
+import com.drew.metadata.jfif.JfifDirectory;
+import com.drew.metadata.jpeg.JpegDirectory;
+import com.drew.metadata.png.PngDirectory;
+import com.drew.metadata.webp.WebpDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * So sánh ImageHeaderParser với ImageMetadataReader (cách đọc đầy đủ mà MetadataService dùng khi không đọc được header)
+ * trên các file mẫu trong src/test/resources/images.
+ * Các file WebP 1x1 là ảnh thật; các file WebP kích thước lớn hơn chỉ được sửa trường kích thước trong header.
+ */
+class ImageHeaderParserTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "jfif-72dpi.jpg,     JPEG, 120, 80,  72",
+            "jfif-118dpcm.jpg,   JPEG, 33,  17,  300",
+            "exif-ii-300dpi.jpg, JPEG, 64,  96,  300",
+            "exif-mm-40dpcm.jpg, JPEG, 50,  50,  102",
+            "phys-96dpi.png,     PNG,  90,  60,  96",
+            "no-phys.png,        PNG,  17,  300, ",
+            "sample.gif,         GIF,  48,  31,  ",
+            "vp8-1x1.webp,       WEBP, 1,   1,   ",
+            "vp8-320x240.webp,   WEBP, 320, 240, ",
+            "vp8l-1x1.webp,      WEBP, 1,   1,   ",
+            "vp8l-300x200.webp,  WEBP, 300, 200, ",
+            "vp8x-1x1.webp,      WEBP, 1,   1,   ",
+            "vp8x-640x480.webp,  WEBP, 640, 480, "
+    })
+    void matchesMetadataExtractor(String file, String format, int width, int height, Integer dpi) throws Exception {
+        byte[] data = fixture(file);
+
+        ImageHeaderParser.HeaderInfo header = ImageHeaderParser.parse(data).orElseThrow();
+
+        assertThat(header).isEqualTo(new ImageHeaderParser.HeaderInfo(format, width, height, dpi));
+        assertThat(header).isEqualTo(readWithMetadataExtractor(format, data));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"jfif-72dpi.jpg", "exif-ii-300dpi.jpg", "phys-96dpi.png", "vp8-320x240.webp", "vp8x-640x480.webp"})
+    void truncatedHeaderFallsBackToTheFullReader(String file) throws Exception {
+        byte[] data = fixture(file);
+
+        // Cắt trước khi tới kích thước ảnh (SOF, IHDR, khung VP8/VP8X)
+        assertThat(ImageHeaderParser.parse(Arrays.copyOf(data, 20))).isEmpty();
+    }
+
+    @Test
+    void jpegCutInsideTheExifSegmentFallsBack() throws Exception {
+        byte[] data = fixture("exif-ii-300dpi.jpg");
+
+        assertThat(ImageHeaderParser.parse(Arrays.copyOf(data, 40))).isEmpty();
+    }
+
+    @Test
+    void unknownFormatFallsBack() {
+        assertThat(ImageHeaderParser.parse("not an image at all".getBytes())).isEmpty();
+        assertThat(ImageHeaderParser.parse(new byte[4])).isEmpty();
+    }
+
+    // Cùng quy tắc với MetadataService: DPI lấy từ JFIF, rồi EXIF IFD0, rồi pHYs của PNG
+    private static ImageHeaderParser.HeaderInfo readWithMetadataExtractor(String format, byte[] data) throws Exception {
+        Metadata metadata = ImageMetadataReader.readMetadata(new ByteArrayInputStream(data));
+        Integer width = null;
+        Integer height = null;
+        Integer dpi = null;
+        switch (format) {
+            case "JPEG" -> {
+                JpegDirectory jpeg = metadata.getFirstDirectoryOfType(JpegDirectory.class);
+                width = jpeg.getImageWidth();
+                height = jpeg.getImageHeight();
+            }
+            case "GIF" -> {
+                GifHeaderDirectory gif = metadata.getFirstDirectoryOfType(GifHeaderDirectory.class);
+                width = gif.getInteger(GifHeaderDirectory.TAG_IMAGE_WIDTH);
+                height = gif.getInteger(GifHeaderDirectory.TAG_IMAGE_HEIGHT);
+            }
+            case "WEBP" -> {
+                WebpDirectory webp = metadata.getFirstDirectoryOfType(WebpDirectory.class);
+                width = webp.getInteger(WebpDirectory.TAG_IMAGE_WIDTH);
+                height = webp.getInteger(WebpDirectory.TAG_IMAGE_HEIGHT);
+            }
+            default -> {
+                // Mỗi chunk PNG (IHDR, pHYs...) có một PngDirectory riêng
+                for (PngDirectory png : metadata.getDirectoriesOfType(PngDirectory.class)) {
+                    if (png.containsTag(PngDirectory.TAG_IMAGE_WIDTH)) {
+                        width = png.getInteger(PngDirectory.TAG_IMAGE_WIDTH);
+                        height = png.getInteger(PngDirectory.TAG_IMAGE_HEIGHT);
+                    }
+                    if (png.containsTag(PngDirectory.TAG_PIXELS_PER_UNIT_X)
+                            && Integer.valueOf(1).equals(png.getInteger(PngDirectory.TAG_UNIT_SPECIFIER))) {
+                        dpi = (int) Math.round(png.getInt(PngDirectory.TAG_PIXELS_PER_UNIT_X) * 0.0254);
+                    }
+                }
+            }
+        }
+
+        JfifDirectory jfif = metadata.getFirstDirectoryOfType(JfifDirectory.class);
+        ExifIFD0Directory exif = metadata.getFirstDirectoryOfType(ExifIFD0Directory.class);
+        if (jfif != null && jfif.containsTag(JfifDirectory.TAG_RESX) && jfif.getInt(JfifDirectory.TAG_RESX) > 0
+                && jfif.getInt(JfifDirectory.TAG_UNITS) != 0) {
+            int resX = jfif.getInt(JfifDirectory.TAG_RESX);
+            dpi = jfif.getInt(JfifDirectory.TAG_UNITS) == 1 ? resX : (int) Math.round(resX * 2.54);
+        } else if (exif != null && exif.containsTag(ExifIFD0Directory.TAG_X_RESOLUTION)) {
+            double xResolution = exif.getRational(ExifIFD0Directory.TAG_X_RESOLUTION).doubleValue();
+            int unit = exif.containsTag(ExifIFD0Directory.TAG_RESOLUTION_UNIT)
+                    ? exif.getInt(ExifIFD0Directory.TAG_RESOLUTION_UNIT) : 2;
+            dpi = (int) Math.round(unit == 3 ? xResolution * 2.54 : xResolution);
+        }
+        return new ImageHeaderParser.HeaderInfo(format, width, height, dpi);
+    }
+
+    private static byte[] fixture(String name) throws IOException {
+        try (InputStream input = ImageHeaderParserTest.class.getResourceAsStream("/images/" + name)) {
+            return Optional.ofNullable(input).orElseThrow(() -> new IOException("Missing fixture " + name)).readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.mm.user.repo;
+
+import com.mm.user.config.BulkOperationConfig;
+import com.mm.user.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thời gian UserRepository.saveAll ghi một lô import (1000 user) theo số làn BatchWriteItem song song.
+ * writeConcurrency = 1 tương ứng với cách ghi tuần tự trước đây.
+ *
+ * DynamoDB được thay bằng client giả có độ trễ mạng và tỉ lệ UnprocessedItems cấu hình được, không dùng DynamoDB Local:
+ * DynamoDB Local chạy cùng máy (không có độ trễ mạng) và không giới hạn throughput nên không bao giờ trả UnprocessedItems,
+ * trong khi lợi ích của saveAll đến từ việc chồng các lệnh chờ mạng lên nhau và chỉ gửi lại các item bị trả lại.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SaveAllBenchmark {
+
+    private static final int USERS = 1000;
+
+    @Param({"1", "4", "8"})
+    public int writeConcurrency;
+
+    @Param({"10"})
+    public long latencyMillis;
+
+    @Param({"0", "10"})
+    public int unprocessedPercent;
+
+    private UserRepository repository;
+    private List<User> users;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BulkOperationConfig config = new BulkOperationConfig();
+        config.setWriteConcurrency(writeConcurrency);
+        config.setWriteRetryBaseDelayMs(latencyMillis);
+        repository = new UserRepository(null, new LatencyDynamoDbAsyncClient(latencyMillis, unprocessedPercent), config);
+    }
+
+    @Setup(Level.Invocation)
+    public void newUsers() {
+        users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add(new User("user" + i, "user" + i + "@example.com", "$2a$10$hash"));
+        }
+    }
+
+    @Benchmark
+    public List<User> saveAll() {
+        return repository.saveAll(users).join();
+    }
+
+    /**
+     * BatchWriteItem trả kết quả sau latencyMillis, trả lại ngẫu nhiên unprocessedPercent % số item.
+     */
+    static final class LatencyDynamoDbAsyncClient implements DynamoDbAsyncClient {
+
+        private final long latencyMillis;
+        private final int unprocessedPercent;
+
+        LatencyDynamoDbAsyncClient(long latencyMillis, int unprocessedPercent) {
+            this.latencyMillis = latencyMillis;
+            this.unprocessedPercent = unprocessedPercent;
+        }
+
+        @Override
+        public CompletableFuture<BatchWriteItemResponse> batchWriteItem(BatchWriteItemRequest request) {
+            return CompletableFuture.supplyAsync(() -> {
+                Map<String, List<WriteRequest>> unprocessed = new HashMap<>();
+                request.requestItems().forEach((table, writes) -> {
+                    List<WriteRequest> returned = new ArrayList<>();
+                    for (WriteRequest write : writes) {
+                        if (ThreadLocalRandom.current().nextInt(100) < unprocessedPercent) {
+                            returned.add(write);
+                        }
+                    }
+                    if (!returned.isEmpty()) {
+                        unprocessed.put(table, returned);
+                    }
+                });
+                return BatchWriteItemResponse.builder().unprocessedItems(unprocessed).build();
+            }, CompletableFuture.delayedExecutor(latencyMillis, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public String serviceName() {
+            return "dynamodb";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.mm.user.service;
+
+import com.mm.user.config.BulkOperationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Số mật khẩu PasswordHashingService.encodeAll mã hóa được mỗi giây, theo work factor BCrypt và số luồng của
+ * importCpuExecutor. Mỗi lần gọi mã hóa một phần lô import gồm 32 mật khẩu khác nhau (không dùng lại hash).
+ * threads = 1 tương ứng với cách mã hóa tuần tự trước đây; strength 10 là mặc định.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PasswordHashingBenchmark {
+
+    private static final int PASSWORDS = 32;
+
+    @Param({"8", "10", "12"})
+    public int strength;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ExecutorService executor;
+    private PasswordHashingService service;
+    private List<String> passwords;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BulkOperationConfig config = new BulkOperationConfig();
+        config.setImportBcryptStrength(strength);
+        config.setCpuPoolSize(threads);
+        executor = Executors.newFixedThreadPool(threads);
+        service = new PasswordHashingService(config, executor);
+        passwords = new ArrayList<>(PASSWORDS);
+        for (int i = 0; i < PASSWORDS; i++) {
+            passwords.add("password-" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PASSWORDS)
+    public List<String> encodeAll() {
+        return service.encodeAll(passwords, service.newSession()).join();
+    }
+}
@@ -34,4 +34,22 @@ public class AsyncConfig {
         // Trả về đối tượng ExecutorService thực thi bên trong
         return executor.getThreadPoolExecutor();
     }
+
+    /**
+     * Executor cho các bước tốn CPU của import CSV (kiểm tra dữ liệu, mã hóa mật khẩu),
+     * tách khỏi taskExecutor vốn dành cho các lệnh gọi I/O tới DynamoDB.
+     * Số tác vụ chờ được giới hạn bởi maxInFlightBatches của CsvImportService nên hàng đợi không cần giới hạn.
+     */
+    @Bean(name = "importCpuExecutor")
+    public ExecutorService importCpuExecutor() {
+        int threads = bulkOperationConfig.getCpuPoolSize() > 0
+                ? bulkOperationConfig.getCpuPoolSize()
+                : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("ImportCpu-");
+        executor.initialize();
+        return executor.getThreadPoolExecutor();
+    }
 }
@@ -5,6 +5,7 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 import lombok.Data;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 
 
@@ -26,5 +27,31 @@ public class BulkOperationConfig {
     @Min(1)
     private int queueCapacity = 100; // Sức chứa của hàng đợi
 
+    @Min(1)
+    private int maxInFlightBatches = 8; // Số lô tối đa đang xử lý cùng lúc khi import CSV (backpressure cho bước đọc file)
+
+    @Min(0)
+    private int cpuPoolSize = 0; // Số luồng cho bước kiểm tra và mã hóa mật khẩu, 0 = số CPU
+
+    @Min(0)
+    private int maxFailedRecordDetails = 100; // Số dòng lỗi tối đa được trả về chi tiết
+
+    @Min(1)
+    private int writeConcurrency = 4; // Số lệnh BatchWriteItem (25 item) chạy song song cho mỗi lô
+
+    @Min(0)
+    private int writeMaxRetries = 8; // Số lần gửi lại các item DynamoDB trả về trong UnprocessedItems
+
+    @Min(1)
+    private long writeRetryBaseDelayMs = 50; // Thời gian chờ cơ sở (backoff theo cấp số nhân, có jitter)
+
+    @Min(4)
+    @Max(31)
+    private int importBcryptStrength = 10; // Work factor BCrypt cho mật khẩu khi import (mặc định giống đăng ký)
+
+    private boolean reuseIdenticalPasswordHashes = false; // Mã hóa mỗi mật khẩu giống nhau một lần trong một lần import
+
+    @Min(1)
+    private int passwordHashCacheMaxEntries = 10000; // Số hash tối đa được giữ lại khi bật reuseIdenticalPasswordHashes
 
 }
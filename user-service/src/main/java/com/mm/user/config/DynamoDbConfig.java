@@ -0,0 +1,26 @@
+package com.mm.user.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+
+@Configuration
+public class DynamoDbConfig {
+
+    @Value("${cloud.aws.region.static}")
+    private String awsRegion;
+
+    /**
+     * Client bất đồng bộ của SDK v2, dùng cho các thao tác ghi hàng loạt (BatchWriteItem) khi import user.
+     */
+    @Bean
+    public DynamoDbAsyncClient dynamoDbAsyncClient() {
+        return DynamoDbAsyncClient.builder()
+                .region(Region.of(awsRegion))
+                .credentialsProvider(DefaultCredentialsProvider.create())
+                .build();
+    }
+}
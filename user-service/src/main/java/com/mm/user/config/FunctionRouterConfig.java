@@ -1,25 +1,54 @@
 package com.mm.user.config;
 
+import com.amazonaws.services.lambda.runtime.Context;
 import com.mm.user.controller.AuthController;
 import com.mm.user.controller.CsvImportController;
 import com.mm.user.dto.LoginRequest;
 import com.mm.user.dto.SignUpRequest;
+import com.mm.user.security.JwtTokenProvider;
+import com.mm.user.service.ImportFileStore;
+import com.mm.user.service.ImportJobService;
+import com.mm.user.service.UniquenessBackfillService;
+import io.jsonwebtoken.Claims;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.Message;
 import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 @Configuration
 @RequiredArgsConstructor
 public class FunctionRouterConfig {
 
+    // Header mà FunctionInvoker dùng để truyền Context của lần gọi Lambda (AWSLambdaUtils.AWS_CONTEXT)
+    private static final String AWS_CONTEXT = "aws-context";
+
     private final AuthController authController;
     private final CsvImportController csvImportController;
+    private final ImportJobService importJobService;
+    private final ImportFileStore importFileStore;
+    private final JwtTokenProvider jwtTokenProvider;
+    private final UniquenessBackfillService uniquenessBackfillService;
 
     @Bean
     public Function<LoginRequest, ResponseEntity<?>> login() {
@@ -32,14 +61,112 @@ public class FunctionRouterConfig {
     }
 
     @Bean
-    public Function<Mono<MultipartFile>, CompletableFuture<ResponseEntity<?>>> importUsers() {
-        // Bọc lệnh gọi controller để xử lý Mono
-        return mono -> mono.flatMap(file -> {
+    public Function<Mono<Message<MultipartFile>>, CompletableFuture<ResponseEntity<?>>> importUsers() {
+        // Bọc lệnh gọi controller để xử lý Mono; controller chỉ tạo import job nên trả về ngay
+        return mono -> mono.<ResponseEntity<?>>map(message -> withPrincipal(message,
+                principal -> csvImportController.importUsers(message.getPayload(), principal))).toFuture();
+    }
+
+    @Bean
+    public Function<Message<String>, ResponseEntity<?>> importJobStatus() {
+        return message -> withPrincipal(message, principal -> csvImportController.getImportJob(message.getPayload(), principal));
+    }
+
+    /**
+     * File CSV các dòng lỗi của job, trả về dưới dạng text vì response của Lambda không stream được
+     * (và bị giới hạn 6 MB).
+     */
+    @Bean
+    public Function<Message<String>, ResponseEntity<?>> importFailedRows() {
+        return message -> withPrincipal(message, principal -> {
             try {
-                return Mono.fromCompletionStage(csvImportController.importUsers(file));
-            } catch (Exception e) {
-                return Mono.<ResponseEntity<?>>error(e);
+                Optional<InputStream> failedRows = importJobService.openFailedRows(message.getPayload(), principal.getName());
+                if (failedRows.isEmpty()) {
+                    return ResponseEntity.notFound().build();
+                }
+                try (InputStream input = failedRows.get()) {
+                    return ResponseEntity.ok()
+                            .contentType(MediaType.parseMediaType("text/csv"))
+                            .body(new String(input.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Worker import: được kích hoạt bởi sự kiện S3 ObjectCreated khi file CSV của một import job được lưu
+     * vào staging bucket, và chạy import trong chính lần gọi Lambda này.
+     * Thời gian còn lại của lần gọi được truyền cho ImportJobService, để job được ghi FAILED trước khi Lambda hết giờ.
+     */
+    @Bean
+    public Consumer<Message<Map<String, Object>>> processImport() {
+        return message -> {
+            Object context = message.getHeaders().get(AWS_CONTEXT);
+            for (String key : objectKeys(message.getPayload())) {
+                importFileStore.jobIdFromInputKey(key).ifPresent(jobId -> {
+                    if (context instanceof Context lambdaContext) {
+                        importJobService.runJob(jobId, lambdaContext.getRemainingTimeInMillis());
+                    } else {
+                        importJobService.runJob(jobId);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Backfill bảng user_uniqueness từ bảng users. Input: {"startId": "..."} (tùy chọn, lấy từ lần gọi trước).
+     */
+    @Bean
+    public Function<Map<String, String>, Map<String, Object>> backfillUserUniqueness() {
+        return event -> {
+            UniquenessBackfillService.Result result = uniquenessBackfillService.backfill(event == null ? null : event.get("startId"));
+            Map<String, Object> response = new HashMap<>();
+            response.put("claimed", result.claimed());
+            response.put("nextStartId", result.nextStartId());
+            return response;
+        };
+    }
+
+    // Lời gọi qua Lambda không đi qua filter chain của Spring Security, nên token được xác minh ở đây
+    private ResponseEntity<?> withPrincipal(Message<?> message, Function<Principal, ResponseEntity<?>> action) {
+        String username = authenticatedUsername(message);
+        if (username == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return action.apply(() -> username);
+    }
+
+    // Giống JwtAuthenticationFilter: header "Authorization: Bearer <token>" (API Gateway có thể giữ nguyên chữ thường)
+    private String authenticatedUsername(Message<?> message) {
+        Object header = message.getHeaders().get(HttpHeaders.AUTHORIZATION);
+        if (header == null) {
+            header = message.getHeaders().get("authorization");
+        }
+        if (header instanceof String bearerToken && bearerToken.startsWith("Bearer ")) {
+            Claims claims = jwtTokenProvider.parseClaims(bearerToken.substring(7));
+            return claims == null ? null : claims.getSubject();
+        }
+        return null;
+    }
+
+    // Lấy Records[].s3.object.key từ sự kiện S3 (key được URL-encode trong sự kiện)
+    private static List<String> objectKeys(Map<String, Object> event) {
+        List<String> keys = new ArrayList<>();
+        Object records = event.get("Records");
+        if (!(records instanceof List<?> list)) {
+            return keys;
+        }
+        for (Object record : list) {
+            if (record instanceof Map<?, ?> recordMap
+                    && recordMap.get("s3") instanceof Map<?, ?> s3
+                    && s3.get("object") instanceof Map<?, ?> object
+                    && object.get("key") instanceof String key) {
+                keys.add(URLDecoder.decode(key, StandardCharsets.UTF_8));
             }
-        }).toFuture();
+        }
+        return keys;
     }
-}
\ No newline at end of file
+}
@@ -61,7 +61,6 @@ public class SecurityConfig {
                 // Phân quyền cho các request
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/api/auth/**").permitAll()
-                        .requestMatchers("/api/import/**").permitAll() // Tạm thời cho phép tất cả để test
                         .anyRequest().authenticated()
                 );
 
@@ -5,6 +5,7 @@ import com.mm.user.dto.LoginRequest;
 import com.mm.user.dto.SignUpRequest;
 import com.mm.user.entity.User;
 import com.mm.user.repo.UserRepository;
+import com.mm.user.repo.UserUniquenessRepository;
 import com.mm.user.security.JwtTokenProvider;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -21,6 +22,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 
+import java.util.List;
 import java.util.Set;
 
 @RestController
@@ -30,6 +32,7 @@ public class AuthController {
 
     private final AuthenticationManager authenticationManager;
     private final UserRepository userRepository;
+    private final UserUniquenessRepository uniquenessRepository;
     private final PasswordEncoder passwordEncoder;
     private final JwtTokenProvider tokenProvider;
 
@@ -62,7 +65,25 @@ public class AuthController {
         // Gán quyền mặc định là "ROLE_USER"
         user.setRoles(Set.of("ROLE_USER"));
 
-        userRepository.save(user);
+        // Giữ chỗ trong bảng user_uniqueness: chặn hai request (hoặc một lần import) cùng tạo một username/email
+        UserUniquenessRepository.Claim claim = UserUniquenessRepository.Claim.of(user);
+        UserUniquenessRepository.Outcome outcome = uniquenessRepository.claimAll(List.of(claim)).join().get(0);
+        if (outcome == UserUniquenessRepository.Outcome.USERNAME_TAKEN) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Error: Username is already taken!");
+        }
+        if (outcome == UserUniquenessRepository.Outcome.EMAIL_TAKEN) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Error: Email is already in use!");
+        }
+        if (outcome != UserUniquenessRepository.Outcome.CLAIMED) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body("Error: Could not register user, please try again.");
+        }
+
+        try {
+            userRepository.save(user);
+        } catch (RuntimeException e) {
+            uniquenessRepository.release(List.of(claim));
+            throw e;
+        }
 
         return ResponseEntity.ok("User registered successfully!");
     }
@@ -1,17 +1,24 @@
 package com.mm.user.controller;
 
 import com.mm.user.dto.BulkSignUpResponse;
-import com.mm.user.service.CsvImportService;
+import com.mm.user.dto.ImportJobResponse;
+import com.mm.user.service.ImportJobService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.util.concurrent.CompletableFuture;
+import java.io.IOException;
+import java.net.URI;
+import java.security.Principal;
 
 @Slf4j
 @RestController
@@ -19,59 +26,66 @@ import java.util.concurrent.CompletableFuture;
 @RequiredArgsConstructor
 public class CsvImportController {
 
-    private final CsvImportService csvImportService;
+    private final ImportJobService importJobService;
 
     /**
-     * Endpoint để tải lên và xử lý file CSV người dùng một cách bất đồng bộ.
-     * Kết hợp ưu điểm của cả hai phiên bản:
-     * 1. Controller trả về CompletableFuture để xử lý bất đồng bộ hoàn toàn.
-     * 2. Phản hồi có cấu trúc với DTO (BulkSignUpResponse).
-     * 3. Validation file đầy đủ.
-     * 4. Xử lý file theo dòng (streaming) để tiết kiệm bộ nhớ (logic nằm trong CsvImportService).
+     * Endpoint để tải lên file CSV người dùng.
+     * File chỉ được kiểm tra và lưu lại, việc import chạy nền (ImportJobService), nên request trả về ngay
+     * với mã 202 và jobId để client hỏi tiến độ qua GET /api/import/users/{jobId}.
      *
      * @param file File CSV được tải lên.
-     * @return Một CompletableFuture chứa kết quả xử lý.
+     * @param principal Người tải file lên, trở thành chủ của import job.
+     * @return Trạng thái ban đầu (PENDING) của import job.
      */
     @PostMapping("/users")
-    public CompletableFuture<ResponseEntity<BulkSignUpResponse>> importUsers(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> importUsers(@RequestParam("file") MultipartFile file, Principal principal) {
         // Validation file đầu vào
         if (file.isEmpty()) {
             log.warn("Upload request received with an empty file.");
-            return CompletableFuture.completedFuture(
-                ResponseEntity.badRequest().body(new BulkSignUpResponse("File is empty. Please select a CSV file to upload."))
-            );
+            return ResponseEntity.badRequest().body(new BulkSignUpResponse("File is empty. Please select a CSV file to upload."));
         }
 
         String contentType = file.getContentType();
         String filename = file.getOriginalFilename();
         if (contentType == null || (!contentType.equals("text/csv") && (filename == null || !filename.toLowerCase().endsWith(".csv")))) {
             log.warn("Upload request received with an invalid file type: {}", contentType);
-            return CompletableFuture.completedFuture(
-                ResponseEntity.badRequest().body(new BulkSignUpResponse("Invalid file type. Only CSV files are allowed."))
-            );
+            return ResponseEntity.badRequest().body(new BulkSignUpResponse("Invalid file type. Only CSV files are allowed."));
         }
 
         try {
-            log.info("Received request to import users from file: {}. Starting asynchronous processing.", filename);
-            // Truyền trực tiếp đối tượng MultipartFile vào service để xử lý streaming
-            // Service sẽ trả về một CompletableFuture<BulkSignUpResponse>
-            return csvImportService.processCsvFile(file)
-                    .thenApply(ResponseEntity::ok) // Khi future hoàn thành, gói kết quả vào ResponseEntity.ok()
-                    .exceptionally(ex -> {
-                        // Nếu có lỗi xảy ra trong quá trình xử lý bất đồng bộ
-                        log.error("Error processing CSV file asynchronously", ex);
-                        return ResponseEntity.internalServerError().body(
-                            new BulkSignUpResponse("An unexpected error occurred: " + ex.getMessage())
-                        );
-                    });
+            log.info("Received request to import users from file: {}. Creating import job.", filename);
+            ImportJobResponse job = importJobService.submit(file, principal.getName());
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/import/users/" + job.getJobId()))
+                    .body(job);
         } catch (Exception e) {
-            // Bắt các lỗi có thể xảy ra ngay lập tức (ví dụ: lỗi cấu hình)
-            log.error("Error initiating CSV file processing", e);
-            return CompletableFuture.completedFuture(
-                ResponseEntity.internalServerError().body(
+            log.error("Error creating import job", e);
+            return ResponseEntity.internalServerError().body(
                     new BulkSignUpResponse("Error initiating file processing: " + e.getMessage())
-                )
             );
         }
     }
+
+    /**
+     * Tiến độ của import job: số dòng đã đọc, đã lưu, bị lỗi và tốc độ xử lý.
+     * Job của người khác trả về 404 giống job không tồn tại.
+     */
+    @GetMapping("/users/{jobId}")
+    public ResponseEntity<ImportJobResponse> getImportJob(@PathVariable String jobId, Principal principal) {
+        return importJobService.getJob(jobId, principal.getName())
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Tải file CSV các dòng lỗi (line, reason) của import job đã kết thúc.
+     */
+    @GetMapping(value = "/users/{jobId}/failed-rows", produces = "text/csv")
+    public ResponseEntity<InputStreamResource> getFailedRows(@PathVariable String jobId, Principal principal) throws IOException {
+        return importJobService.openFailedRows(jobId, principal.getName())
+                .map(input -> ResponseEntity.ok()
+                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"failed-rows-" + jobId + ".csv\"")
+                        .body(new InputStreamResource(input)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 }
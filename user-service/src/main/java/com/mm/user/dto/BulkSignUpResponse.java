@@ -16,6 +16,7 @@ public class BulkSignUpResponse {
     private long successfulCount;
     private long failedCount;
     private List<String> failedRecordDetails; // Danh sách chi tiết các dòng bị lỗi
+    private List<ImportStageStats> stageStats; // Thông lượng của từng bước trong pipeline import
 
     public BulkSignUpResponse(String summaryMessage) {
         this.summaryMessage = summaryMessage;
@@ -0,0 +1,7 @@
+package com.mm.user.dto;
+
+/**
+ * Một dòng dữ liệu của file CSV cùng số dòng trong file, để báo lỗi theo dòng.
+ */
+public record CsvUserRow(long lineNumber, SignUpRequest request) {
+}
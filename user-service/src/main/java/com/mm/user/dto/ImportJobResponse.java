@@ -0,0 +1,26 @@
+package com.mm.user.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Trạng thái và tiến độ của một import job, trả về khi tạo job và khi client hỏi tiến độ.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportJobResponse {
+
+    private String jobId;
+    private String status;
+    private long parsedRows;
+    private long persistedRows;
+    private long failedRows;
+    private double rowsPerSecond;
+    private String message;
+    private String createdAt;
+    private String updatedAt;
+}
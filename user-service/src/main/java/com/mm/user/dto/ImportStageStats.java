@@ -0,0 +1,21 @@
+package com.mm.user.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Thông lượng của một bước trong pipeline import CSV.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportStageStats {
+
+    private String stage;
+    private long rows;
+    private long busyMillis; // Tổng thời gian làm việc của mọi luồng trong bước này
+    private double rowsPerSecond; // Số dòng / thời gian từ lúc bước bắt đầu đến lúc kết thúc
+}
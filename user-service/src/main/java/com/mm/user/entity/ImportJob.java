@@ -0,0 +1,67 @@
+package com.mm.user.entity;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBAttribute;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBHashKey;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Tiến độ của một lần import user từ CSV, được cập nhật định kỳ trong lúc import chạy.
+ * Các trường số dùng kiểu bọc để lệnh cập nhật tiến độ có thể bỏ qua trường null.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@DynamoDBTable(tableName = "user_import_jobs")
+public class ImportJob {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    @DynamoDBHashKey
+    private String jobId;
+
+    // Username của người tạo job; chỉ người này được xem tiến độ và tải file các dòng lỗi
+    @DynamoDBAttribute
+    private String owner;
+
+    @DynamoDBAttribute
+    private String status;
+
+    @DynamoDBAttribute
+    private String fileName;
+
+    @DynamoDBAttribute
+    private Long parsedRows;
+
+    @DynamoDBAttribute
+    private Long persistedRows;
+
+    @DynamoDBAttribute
+    private Long failedRows;
+
+    @DynamoDBAttribute
+    private Double rowsPerSecond;
+
+    @DynamoDBAttribute
+    private String message;
+
+    @DynamoDBAttribute
+    private String createdAt;
+
+    @DynamoDBAttribute
+    private String updatedAt;
+
+    // Hạn (epoch mili giây) của job đang RUNNING, được gia hạn mỗi lần worker ghi tiến độ.
+    // Job RUNNING đã quá hạn nghĩa là worker đã dừng (crash, hết thời gian Lambda) mà không ghi kết quả
+    @DynamoDBAttribute
+    private Long leaseExpiresAt;
+
+    // Thời điểm (epoch giây) DynamoDB TTL xóa bản ghi
+    @DynamoDBAttribute
+    private Long expiresAt;
+}
@@ -0,0 +1,86 @@
+package com.mm.user.repo;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapperConfig;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBSaveExpression;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.ComparisonOperator;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
+import com.amazonaws.services.dynamodbv2.model.ExpectedAttributeValue;
+import com.mm.user.entity.ImportJob;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public class ImportJobRepository {
+
+    // Chỉ ghi các thuộc tính khác null, để cập nhật tiến độ không xóa các trường khác của job
+    private static final DynamoDBMapperConfig UPDATE_NON_NULL = DynamoDBMapperConfig.builder()
+            .withSaveBehavior(DynamoDBMapperConfig.SaveBehavior.UPDATE_SKIP_NULL_ATTRIBUTES)
+            .build();
+
+    private final DynamoDBMapper dynamoDBMapper;
+
+    public ImportJobRepository(DynamoDBMapper dynamoDBMapper) {
+        this.dynamoDBMapper = dynamoDBMapper;
+    }
+
+    public ImportJob save(ImportJob job) {
+        dynamoDBMapper.save(job);
+        return job;
+    }
+
+    public void update(ImportJob changes) {
+        dynamoDBMapper.save(changes, UPDATE_NON_NULL);
+    }
+
+    /**
+     * Chuyển job từ PENDING sang RUNNING bằng một lệnh ghi có điều kiện.
+     * @param leaseExpiresAt Hạn đầu tiên của job (epoch mili giây), được gia hạn khi ghi tiến độ.
+     * @return false nếu job không tồn tại hoặc đã được luồng/worker khác bắt đầu.
+     */
+    public boolean markRunning(String jobId, String updatedAt, long leaseExpiresAt) {
+        ImportJob changes = new ImportJob();
+        changes.setJobId(jobId);
+        changes.setStatus(ImportJob.STATUS_RUNNING);
+        changes.setUpdatedAt(updatedAt);
+        changes.setLeaseExpiresAt(leaseExpiresAt);
+        DynamoDBSaveExpression onlyIfPending = new DynamoDBSaveExpression()
+                .withExpectedEntry("status", new ExpectedAttributeValue(new AttributeValue(ImportJob.STATUS_PENDING)));
+        try {
+            dynamoDBMapper.save(changes, onlyIfPending, UPDATE_NON_NULL);
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Đánh dấu FAILED một job RUNNING có hạn đã qua (worker đã dừng mà không ghi kết quả).
+     * Điều kiện được kiểm tra trong lệnh ghi, nên job vừa được gia hạn hoặc đã kết thúc không bị sửa.
+     * @return false nếu job không còn RUNNING hoặc hạn chưa qua.
+     */
+    public boolean markFailedIfLeaseExpired(String jobId, long now, String message, String updatedAt) {
+        ImportJob changes = new ImportJob();
+        changes.setJobId(jobId);
+        changes.setStatus(ImportJob.STATUS_FAILED);
+        changes.setMessage(message);
+        changes.setUpdatedAt(updatedAt);
+        DynamoDBSaveExpression onlyIfExpired = new DynamoDBSaveExpression()
+                .withExpectedEntry("status", new ExpectedAttributeValue(new AttributeValue(ImportJob.STATUS_RUNNING)))
+                .withExpectedEntry("leaseExpiresAt", new ExpectedAttributeValue()
+                        .withComparisonOperator(ComparisonOperator.LT)
+                        .withAttributeValueList(new AttributeValue().withN(String.valueOf(now))));
+        try {
+            dynamoDBMapper.save(changes, onlyIfExpired, UPDATE_NON_NULL);
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    public Optional<ImportJob> findById(String jobId) {
+        return Optional.ofNullable(dynamoDBMapper.load(ImportJob.class, jobId));
+    }
+}
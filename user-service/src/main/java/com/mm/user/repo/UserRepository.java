@@ -2,22 +2,55 @@ package com.mm.user.repo;
 
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
 import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBQueryExpression;
-import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBScanExpression;
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBTable;
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.mm.user.config.BulkOperationConfig;
 import com.mm.user.entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Repository
 public class UserRepository {
 
+    private static final Logger logger = LoggerFactory.getLogger(UserRepository.class);
+
+    public static final int MAX_BATCH_WRITE_ITEMS = 25;
+
     private final DynamoDBMapper dynamoDBMapper;
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final BulkOperationConfig bulkOperationConfig;
+    private final String tableName;
 
-    public UserRepository(DynamoDBMapper dynamoDBMapper) {
+    public UserRepository(DynamoDBMapper dynamoDBMapper, DynamoDbAsyncClient dynamoDbAsyncClient,
+                          BulkOperationConfig bulkOperationConfig) {
         this.dynamoDBMapper = dynamoDBMapper;
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        this.bulkOperationConfig = bulkOperationConfig;
+        this.tableName = User.class.getAnnotation(DynamoDBTable.class).tableName();
     }
 
     public User save(User user) {
@@ -25,9 +58,135 @@ public class UserRepository {
         return user;
     }
 
+    /**
+     * Lưu nhiều user bằng BatchWriteItem của SDK v2 (async): chia thành các lô 25 item,
+     * tối đa writeConcurrency lô chạy song song, và gửi lại UnprocessedItems với backoff có jitter.
+     * Cả lô chỉ được gửi lại khi bị throttle hoặc lỗi 5xx; các lỗi khác làm cả lô thất bại ngay.
+     * Giống DynamoDBMapper, id được tạo (UUID) nếu user chưa có.
+     *
+     * @return Future chứa các user không lưu được sau khi đã thử lại hết số lần cho phép.
+     */
+    public CompletableFuture<List<User>> saveAll(List<User> users) {
+        List<List<User>> chunks = new ArrayList<>();
+        for (int start = 0; start < users.size(); start += MAX_BATCH_WRITE_ITEMS) {
+            chunks.add(users.subList(start, Math.min(start + MAX_BATCH_WRITE_ITEMS, users.size())));
+        }
+        Queue<List<User>> pending = new ConcurrentLinkedQueue<>(chunks);
+        List<User> failed = Collections.synchronizedList(new ArrayList<>());
+
+        // Mỗi "làn" lần lượt lấy lô tiếp theo trong hàng đợi, nên số lệnh đang chạy không vượt quá số làn
+        int lanes = Math.max(1, Math.min(bulkOperationConfig.getWriteConcurrency(), chunks.size()));
+        CompletableFuture<?>[] laneFutures = new CompletableFuture[lanes];
+        for (int i = 0; i < lanes; i++) {
+            laneFutures[i] = runLane(pending, failed);
+        }
+        return CompletableFuture.allOf(laneFutures).thenApply(ignored -> new ArrayList<>(failed));
+    }
+
+    private CompletableFuture<Void> runLane(Queue<List<User>> pending, List<User> failed) {
+        List<User> chunk = pending.poll();
+        if (chunk == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, User> byId = new LinkedHashMap<>();
+        for (User user : chunk) {
+            if (user.getId() == null) {
+                user.setId(UUID.randomUUID().toString());
+            }
+            byId.put(user.getId(), user);
+        }
+        return writeWithRetry(byId, 0)
+                .thenAccept(failed::addAll)
+                .thenCompose(ignored -> runLane(pending, failed));
+    }
+
+    private CompletableFuture<List<User>> writeWithRetry(Map<String, User> byId, int attempt) {
+        List<WriteRequest> writes = byId.values().stream()
+                .map(user -> WriteRequest.builder().putRequest(PutRequest.builder().item(toItem(user)).build()).build())
+                .collect(Collectors.toList());
+        BatchWriteItemRequest request = BatchWriteItemRequest.builder()
+                .requestItems(Map.of(tableName, writes))
+                .build();
+
+        return dynamoDbAsyncClient.batchWriteItem(request)
+                .handle((response, throwable) -> {
+                    Map<String, User> remaining;
+                    if (throwable != null) {
+                        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                                ? throwable.getCause() : throwable;
+                        if (!isRetryable(cause)) {
+                            // Lỗi của chính request (ví dụ ValidationException): gửi lại vẫn lỗi
+                            logger.error("BatchWriteItem failed with a non-retryable error for {} users: {}", byId.size(), cause.getMessage());
+                            return CompletableFuture.completedFuture(List.copyOf(byId.values()));
+                        }
+                        logger.warn("BatchWriteItem failed (attempt {}): {}", attempt + 1, cause.getMessage());
+                        remaining = byId;
+                    } else {
+                        remaining = new LinkedHashMap<>();
+                        for (WriteRequest unprocessed : response.unprocessedItems().getOrDefault(tableName, List.of())) {
+                            String id = unprocessed.putRequest().item().get("id").s();
+                            remaining.put(id, byId.get(id));
+                        }
+                    }
+                    if (remaining.isEmpty()) {
+                        return CompletableFuture.completedFuture(List.<User>of());
+                    }
+                    if (attempt >= bulkOperationConfig.getWriteMaxRetries()) {
+                        logger.error("Giving up on {} users after {} BatchWriteItem attempts.", remaining.size(), attempt + 1);
+                        return CompletableFuture.completedFuture(List.copyOf(remaining.values()));
+                    }
+                    long maxDelay = bulkOperationConfig.getWriteRetryBaseDelayMs() << Math.min(attempt, 10);
+                    long delay = ThreadLocalRandom.current().nextLong(maxDelay + 1);
+                    return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> writeWithRetry(remaining, attempt + 1));
+                })
+                .thenCompose(future -> future);
+    }
+
+    // Chỉ thử lại khi bị giới hạn throughput hoặc DynamoDB lỗi phía server
+    private static boolean isRetryable(Throwable cause) {
+        return cause instanceof AwsServiceException serviceException
+                && (serviceException.isThrottlingException() || serviceException.statusCode() >= 500);
+    }
+
+    /**
+     * Một trang Scan của bảng users (chỉ id, username, email), dùng để backfill bảng user_uniqueness.
+     *
+     * @param startId id của item cuối cùng ở trang trước, hoặc null để bắt đầu từ đầu bảng.
+     */
+    public ScanResultPage<User> scanPage(String startId, int limit) {
+        DynamoDBScanExpression scanExpression = new DynamoDBScanExpression()
+                .withLimit(limit)
+                .withProjectionExpression("id, username, email");
+        if (startId != null) {
+            scanExpression.setExclusiveStartKey(Map.of("id",
+                    new com.amazonaws.services.dynamodbv2.model.AttributeValue().withS(startId)));
+        }
+        return dynamoDBMapper.scanPage(User.class, scanExpression);
+    }
+
+    // Chuyển User thành item theo cùng tên thuộc tính mà DynamoDBMapper dùng
+    private static Map<String, AttributeValue> toItem(User user) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("id", AttributeValue.builder().s(user.getId()).build());
+        putString(item, "username", user.getUsername());
+        putString(item, "email", user.getEmail());
+        putString(item, "password", user.getPassword());
+        if (user.getRoles() != null && !user.getRoles().isEmpty()) {
+            item.put("roles", AttributeValue.builder().ss(user.getRoles()).build());
+        }
+        return item;
+    }
+
+    private static void putString(Map<String, AttributeValue> item, String name, String value) {
+        if (value != null) {
+            item.put(name, AttributeValue.builder().s(value).build());
+        }
+    }
+
     private Optional<User> findByAttribute(String indexName, String attributeName, String attributeValue) {
-        Map<String, AttributeValue> eav = new HashMap<>();
-        eav.put(":val", new AttributeValue().withS(attributeValue));
+        Map<String, com.amazonaws.services.dynamodbv2.model.AttributeValue> eav = new HashMap<>();
+        eav.put(":val", new com.amazonaws.services.dynamodbv2.model.AttributeValue().withS(attributeValue));
 
         DynamoDBQueryExpression<User> queryExpression = new DynamoDBQueryExpression<User>()
                 .withIndexName(indexName)
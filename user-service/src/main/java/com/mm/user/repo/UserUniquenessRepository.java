@@ -0,0 +1,230 @@
+package com.mm.user.repo;
+
+import com.mm.user.config.BulkOperationConfig;
+import com.mm.user.entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.Delete;
+import software.amazon.awssdk.services.dynamodb.model.Put;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Bảng user_uniqueness: mỗi username và mỗi email đã được dùng có một item (pk = "USERNAME#x" hoặc "EMAIL#x").
+ * Item được ghi có điều kiện attribute_not_exists(pk) bằng TransactWriteItems, nên lệnh ghi cũng là bước kiểm tra trùng:
+ * - Một lệnh giữ chỗ cho tối đa 50 user (100 item), số lệnh tỉ lệ với số lô chứ không phải số dòng.
+ * - Lý do hủy của transaction cho biết chính xác item nào đã tồn tại; các dòng còn lại được gửi lại ngay.
+ * - Hai request giữ cùng một username/email đồng thời thì chỉ một request thành công.
+ */
+@Repository
+public class UserUniquenessRepository {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserUniquenessRepository.class);
+
+    private static final int MAX_TRANSACT_ITEMS = 100;
+    // Mỗi user có hai item: username và email
+    public static final int MAX_CLAIMS_PER_CALL = MAX_TRANSACT_ITEMS / 2;
+
+    private static final String USERNAME_PREFIX = "USERNAME#";
+    private static final String EMAIL_PREFIX = "EMAIL#";
+
+    public enum Outcome { CLAIMED, USERNAME_TAKEN, EMAIL_TAKEN, FAILED }
+
+    /**
+     * Cặp username/email cần giữ chỗ cho một user.
+     */
+    public record Claim(String username, String email) {
+
+        public static Claim of(User user) {
+            return new Claim(user.getUsername(), user.getEmail());
+        }
+    }
+
+    private final DynamoDbAsyncClient dynamoDbAsyncClient;
+    private final BulkOperationConfig bulkOperationConfig;
+    private final String tableName;
+
+    public UserUniquenessRepository(DynamoDbAsyncClient dynamoDbAsyncClient,
+                                    BulkOperationConfig bulkOperationConfig,
+                                    @Value("${app.uniqueness.table-name:user_uniqueness}") String tableName) {
+        this.dynamoDbAsyncClient = dynamoDbAsyncClient;
+        this.bulkOperationConfig = bulkOperationConfig;
+        this.tableName = tableName;
+    }
+
+    /**
+     * Giữ chỗ username và email của từng cặp. Một cặp chỉ được giữ khi cả hai còn trống.
+     * Các nhóm 50 cặp chạy song song; lỗi không thử lại được hoặc đã thử lại hết số lần cho kết quả FAILED.
+     * Hai cặp trong cùng một lệnh gọi không được trùng username hoặc email (bước loại trùng trong file đảm bảo điều này).
+     *
+     * @return Kết quả theo đúng thứ tự đầu vào.
+     */
+    public CompletableFuture<List<Outcome>> claimAll(List<Claim> claims) {
+        Outcome[] outcomes = new Outcome[claims.size()];
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int start = 0; start < claims.size(); start += MAX_CLAIMS_PER_CALL) {
+            List<Integer> indexes = new ArrayList<>();
+            for (int i = start; i < Math.min(start + MAX_CLAIMS_PER_CALL, claims.size()); i++) {
+                indexes.add(i);
+            }
+            chunks.add(claimChunk(claims, indexes, outcomes, 0));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> Arrays.asList(outcomes));
+    }
+
+    /**
+     * Trả lại username/email của các user không lưu được, để chúng không bị giữ mãi.
+     * Lỗi chỉ được ghi log: item còn sót lại làm username/email đó bị coi là đã dùng.
+     */
+    public CompletableFuture<Void> release(List<Claim> claims) {
+        return writeUnconditionally(claims, key -> TransactWriteItem.builder()
+                .delete(Delete.builder().tableName(tableName).key(key).build())
+                .build())
+                .exceptionally(throwable -> {
+                    logger.error("Could not release {} uniqueness claims: {}", claims.size(), unwrap(throwable).getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Ghi item cho user đã có sẵn (backfill), không kiểm tra điều kiện.
+     */
+    public CompletableFuture<Void> putExisting(List<Claim> claims) {
+        return writeUnconditionally(claims, key -> TransactWriteItem.builder()
+                .put(Put.builder().tableName(tableName).item(item(key, Instant.now().toString())).build())
+                .build());
+    }
+
+    private CompletableFuture<Void> claimChunk(List<Claim> claims, List<Integer> pending, Outcome[] outcomes, int attempt) {
+        String now = Instant.now().toString();
+        List<TransactWriteItem> items = new ArrayList<>(pending.size() * 2);
+        for (int index : pending) {
+            Claim claim = claims.get(index);
+            items.add(conditionalPut(key(USERNAME_PREFIX + claim.username()), now));
+            items.add(conditionalPut(key(EMAIL_PREFIX + claim.email()), now));
+        }
+
+        return dynamoDbAsyncClient.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(items).build())
+                .handle((response, throwable) -> throwable == null ? null : unwrap(throwable))
+                .thenCompose(failure -> {
+                    if (failure == null) {
+                        pending.forEach(index -> outcomes[index] = Outcome.CLAIMED);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    List<Integer> retry = pending;
+                    if (failure instanceof TransactionCanceledException canceled && canceled.hasCancellationReasons()) {
+                        // Lý do hủy theo đúng thứ tự các item: 2k là username, 2k + 1 là email của pending[k]
+                        List<CancellationReason> reasons = canceled.cancellationReasons();
+                        retry = new ArrayList<>(pending.size());
+                        for (int k = 0; k < pending.size(); k++) {
+                            int index = pending.get(k);
+                            if (isConditionFailure(reasons.get(2 * k))) {
+                                outcomes[index] = Outcome.USERNAME_TAKEN;
+                            } else if (isConditionFailure(reasons.get(2 * k + 1))) {
+                                outcomes[index] = Outcome.EMAIL_TAKEN;
+                            } else {
+                                retry.add(index);
+                            }
+                        }
+                        if (retry.isEmpty()) {
+                            return CompletableFuture.<Void>completedFuture(null);
+                        }
+                        if (retry.size() < pending.size()) {
+                            // Bỏ các cặp đã bị chiếm rồi gửi lại ngay, không tính là một lần thử lại
+                            return claimChunk(claims, retry, outcomes, attempt);
+                        }
+                        // Bị hủy vì xung đột với transaction khác hoặc bị throttle: thử lại sau
+                    } else if (!isRetryable(failure)) {
+                        logger.error("TransactWriteItems failed with a non-retryable error for {} claims: {}",
+                                pending.size(), failure.getMessage());
+                        pending.forEach(index -> outcomes[index] = Outcome.FAILED);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    if (attempt >= bulkOperationConfig.getWriteMaxRetries()) {
+                        logger.error("Giving up on {} uniqueness claims after {} attempts: {}", retry.size(), attempt + 1,
+                                failure.getMessage());
+                        retry.forEach(index -> outcomes[index] = Outcome.FAILED);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    List<Integer> remaining = retry;
+                    return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(backoff(attempt), TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> claimChunk(claims, remaining, outcomes, attempt + 1));
+                });
+    }
+
+    private CompletableFuture<Void> writeUnconditionally(List<Claim> claims,
+                                                         Function<Map<String, AttributeValue>, TransactWriteItem> toItem) {
+        // Một transaction không được có hai thao tác trên cùng một item
+        Set<String> keys = new LinkedHashSet<>();
+        for (Claim claim : claims) {
+            keys.add(USERNAME_PREFIX + claim.username());
+            keys.add(EMAIL_PREFIX + claim.email());
+        }
+        List<String> pks = new ArrayList<>(keys);
+        List<CompletableFuture<?>> chunks = new ArrayList<>();
+        for (int start = 0; start < pks.size(); start += MAX_TRANSACT_ITEMS) {
+            List<TransactWriteItem> items = new ArrayList<>();
+            for (String pk : pks.subList(start, Math.min(start + MAX_TRANSACT_ITEMS, pks.size()))) {
+                items.add(toItem.apply(key(pk)));
+            }
+            chunks.add(dynamoDbAsyncClient.transactWriteItems(TransactWriteItemsRequest.builder().transactItems(items).build()));
+        }
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]));
+    }
+
+    private TransactWriteItem conditionalPut(Map<String, AttributeValue> key, String now) {
+        return TransactWriteItem.builder().put(Put.builder()
+                .tableName(tableName)
+                .item(item(key, now))
+                .conditionExpression("attribute_not_exists(pk)")
+                .build()).build();
+    }
+
+    private static Map<String, AttributeValue> key(String pk) {
+        return Map.of("pk", AttributeValue.builder().s(pk).build());
+    }
+
+    private static Map<String, AttributeValue> item(Map<String, AttributeValue> key, String claimedAt) {
+        return Map.of("pk", key.get("pk"), "claimedAt", AttributeValue.builder().s(claimedAt).build());
+    }
+
+    private long backoff(int attempt) {
+        long maxDelay = bulkOperationConfig.getWriteRetryBaseDelayMs() << Math.min(attempt, 10);
+        return ThreadLocalRandom.current().nextLong(maxDelay + 1);
+    }
+
+    private static boolean isConditionFailure(CancellationReason reason) {
+        return "ConditionalCheckFailed".equals(reason.code());
+    }
+
+    // Giống UserRepository: chỉ thử lại khi bị throttle hoặc lỗi phía server
+    private static boolean isRetryable(Throwable cause) {
+        return cause instanceof AwsServiceException serviceException
+                && (serviceException.isThrottlingException() || serviceException.statusCode() >= 500);
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+    }
+}
@@ -3,6 +3,7 @@ package com.mm.user.security;
 import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.jwk.RSAKey;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import org.slf4j.Logger;
@@ -10,6 +11,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Component;
 
 import java.io.InputStream;
@@ -21,20 +23,27 @@ import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 @Component
 public class JwtTokenProvider {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtTokenProvider.class);
 
+    public static final String ROLES_CLAIM = "roles";
+
     @Value("${app.jwtExpirationInMs}")
     private int jwtExpirationInMs;
 
     private final RSAPrivateKey privateKey;
     private final RSAPublicKey publicKey;
     private final RSAKey rsaKey;
+    // JwtParser không đổi trạng thái sau khi build nên dùng chung giữa các request
+    private final JwtParser parser;
 
 
     /**
@@ -46,25 +55,52 @@ public class JwtTokenProvider {
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + jwtExpirationInMs);
 
+        // Đưa roles vào token để các request sau không phải đọc lại user từ DynamoDB
+        List<String> roles = userDetails.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority)
+                .collect(Collectors.toList());
+
         return Jwts.builder()
                 .setSubject(userDetails.getUsername())
+                .claim(ROLES_CLAIM, roles)
                 .setIssuedAt(now)
                 .setExpiration(expiryDate)
                 .signWith(privateKey, SignatureAlgorithm.RS256) // Sử dụng RS256 với Private Key
                 .compact();
     }
 
+    /**
+     * Parse và xác minh token bằng Public Key, chỉ một lần cho mỗi request.
+     * @return Claims của token, hoặc null nếu token không hợp lệ.
+     */
+    public Claims parseClaims(String token) {
+        try {
+            return parser.parseClaimsJws(token).getBody();
+        } catch (Exception ex) {
+            // Các lỗi có thể xảy ra: SignatureException, MalformedJwtException, ExpiredJwtException, etc.
+            logger.error("Invalid JWT token: {}", ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lấy roles đã nhúng trong token.
+     * @return Danh sách role, hoặc null nếu token được cấp trước khi có claim roles.
+     */
+    public List<String> getRoles(Claims claims) {
+        Object roles = claims.get(ROLES_CLAIM);
+        if (!(roles instanceof Collection<?> values)) {
+            return null;
+        }
+        return values.stream().map(String::valueOf).collect(Collectors.toList());
+    }
+
     /**
      * Lấy username từ JWT token.
      * Cần Public Key để xác minh chữ ký trước khi trích xuất thông tin.
      */
     public String getUsernameFromJWT(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(publicKey) // Xác thực bằng Public Key
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-
+        Claims claims = parser.parseClaimsJws(token).getBody();
         return claims.getSubject();
     }
 
@@ -72,14 +108,7 @@ public class JwtTokenProvider {
      * Kiểm tra tính hợp lệ của token.
      */
     public boolean validateToken(String authToken) {
-        try {
-            Jwts.parserBuilder().setSigningKey(publicKey).build().parseClaimsJws(authToken);
-            return true;
-        } catch (Exception ex) {
-            // Các lỗi có thể xảy ra: SignatureException, MalformedJwtException, ExpiredJwtException, etc.
-            logger.error("Invalid JWT token: {}", ex.getMessage());
-        }
-        return false;
+        return parseClaims(authToken) != null;
     }
 
     /**
@@ -115,5 +144,9 @@ public class JwtTokenProvider {
                 .privateKey(this.privateKey)
                 .keyID(UUID.randomUUID().toString())
                 .build();
+
+        this.parser = Jwts.parserBuilder()
+                .setSigningKey(this.publicKey)
+                .build();
     }
 }
\ No newline at end of file
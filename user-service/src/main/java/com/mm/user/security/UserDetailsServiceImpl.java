@@ -2,6 +2,7 @@ package com.mm.user.security;
 
 import com.mm.user.entity.User;
 import com.mm.user.repo.UserRepository;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
@@ -10,25 +11,69 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * Nạp UserDetails từ bảng users qua GSI username-index.
+ * Kết quả được cache trong bộ nhớ với TTL ngắn (app.security.user-cache-ttl-seconds, 0 để tắt).
+ * Service chưa có API đổi mật khẩu, roles hay xóa user nên TTL là giới hạn duy nhất cho dữ liệu cũ;
+ * khi thêm các API đó thì phải xóa user khỏi cache ở đó.
+ * Mỗi lần gọi trả về một bản sao: ProviderManager xóa mật khẩu trên đối tượng được trả về sau khi xác thực,
+ * nên trả về chính đối tượng trong cache thì lần đăng nhập sau sẽ thất bại.
+ */
 @Service
 public class UserDetailsServiceImpl implements UserDetailsService {
 
     private final UserRepository userRepository;
+    private final long cacheTtlMillis;
+    private final Map<String, CachedUser> cache;
 
-    public UserDetailsServiceImpl(UserRepository userRepository) {
+    public UserDetailsServiceImpl(UserRepository userRepository,
+                                  @Value("${app.security.user-cache-ttl-seconds:60}") long cacheTtlSeconds,
+                                  @Value("${app.security.user-cache-max-entries:10000}") int maxEntries) {
         this.userRepository = userRepository;
+        this.cacheTtlMillis = TimeUnit.SECONDS.toMillis(cacheTtlSeconds);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+                return size() > Math.max(1, maxEntries);
+            }
+        };
     }
 
     @Override
     // @Transactional // Đã xóa annotation không cần thiết
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        long now = System.currentTimeMillis();
+        if (cacheTtlMillis > 0) {
+            synchronized (cache) {
+                CachedUser cached = cache.get(username);
+                if (cached != null && now < cached.expiresAt) {
+                    return copyOf(cached.userDetails);
+                }
+                cache.remove(username);
+            }
+        }
+
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new UsernameNotFoundException("User Not Found with username: " + username));
+        UserDetails userDetails = buildUserDetails(user);
+
+        if (cacheTtlMillis > 0) {
+            synchronized (cache) {
+                cache.put(username, new CachedUser(userDetails, now + cacheTtlMillis));
+            }
+            return copyOf(userDetails);
+        }
+        return userDetails;
+    }
 
-        return buildUserDetails(user);
+    private static UserDetails copyOf(UserDetails userDetails) {
+        return org.springframework.security.core.userdetails.User.withUserDetails(userDetails).build();
     }
 
     private UserDetails buildUserDetails(User user) {
@@ -41,4 +86,7 @@ public class UserDetailsServiceImpl implements UserDetailsService {
                 user.getPassword(),
                 authorities);
     }
+
+    private record CachedUser(UserDetails userDetails, long expiresAt) {
+    }
 }
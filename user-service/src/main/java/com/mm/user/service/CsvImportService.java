@@ -2,90 +2,229 @@ package com.mm.user.service;
 
 import com.mm.user.config.BulkOperationConfig;
 import com.mm.user.dto.BulkSignUpResponse;
-import com.mm.user.entity.User;
-import lombok.RequiredArgsConstructor;
+import com.mm.user.dto.CsvUserRow;
+import com.mm.user.dto.SignUpRequest;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
-import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class CsvImportService {
 
     private final UserBatchService userBatchService;
+    private final PasswordHashingService passwordHashingService;
+    private final ImportDedupService importDedupService;
     private final BulkOperationConfig bulkOperationConfig;
+    private final ExecutorService taskExecutor;
+
+    public CsvImportService(UserBatchService userBatchService,
+                            PasswordHashingService passwordHashingService,
+                            ImportDedupService importDedupService,
+                            BulkOperationConfig bulkOperationConfig,
+                            @Qualifier("taskExecutor") ExecutorService taskExecutor) {
+        this.userBatchService = userBatchService;
+        this.passwordHashingService = passwordHashingService;
+        this.importDedupService = importDedupService;
+        this.bulkOperationConfig = bulkOperationConfig;
+        this.taskExecutor = taskExecutor;
+    }
 
     /**
-     * Xử lý file CSV được tải lên một cách bất đồng bộ.
-     * Phương thức này đọc file theo dòng để tiết kiệm bộ nhớ, chia thành các lô (batches),
-     * và gửi chúng đến UserBatchService để xử lý song song.
+     * Import toàn bộ file CSV và tổng hợp kết quả. Chạy đồng bộ trên luồng gọi (luồng nền của ImportJobService
+     * hoặc worker Lambda); stats được cập nhật trong lúc chạy nên có thể đọc tiến độ từ luồng khác.
      *
-     * @param file Đối tượng MultipartFile chứa dữ liệu CSV.
-     * @return Một CompletableFuture chứa đối tượng BulkSignUpResponse với kết quả tổng hợp.
+     * @param input Nội dung file CSV.
+     * @return Đối tượng BulkSignUpResponse với kết quả tổng hợp.
      */
-    @Async("taskExecutor") // Chạy toàn bộ phương thức này trên một luồng riêng
-    public CompletableFuture<BulkSignUpResponse> processCsvFile(MultipartFile file) {
+    public BulkSignUpResponse processCsvFile(InputStream input, ImportStats stats) throws IOException, InterruptedException {
         long startTime = System.currentTimeMillis();
-        AtomicInteger totalRecords = new AtomicInteger(0);
-        List<CompletableFuture<List<User>>> batchFutures = new ArrayList<>();
-
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
-            String line;
-            List<User> userBatch = new ArrayList<>();
-            reader.readLine(); // Bỏ qua dòng header
-
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length >= 3) {
-                    totalRecords.incrementAndGet();
-                    User user = new User(data[0].trim(), data[1].trim(), data[2].trim());
-                    userBatch.add(user);
-                }
+        importUsers(input, stats);
+
+        double duration = (System.currentTimeMillis() - startTime) / 1000.0;
+        String message = String.format("Processed %d records in %.2f seconds. Successful: %d, Failed: %d.",
+                stats.getParsed(), duration, stats.getPersisted(), stats.getFailed());
+        log.info(message);
+
+        BulkSignUpResponse response = new BulkSignUpResponse(message);
+        response.setTotalRecords(stats.getParsed());
+        response.setSuccessfulCount(stats.getPersisted());
+        response.setFailedCount(stats.getFailed());
+        response.setFailedRecordDetails(stats.getFailedDetails());
+        response.setStageStats(stats.stageStats());
+        return response;
+    }
+
+    /**
+     * Import user từ CSV theo pipeline nhiều bước:
+     * đọc (OpenCSV) + kiểm tra + loại trùng trong file (trên luồng gọi) -> giữ chỗ username/email (ImportDedupService)
+     * -> mã hóa mật khẩu song song (PasswordHashingService) -> lưu (BatchWriteItem async).
+     * Số lô đang xử lý bị giới hạn bởi maxInFlightBatches: khi đủ, bước đọc phải chờ,
+     * nên bộ nhớ không phụ thuộc vào kích thước file. Hàm trả về khi mọi lô đã xong.
+     *
+     * @throws IllegalArgumentException nếu header thiếu cột bắt buộc.
+     */
+    public void importUsers(InputStream input, ImportStats stats) throws IOException, InterruptedException {
+        int batchSize = bulkOperationConfig.getBatchSize();
+        int maxInFlight = bulkOperationConfig.getMaxInFlightBatches();
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        PasswordHashingService.HashingSession hashingSession = passwordHashingService.newSession();
+        ImportDedupService.DedupSession dedupSession = importDedupService.newSession();
 
-                if (userBatch.size() == bulkOperationConfig.getBatchSize()) {
-                    batchFutures.add(userBatchService.processBatch(new ArrayList<>(userBatch)));
-                    userBatch.clear();
+        try (CSVReader reader = new CSVReaderBuilder(new InputStreamReader(input, StandardCharsets.UTF_8)).build()) {
+            Columns columns = Columns.fromHeader(readHeader(reader));
+            while (true) {
+                long parseStart = System.nanoTime();
+                List<CsvUserRow> batch = readBatch(reader, columns, batchSize, stats);
+                if (batch.isEmpty()) {
+                    break;
                 }
+                stats.recordParsed(batch.size());
+                stats.recordStage(ImportStats.Stage.PARSE, batch.size(), parseStart);
+
+                // Kiểm tra trước khi loại trùng trong file: dòng lỗi không được giữ chỗ username/email
+                long validateStart = System.nanoTime();
+                int parsedRows = batch.size();
+                List<CsvUserRow> valid = userBatchService.validateBatch(batch, stats);
+                stats.recordStage(ImportStats.Stage.VALIDATE, parsedRows, validateStart);
+
+                long dedupStart = System.nanoTime();
+                List<CsvUserRow> unique = importDedupService.rejectInFileDuplicates(valid, dedupSession, stats);
+                stats.recordStage(ImportStats.Stage.DEDUP, valid.size(), dedupStart);
+
+                // Backpressure: chờ đến khi có lô xử lý xong
+                inFlight.acquire();
+                submitBatch(unique, stats, hashingSession).whenComplete((ignored, throwable) -> inFlight.release());
+            }
+        } finally {
+            // Chờ tất cả các lô đang xử lý
+            inFlight.acquire(maxInFlight);
+            inFlight.release(maxInFlight);
+        }
+    }
+
+    private CompletableFuture<Void> submitBatch(List<CsvUserRow> batch, ImportStats stats,
+                                                PasswordHashingService.HashingSession hashingSession) {
+        // Giữ chỗ username/email và loại các dòng trùng với user đã có trước khi tốn CPU để mã hóa
+        long dedupStart = System.nanoTime();
+        return importDedupService.claimUnique(batch, stats)
+                .whenComplete((claimed, throwable) -> stats.recordStage(ImportStats.Stage.DEDUP, batch.size(), dedupStart))
+                .thenCompose(claimed -> {
+                    // Mã hóa được chia nhỏ và chạy song song trên importCpuExecutor
+                    long start = System.nanoTime();
+                    return userBatchService.hashBatch(claimed, hashingSession)
+                            .whenComplete((users, throwable) -> {
+                                stats.recordStage(ImportStats.Stage.HASH, claimed.size(), start);
+                                if (throwable != null) {
+                                    // Các dòng này sẽ không được lưu nên phải trả lại chỗ đã giữ
+                                    importDedupService.release(claimed);
+                                }
+                            });
+                })
+                .thenComposeAsync(users -> {
+                    long start = System.nanoTime();
+                    return userBatchService.persistBatch(users, stats)
+                            .thenRun(() -> stats.recordStage(ImportStats.Stage.PERSIST, users.size(), start));
+                }, taskExecutor)
+                .exceptionally(throwable -> {
+                    log.error("A batch failed during processing.", throwable);
+                    // Chi tiết lỗi chỉ được ghi log, lý do trả về cho client không chứa dữ liệu của dòng
+                    batch.forEach(row -> stats.recordFailure(row.lineNumber(), "batch failed"));
+                    return null;
+                });
+    }
+
+    private String[] readHeader(CSVReader reader) throws IOException {
+        try {
+            String[] header = reader.readNext();
+            if (header == null) {
+                throw new IllegalArgumentException("CSV file has no header row.");
+            }
+            return header;
+        } catch (CsvValidationException e) {
+            throw new IllegalArgumentException("Invalid CSV header: " + e.getMessage(), e);
+        }
+    }
+
+    // Đọc tối đa batchSize dòng; dòng không đọc được hoặc thiếu cột được ghi lỗi và bỏ qua
+    private List<CsvUserRow> readBatch(CSVReader reader, Columns columns, int batchSize, ImportStats stats) throws IOException {
+        List<CsvUserRow> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize) {
+            String[] fields;
+            try {
+                fields = reader.readNext();
+            } catch (CsvValidationException e) {
+                // Thông báo lỗi của OpenCSV có thể chứa nội dung dòng (email, mật khẩu), nên không được đưa vào lý do
+                stats.recordParsed(1);
+                stats.recordFailure(reader.getLinesRead(), "malformed CSV line");
+                continue;
             }
+            if (fields == null) {
+                break;
+            }
+            if (fields.length == 1 && fields[0].isBlank()) {
+                // Bỏ qua dòng trống
+                continue;
+            }
+            if (fields.length <= columns.maxIndex()) {
+                stats.recordParsed(1);
+                stats.recordFailure(reader.getLinesRead(), "expected " + (columns.maxIndex() + 1) + " columns but found " + fields.length);
+                continue;
+            }
+            batch.add(new CsvUserRow(reader.getLinesRead(), columns.toRequest(fields)));
+        }
+        return batch;
+    }
 
-            if (!userBatch.isEmpty()) {
-                batchFutures.add(userBatchService.processBatch(userBatch));
+    /**
+     * Vị trí các cột theo tên trong header (không phân biệt hoa thường), giống tên thuộc tính của SignUpRequest.
+     * Cột name là tùy chọn.
+     */
+    private record Columns(int username, int name, int email, int password) {
+
+        static Columns fromHeader(String[] header) {
+            Map<String, Integer> indexes = new HashMap<>();
+            for (int i = 0; i < header.length; i++) {
+                // Bỏ BOM của UTF-8 nếu có ở cột đầu tiên
+                String column = header[i].replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT);
+                indexes.putIfAbsent(column, i);
             }
+            for (String required : List.of("username", "email", "password")) {
+                if (!indexes.containsKey(required)) {
+                    throw new IllegalArgumentException("CSV header is missing required column: " + required);
+                }
+            }
+            return new Columns(indexes.get("username"), indexes.getOrDefault("name", -1),
+                    indexes.get("email"), indexes.get("password"));
+        }
+
+        int maxIndex() {
+            return Math.max(Math.max(username, name), Math.max(email, password));
+        }
 
-            // Đợi tất cả các lô xử lý hoàn thành
-            CompletableFuture.allOf(batchFutures.toArray(new CompletableFuture[0])).join();
-
-            long successfulCount = batchFutures.stream()
-                    .mapToLong(future -> {
-                        try {
-                            return future.get().size();
-                        } catch (Exception e) {
-                            log.error("A batch failed during processing.", e);
-                            return 0;
-                        }
-                    })
-                    .sum();
-
-            long endTime = System.currentTimeMillis();
-            double duration = (endTime - startTime) / 1000.0;
-            String message = String.format("Processed %d records in %.2f seconds. Successful: %d, Failed: %d.",
-                    totalRecords.get(), duration, successfulCount, totalRecords.get() - successfulCount);
-            log.info(message);
-            return CompletableFuture.completedFuture(new BulkSignUpResponse(message));
-
-        } catch (Exception e) {
-            log.error("Failed to process CSV file.", e);
-            // Trả về một future đã hoàn thành với lỗi
-            return CompletableFuture.failedFuture(new RuntimeException("Failed to process CSV file: " + e.getMessage()));
+        SignUpRequest toRequest(String[] fields) {
+            SignUpRequest request = new SignUpRequest();
+            request.setUsername(fields[username]);
+            request.setName(name >= 0 ? fields[name] : null);
+            request.setEmail(fields[email]);
+            request.setPassword(fields[password]);
+            return request;
         }
     }
 }
@@ -0,0 +1,117 @@
+package com.mm.user.service;
+
+import com.mm.user.dto.CsvUserRow;
+import com.mm.user.dto.SignUpRequest;
+import com.mm.user.repo.UserUniquenessRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bước loại trùng username/email của import CSV, không tốn một lệnh gọi DynamoDB cho mỗi dòng:
+ * - Trùng trong file (bộ lọc đầu tiên, trước mọi lệnh gọi DynamoDB): tập hợp chính xác các username/email
+ *   của các dòng hợp lệ đã gặp, kiểm tra theo thứ tự dòng trên luồng đọc, nên dòng hợp lệ xuất hiện trước được giữ.
+ * - Trùng với user đã có: username/email của cả lô được giữ chỗ bằng lệnh ghi có điều kiện vào bảng user_uniqueness,
+ *   50 dòng mỗi lệnh; dòng có item đã tồn tại bị loại.
+ */
+@Service
+public class ImportDedupService {
+
+    private final UserUniquenessRepository uniquenessRepository;
+
+    public ImportDedupService(UserUniquenessRepository uniquenessRepository) {
+        this.uniquenessRepository = uniquenessRepository;
+    }
+
+    /**
+     * Tạo phiên loại trùng cho một lần import.
+     */
+    public DedupSession newSession() {
+        return new DedupSession();
+    }
+
+    /**
+     * Loại các dòng có username hoặc email đã xuất hiện ở dòng trước trong file.
+     * Chỉ nhận các dòng đã qua bước kiểm tra, để dòng lỗi không giữ chỗ username/email của dòng hợp lệ phía sau.
+     * Phải được gọi trên luồng đọc, theo thứ tự các lô.
+     */
+    public List<CsvUserRow> rejectInFileDuplicates(List<CsvUserRow> validRows, DedupSession session, ImportStats stats) {
+        List<CsvUserRow> unique = new ArrayList<>(validRows.size());
+        for (CsvUserRow row : validRows) {
+            String username = normalize(row.request().getUsername());
+            String email = normalize(row.request().getEmail());
+            if (session.usernames.contains(username)) {
+                stats.recordFailure(row.lineNumber(), "duplicate username in file");
+            } else if (session.emails.contains(email)) {
+                stats.recordFailure(row.lineNumber(), "duplicate email in file");
+            } else {
+                session.usernames.add(username);
+                session.emails.add(email);
+                unique.add(row);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Giữ chỗ username và email của các dòng trong bảng user_uniqueness (UserUniquenessRepository.claimAll),
+     * và loại các dòng có username hoặc email đã thuộc về user khác. Mỗi lệnh ghi xử lý tối đa 50 dòng.
+     * Dòng được giữ chỗ nhưng sau đó không lưu được phải được trả lại (UserBatchService.persistBatch).
+     *
+     * @return Các dòng đã được giữ chỗ, theo thứ tự ban đầu.
+     */
+    public CompletableFuture<List<CsvUserRow>> claimUnique(List<CsvUserRow> rows, ImportStats stats) {
+        List<UserUniquenessRepository.Claim> claims = new ArrayList<>(rows.size());
+        for (CsvUserRow row : rows) {
+            SignUpRequest request = row.request();
+            claims.add(new UserUniquenessRepository.Claim(normalize(request.getUsername()), normalize(request.getEmail())));
+        }
+        return uniquenessRepository.claimAll(claims).thenApply(outcomes -> {
+            List<CsvUserRow> claimed = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                CsvUserRow row = rows.get(i);
+                switch (outcomes.get(i)) {
+                    case CLAIMED -> claimed.add(row);
+                    case USERNAME_TAKEN -> stats.recordFailure(row.lineNumber(), "username is already taken");
+                    case EMAIL_TAKEN -> stats.recordFailure(row.lineNumber(), "email is already in use");
+                    default -> stats.recordFailure(row.lineNumber(), "could not check username and email uniqueness");
+                }
+            }
+            return claimed;
+        });
+    }
+
+    /**
+     * Trả lại chỗ đã giữ cho các dòng sẽ không được lưu.
+     */
+    public CompletableFuture<Void> release(List<CsvUserRow> rows) {
+        List<UserUniquenessRepository.Claim> claims = new ArrayList<>(rows.size());
+        for (CsvUserRow row : rows) {
+            claims.add(new UserUniquenessRepository.Claim(normalize(row.request().getUsername()), normalize(row.request().getEmail())));
+        }
+        return uniquenessRepository.release(claims);
+    }
+
+    // Cùng cách chuẩn hóa với lúc tạo User (trim)
+    private static String normalize(String value) {
+        return StringUtils.hasText(value) ? value.trim() : null;
+    }
+
+    /**
+     * Trạng thái loại trùng trong file của một lần import.
+     */
+    public static final class DedupSession {
+
+        // Chỉ được dùng trên luồng đọc
+        private final Set<String> usernames = new HashSet<>();
+        private final Set<String> emails = new HashSet<>();
+
+        private DedupSession() {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.mm.user.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * Nơi lưu file của import job: file CSV được tải lên và file các dòng lỗi.
+ * Có app.import.staging-bucket thì lưu trên S3 (imports/{jobId}/...), để worker ở Lambda khác đọc được;
+ * không có thì lưu trên đĩa trong app.import.staging-dir.
+ */
+@Service
+@Slf4j
+public class ImportFileStore {
+
+    private static final String INPUT_FILE = "input.csv";
+    private static final String FAILED_ROWS_FILE = "failed-rows.csv";
+    private static final String KEY_PREFIX = "imports/";
+
+    private final S3Client s3Client;
+    private final String bucket;
+    private final Path stagingDir;
+
+    public ImportFileStore(S3Client s3Client,
+                           @Value("${app.import.staging-bucket:}") String bucket,
+                           @Value("${app.import.staging-dir:${java.io.tmpdir}/user-imports}") String stagingDir) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.stagingDir = Paths.get(stagingDir);
+    }
+
+    public void stageInput(String jobId, MultipartFile file) throws IOException {
+        if (usesS3()) {
+            try (InputStream input = file.getInputStream()) {
+                s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(key(jobId, INPUT_FILE)).contentType("text/csv").build(),
+                        RequestBody.fromInputStream(input, file.getSize()));
+            }
+        } else {
+            Path target = localPath(jobId, INPUT_FILE);
+            Files.createDirectories(target.getParent());
+            try (InputStream input = file.getInputStream()) {
+                Files.copy(input, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    public InputStream openInput(String jobId) throws IOException {
+        if (usesS3()) {
+            return s3Client.getObject(GetObjectRequest.builder().bucket(bucket).key(key(jobId, INPUT_FILE)).build());
+        }
+        return Files.newInputStream(localPath(jobId, INPUT_FILE));
+    }
+
+    /**
+     * Lưu file các dòng lỗi (đã ghi ra đĩa trong lúc import) và xóa file CSV gốc.
+     */
+    public void storeFailedRows(String jobId, Path failedRows) throws IOException {
+        if (usesS3()) {
+            s3Client.putObject(PutObjectRequest.builder().bucket(bucket).key(key(jobId, FAILED_ROWS_FILE)).contentType("text/csv").build(),
+                    RequestBody.fromFile(failedRows));
+            s3Client.deleteObject(builder -> builder.bucket(bucket).key(key(jobId, INPUT_FILE)));
+        } else {
+            Path target = localPath(jobId, FAILED_ROWS_FILE);
+            Files.createDirectories(target.getParent());
+            Files.copy(failedRows, target, StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(localPath(jobId, INPUT_FILE));
+        }
+    }
+
+    /**
+     * @return File các dòng lỗi, hoặc rỗng nếu job chưa xong.
+     */
+    public Optional<InputStream> openFailedRows(String jobId) throws IOException {
+        if (usesS3()) {
+            try {
+                return Optional.of(s3Client.getObject(GetObjectRequest.builder().bucket(bucket).key(key(jobId, FAILED_ROWS_FILE)).build()));
+            } catch (NoSuchKeyException e) {
+                return Optional.empty();
+            }
+        }
+        Path path = localPath(jobId, FAILED_ROWS_FILE);
+        return Files.exists(path) ? Optional.of(Files.newInputStream(path)) : Optional.empty();
+    }
+
+    /**
+     * Lấy jobId từ key S3 của file CSV gốc (dùng cho sự kiện S3 kích hoạt worker), hoặc rỗng nếu không phải key đó.
+     */
+    public Optional<String> jobIdFromInputKey(String key) {
+        if (key == null || !key.startsWith(KEY_PREFIX) || !key.endsWith("/" + INPUT_FILE)) {
+            return Optional.empty();
+        }
+        String jobId = key.substring(KEY_PREFIX.length(), key.length() - INPUT_FILE.length() - 1);
+        return jobId.isEmpty() || jobId.contains("/") ? Optional.empty() : Optional.of(jobId);
+    }
+
+    public boolean usesS3() {
+        return StringUtils.hasText(bucket);
+    }
+
+    private static String key(String jobId, String fileName) {
+        return KEY_PREFIX + jobId + "/" + fileName;
+    }
+
+    private Path localPath(String jobId, String fileName) {
+        return stagingDir.resolve(jobId).resolve(fileName);
+    }
+}
@@ -0,0 +1,344 @@
+package com.mm.user.service;
+
+import com.mm.user.config.BulkOperationConfig;
+import com.mm.user.dto.BulkSignUpResponse;
+import com.mm.user.dto.ImportJobResponse;
+import com.mm.user.entity.ImportJob;
+import com.mm.user.repo.ImportJobRepository;
+import com.opencsv.CSVWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Import user dưới dạng job bất đồng bộ: request chỉ lưu file CSV (ImportFileStore) và tạo bản ghi ImportJob
+ * rồi trả về jobId ngay, nên không bị giới hạn thời gian của API Gateway.
+ * File được xử lý bởi luồng nền của chính ứng dụng (app.import.process-in-background=true), hoặc bởi worker Lambda
+ * được kích hoạt khi file được đưa lên S3. Trong lúc chạy, tiến độ được ghi vào ImportJob
+ * mỗi app.import.progress-interval-seconds giây, và mọi dòng lỗi được ghi vào file có thể tải về khi job kết thúc.
+ * Mỗi lần ghi tiến độ cũng gia hạn lease của job (app.import.lease-seconds): job RUNNING có lease đã hết nghĩa là
+ * worker đã dừng giữa chừng, và job được đánh dấu FAILED khi có người đọc nó hoặc khi sự kiện S3 được gửi lại.
+ * Worker tự dừng và ghi FAILED khi sắp hết thời gian chạy (thời gian còn lại của Lambda hoặc app.import.max-run-seconds).
+ */
+@Service
+@Slf4j
+public class ImportJobService {
+
+    private static final String TIME_LIMIT_MESSAGE = "Import did not finish within the time limit; rows imported so far were kept.";
+    private static final String WORKER_STOPPED_MESSAGE = "Import stopped unexpectedly; rows imported so far were kept.";
+
+    private final CsvImportService csvImportService;
+    private final ImportJobRepository importJobRepository;
+    private final ImportFileStore importFileStore;
+    private final BulkOperationConfig bulkOperationConfig;
+    private final ExecutorService taskExecutor;
+    private final boolean processInBackground;
+    private final long progressIntervalMillis;
+    private final long retentionSeconds;
+    private final long leaseMillis;
+    private final long maxRunMillis;
+    private final long finishMarginMillis;
+    private final ScheduledExecutorService progressReporter;
+
+    public ImportJobService(CsvImportService csvImportService,
+                            ImportJobRepository importJobRepository,
+                            ImportFileStore importFileStore,
+                            BulkOperationConfig bulkOperationConfig,
+                            @Qualifier("taskExecutor") ExecutorService taskExecutor,
+                            @Value("${app.import.process-in-background:true}") boolean processInBackground,
+                            @Value("${app.import.progress-interval-seconds:2}") long progressIntervalSeconds,
+                            @Value("${app.import.job-retention-days:7}") long retentionDays,
+                            @Value("${app.import.lease-seconds:60}") long leaseSeconds,
+                            @Value("${app.import.max-run-seconds:0}") long maxRunSeconds,
+                            @Value("${app.import.finish-margin-seconds:30}") long finishMarginSeconds) {
+        this.csvImportService = csvImportService;
+        this.importJobRepository = importJobRepository;
+        this.importFileStore = importFileStore;
+        this.bulkOperationConfig = bulkOperationConfig;
+        this.taskExecutor = taskExecutor;
+        this.processInBackground = processInBackground;
+        this.progressIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(1, progressIntervalSeconds));
+        this.retentionSeconds = TimeUnit.DAYS.toSeconds(retentionDays);
+        // Lease phải đủ dài để một lần ghi tiến độ bị trễ hoặc lỗi không làm job bị coi là đã dừng
+        this.leaseMillis = Math.max(TimeUnit.SECONDS.toMillis(leaseSeconds), 3 * this.progressIntervalMillis);
+        this.maxRunMillis = TimeUnit.SECONDS.toMillis(Math.max(0, maxRunSeconds));
+        this.finishMarginMillis = TimeUnit.SECONDS.toMillis(Math.max(0, finishMarginSeconds));
+        this.progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ImportProgress");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Tạo import job cho file CSV và trả về ngay, trước khi file được xử lý.
+     *
+     * @param owner Username của người tải file lên.
+     */
+    public ImportJobResponse submit(MultipartFile file, String owner) throws IOException {
+        String now = Instant.now().toString();
+        ImportJob job = new ImportJob();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setOwner(owner);
+        job.setStatus(ImportJob.STATUS_PENDING);
+        job.setFileName(file.getOriginalFilename());
+        job.setParsedRows(0L);
+        job.setPersistedRows(0L);
+        job.setFailedRows(0L);
+        job.setRowsPerSecond(0.0);
+        job.setCreatedAt(now);
+        job.setUpdatedAt(now);
+        job.setExpiresAt(Instant.now().getEpochSecond() + retentionSeconds);
+        // Lưu job trước khi lưu file: worker được kích hoạt bởi file trên S3 cần thấy job
+        importJobRepository.save(job);
+
+        try {
+            importFileStore.stageInput(job.getJobId(), file);
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not stage CSV file for import job {}.", job.getJobId(), e);
+            finish(job.getJobId(), ImportJob.STATUS_FAILED, "Could not store the uploaded file: " + e.getMessage(), null, 0);
+            throw e;
+        }
+        log.info("Created import job {} for file {} ({} bytes).", job.getJobId(), file.getOriginalFilename(), file.getSize());
+
+        if (processInBackground) {
+            taskExecutor.execute(() -> runJob(job.getJobId()));
+        }
+        return toResponse(job);
+    }
+
+    /**
+     * Xử lý file của job, giới hạn bởi app.import.max-run-seconds (0 = không giới hạn).
+     */
+    public void runJob(String jobId) {
+        runJob(jobId, maxRunMillis > 0 ? maxRunMillis : Long.MAX_VALUE);
+    }
+
+    /**
+     * Xử lý file của job. Chỉ job đang PENDING mới được chạy, nên sự kiện S3 bị gửi lặp không import lại file;
+     * nếu lần chạy trước đã dừng giữa chừng (lease hết hạn), job được đánh dấu FAILED thay vì import lại,
+     * vì một phần file đã được lưu.
+     *
+     * @param remainingMillis Thời gian còn lại của lần gọi (ví dụ Context.getRemainingTimeInMillis() của Lambda).
+     *                        Import bị dừng và job được ghi FAILED trước khi hết thời gian này app.import.finish-margin-seconds giây.
+     */
+    public void runJob(String jobId, long remainingMillis) {
+        long start = System.currentTimeMillis();
+        if (!importJobRepository.markRunning(jobId, Instant.now().toString(), start + leaseMillis)) {
+            if (failIfLeaseExpired(jobId, start)) {
+                log.warn("Import job {} was left running by a stopped worker, marked as failed.", jobId);
+            } else {
+                log.warn("Import job {} does not exist or was already started, skipping.", jobId);
+            }
+            return;
+        }
+        long budgetMillis = remainingMillis == Long.MAX_VALUE ? Long.MAX_VALUE : remainingMillis - finishMarginMillis;
+        if (budgetMillis <= 0) {
+            finish(jobId, ImportJob.STATUS_FAILED, TIME_LIMIT_MESSAGE, null, start);
+            return;
+        }
+        // Khi hết thời gian, luồng import bị ngắt và dừng ở lần chờ lô tiếp theo (CsvImportService)
+        AtomicBoolean timedOut = new AtomicBoolean();
+        Thread worker = Thread.currentThread();
+        ScheduledFuture<?> deadline = budgetMillis == Long.MAX_VALUE ? null : progressReporter.schedule(() -> {
+            timedOut.set(true);
+            worker.interrupt();
+        }, budgetMillis, TimeUnit.MILLISECONDS);
+        Path failedRowsFile = null;
+        ImportStats stats = null;
+        String status;
+        String message;
+        try {
+            failedRowsFile = Files.createTempFile("import-" + jobId + "-", ".csv");
+            try (FailedRowsWriter failedRows = new FailedRowsWriter(failedRowsFile)) {
+                ImportStats jobStats = new ImportStats(bulkOperationConfig.getMaxFailedRecordDetails(), failedRows::write);
+                stats = jobStats;
+                ScheduledFuture<?> reporter = progressReporter.scheduleAtFixedRate(
+                        () -> reportProgress(jobId, jobStats, start), progressIntervalMillis, progressIntervalMillis, TimeUnit.MILLISECONDS);
+                try (InputStream input = importFileStore.openInput(jobId)) {
+                    BulkSignUpResponse result = csvImportService.processCsvFile(input, jobStats);
+                    status = ImportJob.STATUS_COMPLETED;
+                    message = result.getSummaryMessage();
+                } finally {
+                    reporter.cancel(false);
+                }
+            }
+            importFileStore.storeFailedRows(jobId, failedRowsFile);
+        } catch (InterruptedException e) {
+            status = ImportJob.STATUS_FAILED;
+            message = timedOut.get() ? TIME_LIMIT_MESSAGE : "Import was interrupted.";
+            if (!timedOut.get()) {
+                Thread.currentThread().interrupt();
+            }
+        } catch (Exception e) {
+            status = ImportJob.STATUS_FAILED;
+            if (timedOut.get()) {
+                message = TIME_LIMIT_MESSAGE;
+            } else {
+                log.error("Import job {} failed.", jobId, e);
+                message = "Import failed: " + e.getMessage();
+            }
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            deleteQuietly(failedRowsFile);
+        }
+        if (timedOut.get()) {
+            // Bỏ cờ ngắt của lần hết giờ để lệnh ghi kết quả bên dưới không bị hủy
+            Thread.interrupted();
+            if (ImportJob.STATUS_FAILED.equals(status)) {
+                log.warn("Import job {} ran out of time after {} ms.", jobId, System.currentTimeMillis() - start);
+            }
+        }
+        finish(jobId, status, message, stats, start);
+    }
+
+    /**
+     * Tiến độ của job, hoặc rỗng nếu job không tồn tại hoặc không thuộc về owner.
+     */
+    public Optional<ImportJobResponse> getJob(String jobId, String owner) {
+        Optional<ImportJob> job = findOwnedJob(jobId, owner);
+        if (job.isPresent() && isLeaseExpired(job.get(), System.currentTimeMillis())
+                && failIfLeaseExpired(jobId, System.currentTimeMillis())) {
+            log.warn("Import job {} was left running by a stopped worker, marked as failed.", jobId);
+            job = findOwnedJob(jobId, owner);
+        }
+        return job.map(this::toResponse);
+    }
+
+    /**
+     * File CSV các dòng lỗi (line, reason) của job đã kết thúc, hoặc rỗng nếu job không tồn tại,
+     * không thuộc về owner hoặc chưa xong.
+     */
+    public Optional<InputStream> openFailedRows(String jobId, String owner) throws IOException {
+        // Chỉ tra file với jobId đã có trong bảng, jobId từ request không bao giờ được dùng trực tiếp làm đường dẫn
+        Optional<ImportJob> job = findOwnedJob(jobId, owner);
+        if (job.isEmpty() || !isFinished(job.get())) {
+            return Optional.empty();
+        }
+        return importFileStore.openFailedRows(job.get().getJobId());
+    }
+
+    // Job của người khác được xử lý như job không tồn tại, để không lộ jobId nào có thật
+    private Optional<ImportJob> findOwnedJob(String jobId, String owner) {
+        return importJobRepository.findById(jobId).filter(job -> owner != null && owner.equals(job.getOwner()));
+    }
+
+    private boolean failIfLeaseExpired(String jobId, long now) {
+        return importJobRepository.markFailedIfLeaseExpired(jobId, now, WORKER_STOPPED_MESSAGE, Instant.now().toString());
+    }
+
+    private static boolean isLeaseExpired(ImportJob job, long now) {
+        return ImportJob.STATUS_RUNNING.equals(job.getStatus())
+                && job.getLeaseExpiresAt() != null && job.getLeaseExpiresAt() < now;
+    }
+
+    private void reportProgress(String jobId, ImportStats stats, long start) {
+        try {
+            ImportJob changes = progress(jobId, stats, start);
+            changes.setLeaseExpiresAt(System.currentTimeMillis() + leaseMillis);
+            importJobRepository.update(changes);
+        } catch (Exception e) {
+            // Không ném lỗi ra ngoài, nếu không scheduleAtFixedRate sẽ dừng các lần báo tiếp theo
+            log.warn("Could not update progress of import job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    private void finish(String jobId, String status, String message, ImportStats stats, long start) {
+        ImportJob changes = stats == null ? new ImportJob() : progress(jobId, stats, start);
+        changes.setJobId(jobId);
+        changes.setStatus(status);
+        changes.setMessage(message);
+        changes.setUpdatedAt(Instant.now().toString());
+        importJobRepository.update(changes);
+        log.info("Import job {} finished with status {}: {}", jobId, status, message);
+    }
+
+    private static ImportJob progress(String jobId, ImportStats stats, long start) {
+        long persisted = stats.getPersisted();
+        long failed = stats.getFailed();
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        ImportJob changes = new ImportJob();
+        changes.setJobId(jobId);
+        changes.setParsedRows(stats.getParsed());
+        changes.setPersistedRows(persisted);
+        changes.setFailedRows(failed);
+        changes.setRowsPerSecond(seconds > 0 ? (persisted + failed) / seconds : 0.0);
+        changes.setUpdatedAt(Instant.now().toString());
+        return changes;
+    }
+
+    private static boolean isFinished(ImportJob job) {
+        return ImportJob.STATUS_COMPLETED.equals(job.getStatus()) || ImportJob.STATUS_FAILED.equals(job.getStatus());
+    }
+
+    private ImportJobResponse toResponse(ImportJob job) {
+        return new ImportJobResponse(
+                job.getJobId(),
+                job.getStatus(),
+                job.getParsedRows() == null ? 0 : job.getParsedRows(),
+                job.getPersistedRows() == null ? 0 : job.getPersistedRows(),
+                job.getFailedRows() == null ? 0 : job.getFailedRows(),
+                job.getRowsPerSecond() == null ? 0 : job.getRowsPerSecond(),
+                job.getMessage(),
+                job.getCreatedAt(),
+                job.getUpdatedAt()
+        );
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete temporary file {}: {}", path, e.getMessage());
+        }
+    }
+
+    /**
+     * Ghi các dòng lỗi ra file CSV (line, reason). Được gọi đồng thời từ các luồng của pipeline import.
+     * CSVWriter không ném lỗi khi ghi; lỗi được kiểm tra một lần khi đóng file.
+     */
+    private static final class FailedRowsWriter implements AutoCloseable {
+
+        private final CSVWriter writer;
+
+        private FailedRowsWriter(Path path) throws IOException {
+            this.writer = new CSVWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+            this.writer.writeNext(new String[]{"line", "reason"});
+        }
+
+        private synchronized void write(long lineNumber, String reason) {
+            writer.writeNext(new String[]{String.valueOf(lineNumber), reason});
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            boolean failed = writer.checkError();
+            writer.close();
+            if (failed) {
+                throw new IOException("Could not write failed rows file.");
+            }
+        }
+    }
+}
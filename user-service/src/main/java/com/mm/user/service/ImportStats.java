@@ -0,0 +1,117 @@
+package com.mm.user.service;
+
+import com.mm.user.dto.ImportStageStats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Số liệu của một lần import CSV: số dòng và thời gian làm việc của từng bước, cùng các dòng lỗi.
+ * Được cập nhật đồng thời từ nhiều luồng của pipeline.
+ */
+public class ImportStats {
+
+    public enum Stage { PARSE, DEDUP, VALIDATE, HASH, PERSIST }
+
+    private final Map<Stage, StageCounter> stages = new EnumMap<>(Stage.class);
+    private final LongAdder parsed = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final List<String> failedDetails = Collections.synchronizedList(new ArrayList<>());
+    private final int maxFailedDetails;
+    private final BiConsumer<Long, String> failureSink;
+
+    public ImportStats(int maxFailedDetails) {
+        this(maxFailedDetails, null);
+    }
+
+    /**
+     * @param failureSink Nhận mọi dòng lỗi (số dòng, lý do), ví dụ để ghi ra file; được gọi từ nhiều luồng.
+     */
+    public ImportStats(int maxFailedDetails, BiConsumer<Long, String> failureSink) {
+        this.maxFailedDetails = maxFailedDetails;
+        this.failureSink = failureSink;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new StageCounter());
+        }
+    }
+
+    /**
+     * Ghi nhận một phần việc của bước stage trên rows dòng, bắt đầu tại startNanos (System.nanoTime()).
+     */
+    public void recordStage(Stage stage, int rows, long startNanos) {
+        stages.get(stage).record(rows, startNanos, System.nanoTime());
+    }
+
+    public void recordParsed(int rows) {
+        parsed.add(rows);
+    }
+
+    public void recordPersisted(int rows) {
+        persisted.add(rows);
+    }
+
+    /**
+     * Ghi nhận một dòng lỗi. Chỉ maxFailedDetails dòng đầu được giữ lại chi tiết để bộ nhớ không tăng theo file.
+     */
+    public void recordFailure(long lineNumber, String reason) {
+        failed.increment();
+        if (failedDetails.size() < maxFailedDetails) {
+            failedDetails.add("Line " + lineNumber + ": " + reason);
+        }
+        if (failureSink != null) {
+            failureSink.accept(lineNumber, reason);
+        }
+    }
+
+    public long getParsed() {
+        return parsed.sum();
+    }
+
+    public long getPersisted() {
+        return persisted.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public List<String> getFailedDetails() {
+        synchronized (failedDetails) {
+            return new ArrayList<>(failedDetails);
+        }
+    }
+
+    public List<ImportStageStats> stageStats() {
+        List<ImportStageStats> result = new ArrayList<>();
+        stages.forEach((stage, counter) -> result.add(counter.toStats(stage)));
+        return result;
+    }
+
+    private static final class StageCounter {
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private final AtomicLong firstStart = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong lastEnd = new AtomicLong(Long.MIN_VALUE);
+
+        private void record(int count, long start, long end) {
+            rows.add(count);
+            busyNanos.add(end - start);
+            firstStart.accumulateAndGet(start, Math::min);
+            lastEnd.accumulateAndGet(end, Math::max);
+        }
+
+        private ImportStageStats toStats(Stage stage) {
+            long total = rows.sum();
+            long wallNanos = lastEnd.get() - firstStart.get();
+            double rowsPerSecond = total > 0 && wallNanos > 0 ? total * 1_000_000_000.0 / wallNanos : 0;
+            return new ImportStageStats(stage.name(), total, busyNanos.sum() / 1_000_000, rowsPerSecond);
+        }
+    }
+}
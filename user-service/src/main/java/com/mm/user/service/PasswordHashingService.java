@@ -0,0 +1,115 @@
+package com.mm.user.service;
+
+import com.mm.user.config.BulkOperationConfig;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Bước mã hóa mật khẩu của import CSV, là bước tốn CPU nhất.
+ * Mỗi lô được chia thành nhiều phần chạy song song trên importCpuExecutor (số luồng = số CPU),
+ * với work factor BCrypt riêng cho import (bulk.operation.import-bcrypt-strength).
+ * Hash vẫn ở định dạng BCrypt chuẩn nên PasswordEncoder dùng khi đăng nhập kiểm tra được bình thường.
+ */
+@Service
+public class PasswordHashingService {
+
+    private final PasswordEncoder importEncoder;
+    private final ExecutorService importCpuExecutor;
+    private final BulkOperationConfig bulkOperationConfig;
+    private final int parallelism;
+
+    public PasswordHashingService(BulkOperationConfig bulkOperationConfig,
+                                  @Qualifier("importCpuExecutor") ExecutorService importCpuExecutor) {
+        this.bulkOperationConfig = bulkOperationConfig;
+        this.importCpuExecutor = importCpuExecutor;
+        this.importEncoder = new BCryptPasswordEncoder(bulkOperationConfig.getImportBcryptStrength());
+        this.parallelism = bulkOperationConfig.getCpuPoolSize() > 0
+                ? bulkOperationConfig.getCpuPoolSize()
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Tạo phiên mã hóa cho một lần import. Nếu bật reuseIdenticalPasswordHashes, các mật khẩu giống nhau
+     * trong cùng lần import chỉ được mã hóa một lần (các user đó dùng chung hash); lần import sau bắt đầu
+     * với phiên mới nên luôn có salt mới.
+     */
+    public HashingSession newSession() {
+        return new HashingSession(bulkOperationConfig.isReuseIdenticalPasswordHashes()
+                ? bulkOperationConfig.getPasswordHashCacheMaxEntries() : 0);
+    }
+
+    /**
+     * Mã hóa danh sách mật khẩu, kết quả giữ đúng thứ tự đầu vào.
+     * Không chặn luồng gọi: các phần được gửi lên importCpuExecutor và ghép lại bằng Future.
+     */
+    public CompletableFuture<List<String>> encodeAll(List<String> passwords, HashingSession session) {
+        if (passwords.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        int chunkSize = Math.max(1, (passwords.size() + parallelism - 1) / parallelism);
+        List<CompletableFuture<List<String>>> parts = new ArrayList<>();
+        for (int start = 0; start < passwords.size(); start += chunkSize) {
+            List<String> chunk = passwords.subList(start, Math.min(start + chunkSize, passwords.size()));
+            parts.add(CompletableFuture.supplyAsync(() -> encodeChunk(chunk, session), importCpuExecutor));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    List<String> hashes = new ArrayList<>(passwords.size());
+                    parts.forEach(part -> hashes.addAll(part.join()));
+                    return hashes;
+                });
+    }
+
+    private List<String> encodeChunk(List<String> chunk, HashingSession session) {
+        List<String> hashes = new ArrayList<>(chunk.size());
+        for (String password : chunk) {
+            hashes.add(session.encode(password, importEncoder));
+        }
+        return hashes;
+    }
+
+    /**
+     * Trạng thái mã hóa của một lần import: LRU có giới hạn của các hash đã tính (theo mật khẩu).
+     * maxEntries = 0 nghĩa là không dùng lại hash.
+     */
+    public static final class HashingSession {
+
+        private final Map<String, String> hashes;
+
+        private HashingSession(int maxEntries) {
+            this.hashes = maxEntries <= 0 ? null : new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        private String encode(String password, PasswordEncoder encoder) {
+            if (hashes == null) {
+                return encoder.encode(password);
+            }
+            synchronized (hashes) {
+                String cached = hashes.get(password);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            // Mã hóa ngoài khóa; hai luồng cùng gặp một mật khẩu mới thì mỗi luồng tự mã hóa, vẫn đúng
+            String hash = encoder.encode(password);
+            synchronized (hashes) {
+                hashes.putIfAbsent(password, hash);
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.mm.user.service;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.ScanResultPage;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.mm.user.entity.User;
+import com.mm.user.repo.UserRepository;
+import com.mm.user.repo.UserUniquenessRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Ghi username/email của các user đã có vào bảng user_uniqueness. Chạy một lần sau khi triển khai bảng này;
+ * trước đó user tạo qua /register chưa có item nên import không thấy họ.
+ * Mỗi lần gọi chạy tối đa app.uniqueness.backfill-budget-seconds giây và trả về vị trí để gọi tiếp.
+ */
+@Service
+@Slf4j
+public class UniquenessBackfillService {
+
+    private static final int PAGE_SIZE = 500;
+
+    private final UserRepository userRepository;
+    private final UserUniquenessRepository uniquenessRepository;
+    private final long budgetMillis;
+
+    public UniquenessBackfillService(UserRepository userRepository,
+                                     UserUniquenessRepository uniquenessRepository,
+                                     @Value("${app.uniqueness.backfill-budget-seconds:800}") long budgetSeconds) {
+        this.userRepository = userRepository;
+        this.uniquenessRepository = uniquenessRepository;
+        this.budgetMillis = TimeUnit.SECONDS.toMillis(budgetSeconds);
+    }
+
+    /**
+     * @param claimed     Số user đã được ghi trong lần gọi này.
+     * @param nextStartId id để gọi tiếp, hoặc null nếu đã đi hết bảng users.
+     */
+    public record Result(long claimed, String nextStartId) {
+    }
+
+    public Result backfill(String startId) {
+        long deadline = System.currentTimeMillis() + budgetMillis;
+        String nextStartId = startId;
+        long claimed = 0;
+        do {
+            ScanResultPage<User> page = userRepository.scanPage(nextStartId, PAGE_SIZE);
+            List<UserUniquenessRepository.Claim> claims = page.getResults().stream()
+                    .filter(user -> user.getUsername() != null && user.getEmail() != null)
+                    .map(UserUniquenessRepository.Claim::of)
+                    .collect(Collectors.toList());
+            uniquenessRepository.putExisting(claims).join();
+            claimed += claims.size();
+            Map<String, AttributeValue> lastKey = page.getLastEvaluatedKey();
+            nextStartId = lastKey == null || lastKey.isEmpty() ? null : lastKey.get("id").getS();
+        } while (nextStartId != null && System.currentTimeMillis() < deadline);
+        log.info("Backfilled uniqueness items for {} users, next start id: {}", claimed, nextStartId);
+        return new Result(claimed, nextStartId);
+    }
+}
@@ -1,46 +1,121 @@
 package com.mm.user.service;
 
+import com.mm.user.dto.CsvUserRow;
+import com.mm.user.dto.SignUpRequest;
 import com.mm.user.entity.User;
 import com.mm.user.repo.UserRepository;
+import com.mm.user.repo.UserUniquenessRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
+/**
+ * Các bước xử lý một lô user của import CSV. Kiểm tra là hàm đồng bộ, bước mã hóa và bước lưu trả về Future;
+ * CsvImportService quyết định chạy bước nào trên executor nào.
+ */
 @Service
 public class UserBatchService {
 
     private static final Logger logger = LoggerFactory.getLogger(UserBatchService.class);
 
+    private static final Pattern EMAIL_PATTERN = Pattern.compile("^[^@\\s]+@[^@\\s]+\\.[^@\\s]+$");
+
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final UserUniquenessRepository uniquenessRepository;
+    private final PasswordHashingService passwordHashingService;
 
-    public UserBatchService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public UserBatchService(UserRepository userRepository, UserUniquenessRepository uniquenessRepository,
+                            PasswordHashingService passwordHashingService) {
         this.userRepository = userRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.uniquenessRepository = uniquenessRepository;
+        this.passwordHashingService = passwordHashingService;
+    }
+
+    /**
+     * Kiểm tra dữ liệu của từng dòng. Dòng không hợp lệ được ghi vào stats và bị loại khỏi lô.
+     */
+    public List<CsvUserRow> validateBatch(List<CsvUserRow> rows, ImportStats stats) {
+        List<CsvUserRow> valid = new ArrayList<>(rows.size());
+        for (CsvUserRow row : rows) {
+            String error = validate(row.request());
+            if (error == null) {
+                valid.add(row);
+            } else {
+                stats.recordFailure(row.lineNumber(), error);
+            }
+        }
+        return valid;
+    }
+
+    /**
+     * Mã hóa mật khẩu (song song, qua PasswordHashingService) và tạo entity User với quyền mặc định.
+     * Đây là bước tốn CPU nhất của import.
+     */
+    public CompletableFuture<List<PreparedUser>> hashBatch(List<CsvUserRow> rows, PasswordHashingService.HashingSession session) {
+        List<String> passwords = rows.stream().map(row -> row.request().getPassword()).collect(Collectors.toList());
+        return passwordHashingService.encodeAll(passwords, session).thenApply(hashes -> {
+            List<PreparedUser> users = new ArrayList<>(rows.size());
+            for (int i = 0; i < rows.size(); i++) {
+                SignUpRequest request = rows.get(i).request();
+                User user = new User(request.getUsername().trim(), request.getEmail().trim(), hashes.get(i));
+                // Gán quyền mặc định
+                user.setRoles(Set.of("ROLE_USER"));
+                users.add(new PreparedUser(rows.get(i).lineNumber(), user));
+            }
+            return users;
+        });
     }
 
-    public CompletableFuture<List<User>> processBatch(List<User> userBatch) {
-        return CompletableFuture.supplyAsync(() -> {
-            logger.info("Processing a batch of {} users in thread: {}", userBatch.size(), Thread.currentThread().getName());
-
-            List<User> processedUsers = userBatch.stream()
-                    .map(user -> {
-                        // Mã hóa mật khẩu trước khi lưu
-                        user.setPassword(passwordEncoder.encode(user.getPassword()));
-                        // Gán quyền mặc định
-                        user.setRoles(Set.of("ROLE_USER"));
-                        return userRepository.save(user);
-                    })
-                    .collect(Collectors.toList());
-
-            logger.info("Successfully processed and saved a batch of {} users.", processedUsers.size());
-            return processedUsers;
+    /**
+     * Lưu lô user bằng BatchWriteItem (UserRepository.saveAll). User không lưu được sau khi đã thử lại
+     * được ghi vào stats theo số dòng, không làm hỏng cả lô, và username/email của họ được trả lại.
+     */
+    public CompletableFuture<Void> persistBatch(List<PreparedUser> users, ImportStats stats) {
+        Map<User, Long> lineNumbers = new IdentityHashMap<>();
+        List<User> entities = new ArrayList<>(users.size());
+        for (PreparedUser prepared : users) {
+            lineNumbers.put(prepared.user(), prepared.lineNumber());
+            entities.add(prepared.user());
+        }
+        return userRepository.saveAll(entities).thenAccept(failed -> {
+            if (!failed.isEmpty()) {
+                uniquenessRepository.release(failed.stream().map(UserUniquenessRepository.Claim::of).collect(Collectors.toList()));
+            }
+            for (User user : failed) {
+                logger.error("Failed to save user {} after retries.", user.getUsername());
+                stats.recordFailure(lineNumbers.get(user), "could not save user: unprocessed after retries");
+            }
+            stats.recordPersisted(entities.size() - failed.size());
+            logger.debug("Saved a batch of {} users.", entities.size() - failed.size());
         });
     }
+
+    private String validate(SignUpRequest request) {
+        if (!StringUtils.hasText(request.getUsername())) {
+            return "username is required";
+        }
+        if (!StringUtils.hasText(request.getEmail()) || !EMAIL_PATTERN.matcher(request.getEmail().trim()).matches()) {
+            return "invalid email";
+        }
+        if (!StringUtils.hasText(request.getPassword())) {
+            return "password is required";
+        }
+        return null;
+    }
+
+    /**
+     * User đã sẵn sàng để lưu, kèm số dòng trong file CSV.
+     */
+    public record PreparedUser(long lineNumber, User user) {
+    }
 }
@@ -0,0 +1,145 @@
+package com.mm.user.repo;
+
+import com.amazonaws.services.dynamodbv2.datamodeling.DynamoDBMapper;
+import com.mm.user.config.BulkOperationConfig;
+import com.mm.user.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserRepositoryTest {
+
+    private DynamoDbAsyncClient client;
+    private BulkOperationConfig config;
+    private UserRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(DynamoDbAsyncClient.class);
+        config = new BulkOperationConfig();
+        // Một làn để thứ tự các lệnh gọi cố định
+        config.setWriteConcurrency(1);
+        config.setWriteRetryBaseDelayMs(1);
+        repository = new UserRepository(mock(DynamoDBMapper.class), client, config);
+    }
+
+    @Test
+    void resendsOnlyTheUnprocessedItems() throws Exception {
+        List<User> users = users(30);
+        when(client.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenAnswer(invocation -> {
+                    BatchWriteItemRequest request = invocation.getArgument(0);
+                    // Lần đầu của lô 25 item: DynamoDB trả lại u3 và u7
+                    List<WriteRequest> unprocessed = request.requestItems().get("users").stream()
+                            .filter(write -> Set.of("u3", "u7").contains(id(write)))
+                            .collect(Collectors.toList());
+                    boolean firstChunk = request.requestItems().get("users").size() == 25;
+                    return CompletableFuture.completedFuture(BatchWriteItemResponse.builder()
+                            .unprocessedItems(firstChunk ? Map.of("users", unprocessed) : Map.of())
+                            .build());
+                });
+
+        List<User> failed = repository.saveAll(users).get(5, TimeUnit.SECONDS);
+
+        assertThat(failed).isEmpty();
+        ArgumentCaptor<BatchWriteItemRequest> requests = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(client, times(3)).batchWriteItem(requests.capture());
+        assertThat(ids(requests.getAllValues().get(0))).hasSize(25);
+        assertThat(ids(requests.getAllValues().get(1))).containsExactly("u3", "u7");
+        assertThat(ids(requests.getAllValues().get(2))).containsExactly("u25", "u26", "u27", "u28", "u29");
+    }
+
+    @Test
+    void doesNotRetryValidationErrors() throws Exception {
+        List<User> users = users(10);
+        when(client.batchWriteItem(any(BatchWriteItemRequest.class))).thenReturn(CompletableFuture.failedFuture(
+                DynamoDbException.builder()
+                        .statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("ValidationException").build())
+                        .message("One or more parameter values were invalid")
+                        .build()));
+
+        List<User> failed = repository.saveAll(users).get(5, TimeUnit.SECONDS);
+
+        assertThat(failed).containsExactlyElementsOf(users);
+        verify(client, times(1)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    @Test
+    void retriesTheWholeChunkWhenThrottled() throws Exception {
+        List<User> users = users(10);
+        when(client.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(ProvisionedThroughputExceededException.builder()
+                        .statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorCode("ProvisionedThroughputExceededException").build())
+                        .message("Rate exceeded")
+                        .build()))
+                .thenReturn(CompletableFuture.completedFuture(BatchWriteItemResponse.builder().build()));
+
+        List<User> failed = repository.saveAll(users).get(5, TimeUnit.SECONDS);
+
+        assertThat(failed).isEmpty();
+        ArgumentCaptor<BatchWriteItemRequest> requests = ArgumentCaptor.forClass(BatchWriteItemRequest.class);
+        verify(client, times(2)).batchWriteItem(requests.capture());
+        assertThat(ids(requests.getAllValues().get(1))).hasSize(10);
+    }
+
+    @Test
+    void returnsItemsStillUnprocessedAfterTheLastRetry() throws Exception {
+        config.setWriteMaxRetries(2);
+        List<User> users = users(5);
+        when(client.batchWriteItem(any(BatchWriteItemRequest.class)))
+                .thenAnswer(invocation -> {
+                    BatchWriteItemRequest request = invocation.getArgument(0);
+                    List<WriteRequest> unprocessed = request.requestItems().get("users").stream()
+                            .filter(write -> id(write).equals("u4"))
+                            .collect(Collectors.toList());
+                    return CompletableFuture.completedFuture(BatchWriteItemResponse.builder()
+                            .unprocessedItems(Map.of("users", unprocessed))
+                            .build());
+                });
+
+        List<User> failed = repository.saveAll(users).get(5, TimeUnit.SECONDS);
+
+        assertThat(failed).extracting(User::getId).containsExactly("u4");
+        verify(client, times(3)).batchWriteItem(any(BatchWriteItemRequest.class));
+    }
+
+    private static List<User> users(int count) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            User user = new User("user" + i, "user" + i + "@example.com", "hash");
+            user.setId("u" + i);
+            return user;
+        }).collect(Collectors.toList());
+    }
+
+    private static List<String> ids(BatchWriteItemRequest request) {
+        return request.requestItems().get("users").stream().map(UserRepositoryTest::id).collect(Collectors.toList());
+    }
+
+    private static String id(WriteRequest write) {
+        return write.putRequest().item().get("id").s();
+    }
+}
@@ -0,0 +1,113 @@
+package com.mm.user.repo;
+
+import com.mm.user.config.BulkOperationConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.CancellationReason;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsResponse;
+import software.amazon.awssdk.services.dynamodb.model.TransactionCanceledException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserUniquenessRepositoryTest {
+
+    private DynamoDbAsyncClient client;
+    private UserUniquenessRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        client = mock(DynamoDbAsyncClient.class);
+        BulkOperationConfig config = new BulkOperationConfig();
+        config.setWriteRetryBaseDelayMs(1);
+        repository = new UserUniquenessRepository(client, config, "user_uniqueness");
+    }
+
+    @Test
+    void reportsTakenUsernamesAndEmailsAndRetriesOnlyTheFreeRows() throws Exception {
+        // Item 2 (username của bob) và item 5 (email của carol) đã tồn tại
+        TransactionCanceledException canceled = canceled("None", "None", "ConditionalCheckFailed", "None", "None", "ConditionalCheckFailed");
+        when(client.transactWriteItems(any(TransactWriteItemsRequest.class)))
+                .thenReturn(CompletableFuture.failedFuture(canceled))
+                .thenReturn(CompletableFuture.completedFuture(TransactWriteItemsResponse.builder().build()));
+
+        List<UserUniquenessRepository.Outcome> outcomes = repository.claimAll(List.of(
+                new UserUniquenessRepository.Claim("alice", "alice@example.com"),
+                new UserUniquenessRepository.Claim("bob", "bob@example.com"),
+                new UserUniquenessRepository.Claim("carol", "carol@example.com"))).get(5, TimeUnit.SECONDS);
+
+        assertThat(outcomes).containsExactly(UserUniquenessRepository.Outcome.CLAIMED,
+                UserUniquenessRepository.Outcome.USERNAME_TAKEN, UserUniquenessRepository.Outcome.EMAIL_TAKEN);
+        ArgumentCaptor<TransactWriteItemsRequest> requests = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(client, times(2)).transactWriteItems(requests.capture());
+        assertThat(keys(requests.getAllValues().get(0))).hasSize(6);
+        assertThat(keys(requests.getAllValues().get(1))).containsExactly("USERNAME#alice", "EMAIL#alice@example.com");
+        assertThat(requests.getAllValues().get(1).transactItems())
+                .allSatisfy(item -> assertThat(item.put().conditionExpression()).isEqualTo("attribute_not_exists(pk)"));
+    }
+
+    @Test
+    void claimsFiftyRowsPerTransaction() throws Exception {
+        when(client.transactWriteItems(any(TransactWriteItemsRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(TransactWriteItemsResponse.builder().build()));
+        List<UserUniquenessRepository.Claim> claims = IntStream.range(0, 120)
+                .mapToObj(i -> new UserUniquenessRepository.Claim("user" + i, "user" + i + "@example.com"))
+                .collect(Collectors.toList());
+
+        List<UserUniquenessRepository.Outcome> outcomes = repository.claimAll(claims).get(5, TimeUnit.SECONDS);
+
+        assertThat(outcomes).hasSize(120).containsOnly(UserUniquenessRepository.Outcome.CLAIMED);
+        // 120 dòng = 3 lệnh gọi, không phải một lệnh cho mỗi dòng
+        ArgumentCaptor<TransactWriteItemsRequest> requests = ArgumentCaptor.forClass(TransactWriteItemsRequest.class);
+        verify(client, times(3)).transactWriteItems(requests.capture());
+        assertThat(requests.getAllValues()).extracting(request -> request.transactItems().size())
+                .containsExactlyInAnyOrder(100, 100, 40);
+    }
+
+    @Test
+    void marksRowsFailedAfterPersistentTransactionConflicts() throws Exception {
+        BulkOperationConfig config = new BulkOperationConfig();
+        config.setWriteMaxRetries(2);
+        config.setWriteRetryBaseDelayMs(1);
+        repository = new UserUniquenessRepository(client, config, "user_uniqueness");
+        when(client.transactWriteItems(any(TransactWriteItemsRequest.class)))
+                .thenAnswer(invocation -> CompletableFuture.failedFuture(canceled("TransactionConflict", "None")));
+
+        List<UserUniquenessRepository.Outcome> outcomes = repository.claimAll(List.of(
+                new UserUniquenessRepository.Claim("alice", "alice@example.com"))).get(5, TimeUnit.SECONDS);
+
+        assertThat(outcomes).containsExactly(UserUniquenessRepository.Outcome.FAILED);
+        verify(client, times(3)).transactWriteItems(any(TransactWriteItemsRequest.class));
+    }
+
+    private static TransactionCanceledException canceled(String... codes) {
+        List<CancellationReason> reasons = new ArrayList<>();
+        for (String code : codes) {
+            reasons.add(CancellationReason.builder().code(code).build());
+        }
+        return TransactionCanceledException.builder()
+                .message("Transaction cancelled")
+                .cancellationReasons(reasons)
+                .build();
+    }
+
+    private static List<String> keys(TransactWriteItemsRequest request) {
+        return request.transactItems().stream()
+                .map(item -> item.put().item().get("pk").s())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,141 @@
+package com.mm.user.service;
+
+import com.mm.user.config.BulkOperationConfig;
+import com.mm.user.dto.ImportJobResponse;
+import com.mm.user.entity.ImportJob;
+import com.mm.user.repo.ImportJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.longThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImportJobServiceTest {
+
+    private static final String JOB_ID = "job-1";
+    private static final String OWNER = "alice";
+
+    private final CsvImportService csvImportService = mock(CsvImportService.class);
+    private final ImportJobRepository importJobRepository = mock(ImportJobRepository.class);
+    private final ImportFileStore importFileStore = mock(ImportFileStore.class);
+
+    private ExecutorService executor;
+    private ImportJobService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        executor = Executors.newSingleThreadExecutor();
+        // Báo tiến độ mỗi giây, lease 60 giây, dừng trước khi hết thời gian 1 giây
+        service = new ImportJobService(csvImportService, importJobRepository, importFileStore, new BulkOperationConfig(),
+                executor, false, 1, 7, 60, 0, 1);
+        when(importFileStore.openInput(JOB_ID)).thenReturn(new ByteArrayInputStream(new byte[0]));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void marksJobFailedWhenTheTimeBudgetRunsOutAndRenewsTheLeaseMeanwhile() throws Exception {
+        when(importJobRepository.markRunning(eq(JOB_ID), anyString(), anyLong())).thenReturn(true);
+        // Import không tự kết thúc: chỉ dừng khi luồng bị ngắt
+        when(csvImportService.processCsvFile(any(), any())).thenAnswer(invocation -> {
+            Thread.sleep(30_000);
+            return null;
+        });
+        long start = System.currentTimeMillis();
+
+        // Còn 2,5 giây, trừ 1 giây dự phòng: import bị dừng sau khoảng 1,5 giây
+        service.runJob(JOB_ID, 2_500);
+
+        long elapsed = System.currentTimeMillis() - start;
+        assertThat(elapsed).isBetween(1_400L, 5_000L);
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+        verify(importJobRepository).markRunning(eq(JOB_ID), anyString(), longThat(lease -> lease >= start + 60_000));
+        verify(importFileStore, never()).storeFailedRows(anyString(), any());
+
+        ArgumentCaptor<ImportJob> updates = ArgumentCaptor.forClass(ImportJob.class);
+        verify(importJobRepository, atLeast(2)).update(updates.capture());
+        List<ImportJob> written = updates.getAllValues();
+        // Lần báo tiến độ sau 1 giây gia hạn lease mà không đổi trạng thái
+        ImportJob progress = written.get(0);
+        assertThat(progress.getStatus()).isNull();
+        assertThat(progress.getLeaseExpiresAt()).isGreaterThanOrEqualTo(start + 1_000 + 60_000);
+        ImportJob result = written.get(written.size() - 1);
+        assertThat(result.getStatus()).isEqualTo(ImportJob.STATUS_FAILED);
+        assertThat(result.getMessage()).contains("time limit");
+    }
+
+    @Test
+    void failsImmediatelyWhenLessThanTheMarginIsLeft() throws Exception {
+        when(importJobRepository.markRunning(eq(JOB_ID), anyString(), anyLong())).thenReturn(true);
+
+        service.runJob(JOB_ID, 500);
+
+        verify(csvImportService, never()).processCsvFile(any(), any());
+        ArgumentCaptor<ImportJob> update = ArgumentCaptor.forClass(ImportJob.class);
+        verify(importJobRepository).update(update.capture());
+        assertThat(update.getValue().getStatus()).isEqualTo(ImportJob.STATUS_FAILED);
+    }
+
+    @Test
+    void redeliveredEventForAStoppedWorkerMarksTheJobFailedInsteadOfImportingAgain() throws Exception {
+        when(importJobRepository.markRunning(eq(JOB_ID), anyString(), anyLong())).thenReturn(false);
+        when(importJobRepository.markFailedIfLeaseExpired(eq(JOB_ID), anyLong(), anyString(), anyString())).thenReturn(true);
+
+        service.runJob(JOB_ID, 60_000);
+
+        verify(importJobRepository).markFailedIfLeaseExpired(eq(JOB_ID), anyLong(), anyString(), anyString());
+        verify(csvImportService, never()).processCsvFile(any(), any());
+    }
+
+    @Test
+    void readingAJobWithAnExpiredLeaseMarksItFailed() {
+        ImportJob stale = job(ImportJob.STATUS_RUNNING, System.currentTimeMillis() - 1_000);
+        ImportJob failed = job(ImportJob.STATUS_FAILED, stale.getLeaseExpiresAt());
+        when(importJobRepository.findById(JOB_ID)).thenReturn(Optional.of(stale), Optional.of(failed));
+        when(importJobRepository.markFailedIfLeaseExpired(eq(JOB_ID), anyLong(), anyString(), anyString())).thenReturn(true);
+
+        ImportJobResponse response = service.getJob(JOB_ID, OWNER).orElseThrow();
+
+        assertThat(response.getStatus()).isEqualTo(ImportJob.STATUS_FAILED);
+    }
+
+    @Test
+    void readingARunningJobWithALiveLeaseChangesNothing() {
+        ImportJob running = job(ImportJob.STATUS_RUNNING, System.currentTimeMillis() + 60_000);
+        when(importJobRepository.findById(JOB_ID)).thenReturn(Optional.of(running));
+
+        ImportJobResponse response = service.getJob(JOB_ID, OWNER).orElseThrow();
+
+        assertThat(response.getStatus()).isEqualTo(ImportJob.STATUS_RUNNING);
+        verify(importJobRepository, never()).markFailedIfLeaseExpired(anyString(), anyLong(), anyString(), anyString());
+    }
+
+    private static ImportJob job(String status, long leaseExpiresAt) {
+        ImportJob job = new ImportJob();
+        job.setJobId(JOB_ID);
+        job.setOwner(OWNER);
+        job.setStatus(status);
+        job.setLeaseExpiresAt(leaseExpiresAt);
+        return job;
+    }
+}
@@ -0,0 +1,79 @@
+package com.mm.user.service;
+
+import com.mm.user.config.BulkOperationConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PasswordHashingServiceTest {
+
+    private final BCryptPasswordEncoder verifier = new BCryptPasswordEncoder();
+
+    private BulkOperationConfig config;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        config = new BulkOperationConfig();
+        // Work factor thấp nhất để test chạy nhanh
+        config.setImportBcryptStrength(4);
+        config.setCpuPoolSize(3);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void keepsHashesInInputOrderAcrossChunks() throws Exception {
+        PasswordHashingService service = new PasswordHashingService(config, executor);
+        // 10 mật khẩu chia thành 3 phần (4, 4, 2) chạy trên 3 luồng
+        List<String> passwords = IntStream.range(0, 10).mapToObj(i -> "password-" + i).collect(Collectors.toList());
+
+        List<String> hashes = service.encodeAll(passwords, service.newSession()).get(10, TimeUnit.SECONDS);
+
+        assertThat(hashes).hasSize(passwords.size());
+        for (int i = 0; i < passwords.size(); i++) {
+            assertThat(verifier.matches(passwords.get(i), hashes.get(i))).as("hash %d", i).isTrue();
+        }
+    }
+
+    @Test
+    void identicalPasswordsGetDifferentHashesByDefault() throws Exception {
+        assertThat(config.isReuseIdenticalPasswordHashes()).isFalse();
+        PasswordHashingService service = new PasswordHashingService(config, executor);
+
+        List<String> hashes = service.encodeAll(List.of("secret", "secret", "secret"), service.newSession())
+                .get(10, TimeUnit.SECONDS);
+
+        assertThat(hashes).doesNotHaveDuplicates();
+        assertThat(hashes).allSatisfy(hash -> assertThat(verifier.matches("secret", hash)).isTrue());
+    }
+
+    @Test
+    void reusesHashesWithinOneSessionOnlyWhenEnabled() throws Exception {
+        config.setReuseIdenticalPasswordHashes(true);
+        config.setCpuPoolSize(1);
+        PasswordHashingService service = new PasswordHashingService(config, executor);
+
+        List<String> first = service.encodeAll(List.of("secret", "other", "secret"), service.newSession())
+                .get(10, TimeUnit.SECONDS);
+        List<String> second = service.encodeAll(List.of("secret"), service.newSession()).get(10, TimeUnit.SECONDS);
+
+        assertThat(first.get(0)).isEqualTo(first.get(2));
+        // Phiên mới (lần import sau) có salt mới
+        assertThat(second.get(0)).isNotEqualTo(first.get(0));
+    }
+}